@@ -23,16 +23,19 @@ import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
 import okhttp3.internal.Util;
 import okhttp3.internal.cache.CacheRequest;
 import okhttp3.internal.cache.CacheStrategy;
 import okhttp3.internal.cache.DiskLruCache;
 import okhttp3.internal.cache.InternalCache;
+import okhttp3.internal.cache.SegmentedLruCache;
 import okhttp3.internal.http.HttpHeaders;
 import okhttp3.internal.http.HttpMethod;
 import okhttp3.internal.http.StatusLine;
@@ -133,6 +136,15 @@ import okio.Source;
  * caching directives. It even offers convenient constants {@link CacheControl#FORCE_NETWORK} and
  * {@link CacheControl#FORCE_CACHE} that address the use cases above.
  *
+ * <h3>Memory Cache</h3>
+ *
+ * <p>A cache may keep small responses that are read repeatedly in memory, in front of the
+ * filesystem. Create it with {@link #Cache(File, long, long)} to give it a memory budget. A response
+ * is copied into memory when it is read from the filesystem, and is served from memory for as long
+ * as its entry on the filesystem is unchanged: replacing, removing, or evicting that entry also
+ * drops the copy in memory. Use {@link #memoryHitCount()} and {@link #diskHitCount()} to see
+ * which tier served each lookup.
+ *
  *
  * 本地缓存，在一些情况下可以使用缓存来节省宽带和时间
  */
@@ -142,6 +154,13 @@ public final class Cache implements Closeable, Flushable {
   private static final int ENTRY_BODY = 1;
   private static final int ENTRY_COUNT = 2;
 
+  /**
+   * The first bytes of metadata in the binary format: a zero byte followed by "OKC". Metadata in
+   * the older text format starts with the URL instead.
+   */
+  static final int ENTRY_MAGIC = 0x004f4b43;
+  static final int ENTRY_FORMAT_VERSION = 1;
+
   final InternalCache internalCache = new InternalCache() {
     @Override public Response get(Request request) throws IOException {
       return Cache.this.get(request);
@@ -170,19 +189,61 @@ public final class Cache implements Closeable, Flushable {
 
   final DiskLruCache cache;
 
+  /** Small, frequently read responses. Null if this cache doesn't use memory. */
+  final SegmentedLruCache<String, MemoryEntry> memoryCache;
+
+  /** The largest response body to hold in memory. */
+  private final long memoryMaxEntrySize;
+
   /* read and write statistics, all guarded by 'this' */
   int writeSuccessCount;
   int writeAbortCount;
   private int networkCount;
   private int hitCount;
   private int requestCount;
+  private int memoryHitCount;
+  private int diskHitCount;
 
   public Cache(File directory, long maxSize) {
-    this(directory, maxSize, FileSystem.SYSTEM);
+    this(directory, maxSize, 0L, FileSystem.SYSTEM);
+  }
+
+  /**
+   * Create a cache that holds up to {@code maxSize} bytes in {@code directory}, and up to {@code
+   * memoryMaxSize} bytes of response bodies in memory. Only bodies no larger than an eighth of
+   * {@code memoryMaxSize} are held in memory.
+   */
+  public Cache(File directory, long maxSize, long memoryMaxSize) {
+    this(directory, maxSize, memoryMaxSize, FileSystem.SYSTEM);
   }
 
   Cache(File directory, long maxSize, FileSystem fileSystem) {
-    this.cache = DiskLruCache.create(fileSystem, directory, VERSION, ENTRY_COUNT, maxSize);// 创建硬盘缓存
+    this(directory, maxSize, 0L, fileSystem);
+  }
+
+  Cache(File directory, long maxSize, long memoryMaxSize, FileSystem fileSystem) {
+    this(directory, maxSize, memoryMaxSize, 1, fileSystem);
+  }
+
+  /**
+   * Create a cache like {@link #Cache(File, long, long)} that spreads its files over {@code
+   * shardCount} subdirectories of {@code directory}. Each shard has its own journal and an equal
+   * share of {@code maxSize}, so concurrent reads and writes of different URLs don't contend for a
+   * single journal. Changing the shard count of an existing cache deletes its contents.
+   */
+  public Cache(File directory, long maxSize, long memoryMaxSize, int shardCount) {
+    this(directory, maxSize, memoryMaxSize, shardCount, FileSystem.SYSTEM);
+  }
+
+  Cache(File directory, long maxSize, long memoryMaxSize, int shardCount,
+      FileSystem fileSystem) {
+    if (memoryMaxSize < 0) throw new IllegalArgumentException("memoryMaxSize < 0");
+    this.cache = DiskLruCache.create(
+        fileSystem, directory, VERSION, ENTRY_COUNT, maxSize, shardCount);// 创建硬盘缓存
+    this.memoryCache = memoryMaxSize > 0
+        ? new SegmentedLruCache<String, MemoryEntry>(memoryMaxSize)
+        : null;
+    this.memoryMaxEntrySize = memoryMaxSize / 8;
   }
 
   public static String key(HttpUrl url) {
@@ -196,6 +257,24 @@ public final class Cache implements Closeable, Flushable {
    */
   Response get(Request request) {
     String key = key(request.url()); // 根据url生成key
+
+    // 先从内存缓存中获取
+    MemoryEntry memoryEntry = memoryCache != null ? memoryCache.get(key) : null;
+    if (memoryEntry != null && !isCurrent(key, memoryEntry)) {
+      // The entry was replaced or evicted on disk since it was promoted. Read it again from disk.
+      memoryCache.remove(key);
+      memoryEntry = null;
+    }
+    if (memoryEntry != null) {
+      Response response = memoryEntry.entry.response(
+          key, memoryEntry.sequenceNumber, memoryEntry.body);
+      if (!memoryEntry.entry.matches(request, response)) return null;
+      synchronized (this) {
+        memoryHitCount++;
+      }
+      return response;
+    }
+
     DiskLruCache.Snapshot snapshot;// 硬盘缓存快照
     Entry entry;
     try {
@@ -209,12 +288,21 @@ public final class Cache implements Closeable, Flushable {
     }
 
     try {
-      entry = new Entry(snapshot.getSource(ENTRY_METADATA));// 从缓冲区中获取
+      entry = Entry.read(snapshot.getSource(ENTRY_METADATA));// 从缓冲区中获取
     } catch (IOException e) {
       Util.closeQuietly(snapshot);
       return null;
     }
 
+    if (entry.legacyFormat) {
+      snapshot = migrate(key, snapshot, entry);
+      if (snapshot == null) return null;
+    }
+
+    if (memoryCache != null && snapshot.getLength(ENTRY_BODY) <= memoryMaxEntrySize) {
+      return promote(request, key, snapshot, entry);
+    }
+
     Response response = entry.response(snapshot);// 通过快照构建一个response
 
     // 请求和缓存中的响应信息是否匹配
@@ -223,6 +311,45 @@ public final class Cache implements Closeable, Flushable {
       return null;
     }
 
+    synchronized (this) {
+      diskHitCount++;
+    }
+    return response;
+  }
+
+  /**
+   * Returns true if {@code memoryEntry} is still the committed entry on disk. A promotion that races
+   * a new edit may hold a copy that was replaced, and the disk cache evicts entries without telling
+   * the memory cache.
+   */
+  private boolean isCurrent(String key, MemoryEntry memoryEntry) {
+    try {
+      return cache.isCurrent(key, memoryEntry.sequenceNumber);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /** Reads the body of {@code snapshot} into the memory cache and returns it as a response. */
+  private Response promote(
+      Request request, String key, DiskLruCache.Snapshot snapshot, Entry entry) {
+    ByteString body;
+    try {
+      body = Okio.buffer(snapshot.getSource(ENTRY_BODY)).readByteString();
+    } catch (IOException e) {
+      return null;
+    } finally {
+      Util.closeQuietly(snapshot);
+    }
+
+    long sequenceNumber = snapshot.sequenceNumber();
+    Response response = entry.response(key, sequenceNumber, body);
+    if (!entry.matches(request, response)) return null;
+
+    memoryCache.put(key, new MemoryEntry(entry, sequenceNumber, body), body.size());
+    synchronized (this) {
+      diskHitCount++;
+    }
     return response;
   }
 
@@ -258,9 +385,11 @@ public final class Cache implements Closeable, Flushable {
     }
 
     Entry entry = new Entry(response);
+    String key = key(response.request().url());
+    if (memoryCache != null) memoryCache.remove(key);
     DiskLruCache.Editor editor = null;
     try {
-      editor = cache.edit(key(response.request().url()));// 对应key的硬盘缓存editor
+      editor = cache.edit(key);// 对应key的硬盘缓存editor
       if (editor == null) {
         return null;
       }
@@ -273,8 +402,36 @@ public final class Cache implements Closeable, Flushable {
     }
   }
 
+  /**
+   * Rewrites the metadata of {@code entry} in the binary format so later hits don't parse text.
+   * Returns a snapshot of the rewritten entry, or {@code snapshot} if it couldn't be rewritten.
+   */
+  private DiskLruCache.Snapshot migrate(
+      String key, DiskLruCache.Snapshot snapshot, Entry entry) {
+    DiskLruCache.Editor editor = null;
+    try {
+      editor = snapshot.edit(); // Returns null if snapshot is not current.
+      if (editor == null) return snapshot;
+      entry.writeTo(editor);
+      editor.commit();
+    } catch (IOException e) {
+      abortQuietly(editor);
+      return snapshot;
+    }
+
+    // The old snapshot can't be updated anymore. Replace it with a current one.
+    Util.closeQuietly(snapshot);
+    try {
+      return cache.get(key);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
   void remove(Request request) throws IOException {
-    cache.remove(key(request.url()));
+    String key = key(request.url());
+    if (memoryCache != null) memoryCache.remove(key);
+    cache.remove(key);
   }
 
   /**
@@ -284,10 +441,18 @@ public final class Cache implements Closeable, Flushable {
    */
   void update(Response cached, Response network) {
     Entry entry = new Entry(network);
-    DiskLruCache.Snapshot snapshot = ((CacheResponseBody) cached.body()).snapshot;
+    ResponseBody body = cached.body();
     DiskLruCache.Editor editor = null;
     try {
-      editor = snapshot.edit(); // Returns null if snapshot is not current.
+      if (body instanceof MemoryResponseBody) {
+        // Drop the stale copy from memory. The next read promotes the updated entry.
+        MemoryResponseBody memoryBody = (MemoryResponseBody) body;
+        memoryCache.remove(memoryBody.key);
+        editor = cache.edit(memoryBody.key, memoryBody.sequenceNumber);
+      } else {
+        DiskLruCache.Snapshot snapshot = ((CacheResponseBody) body).snapshot;
+        editor = snapshot.edit(); // Returns null if snapshot is not current.
+      }
       if (editor != null) {
         entry.writeTo(editor);
         editor.commit();
@@ -327,6 +492,7 @@ public final class Cache implements Closeable, Flushable {
    * directory including files that weren't created by the cache.
    */
   public void delete() throws IOException {
+    if (memoryCache != null) memoryCache.evictAll();
     cache.delete();
   }
 
@@ -335,6 +501,7 @@ public final class Cache implements Closeable, Flushable {
    * but the corresponding responses will not be stored.
    */
   public void evictAll() throws IOException {
+    if (memoryCache != null) memoryCache.evictAll();
     cache.evictAll();
   }
 
@@ -352,6 +519,8 @@ public final class Cache implements Closeable, Flushable {
       final Iterator<DiskLruCache.Snapshot> delegate = cache.snapshots();
 
       String nextUrl;
+      String nextKey;
+      String removeKey;
       boolean canRemove;
 
       @Override public boolean hasNext() {
@@ -361,8 +530,8 @@ public final class Cache implements Closeable, Flushable {
         while (delegate.hasNext()) {
           DiskLruCache.Snapshot snapshot = delegate.next();
           try {
-            BufferedSource metadata = Okio.buffer(snapshot.getSource(ENTRY_METADATA));
-            nextUrl = metadata.readUtf8LineStrict();
+            nextUrl = Entry.read(snapshot.getSource(ENTRY_METADATA)).url;
+            nextKey = snapshot.key();
             return true;
           } catch (IOException ignored) {
             // We couldn't read the metadata for this snapshot; possibly because the host filesystem
@@ -379,12 +548,14 @@ public final class Cache implements Closeable, Flushable {
         if (!hasNext()) throw new NoSuchElementException();
         String result = nextUrl;
         nextUrl = null;
+        removeKey = nextKey;
         canRemove = true;
         return result;
       }
 
       @Override public void remove() {
         if (!canRemove) throw new IllegalStateException("remove() before next()");
+        if (memoryCache != null) memoryCache.remove(removeKey);
         delegate.remove();
       }
     };
@@ -450,6 +621,26 @@ public final class Cache implements Closeable, Flushable {
     return requestCount;
   }
 
+  /** Returns the number of lookups answered from memory. */
+  public synchronized int memoryHitCount() {
+    return memoryHitCount;
+  }
+
+  /** Returns the number of lookups answered from the filesystem. */
+  public synchronized int diskHitCount() {
+    return diskHitCount;
+  }
+
+  /** Returns the number of bytes of response bodies held in memory. */
+  public long memorySize() {
+    return memoryCache != null ? memoryCache.size() : 0L;
+  }
+
+  /** Returns the maximum number of bytes of response bodies to hold in memory. */
+  public long memoryMaxSize() {
+    return memoryCache != null ? memoryCache.maxSize() : 0L;
+  }
+
   private final class CacheRequestImpl implements CacheRequest {
     private final DiskLruCache.Editor editor;
     private Sink cacheOut;
@@ -512,8 +703,108 @@ public final class Cache implements Closeable, Flushable {
     private final long sentRequestMillis;
     private final long receivedResponseMillis;
 
+    /** True if this entry was read from metadata in the legacy text format. */
+    final boolean legacyFormat;
+
     /**
-     * Reads an entry from an input stream. A typical entry looks like this:
+     * Reads an entry from {@code in}, which may be in either the binary format or the legacy text
+     * format.
+     *
+     * <p>The binary format starts with a 16 byte header: {@link #ENTRY_MAGIC}, {@link
+     * #ENTRY_FORMAT_VERSION}, the payload's length, and the CRC32 checksum of the payload. Each
+     * field of the payload is either a 4-byte int, an 8-byte long, or a string or byte array
+     * prefixed by its 4-byte length:
+     * <pre>{@code
+     *   url
+     *   request method
+     *   vary header count, followed by a name and value for each header
+     *   protocol
+     *   status code
+     *   status message
+     *   response header count, followed by a name and value for each header
+     *   sent request millis
+     *   received response millis
+     *   cipher suite, or an empty string if the response wasn't HTTPS
+     *   TLS version, or an empty string if unknown
+     *   peer certificate count, followed by the DER encoding of each certificate
+     *   local certificate count, followed by the DER encoding of each certificate
+     * }</pre>
+     *
+     * <p>Certificates are decoded only if the response's handshake is inspected.
+     */
+    static Entry read(Source in) throws IOException {
+      BufferedSource source = Okio.buffer(in);
+      if (!source.request(1) || source.buffer().getByte(0) != 0) {
+        return new Entry(source); // Legacy text format.
+      }
+
+      try {
+        if (source.readInt() != ENTRY_MAGIC) throw new IOException("unexpected metadata format");
+        int version = source.readInt();
+        if (version != ENTRY_FORMAT_VERSION) {
+          throw new IOException("unexpected metadata version: " + version);
+        }
+        int length = source.readInt();
+        int checksum = source.readInt();
+        if (length < 0) throw new IOException("unexpected metadata length: " + length);
+        byte[] bytes = source.readByteArray(length);
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        if ((int) crc32.getValue() != checksum) throw new IOException("metadata checksum mismatch");
+        if (!source.exhausted()) throw new IOException("unexpected metadata trailer");
+
+        Buffer payload = new Buffer().write(bytes);
+        String url = readString(payload);
+        String requestMethod = readString(payload);
+        Headers varyHeaders = readHeaders(payload);
+        Protocol protocol = Protocol.get(readString(payload));
+        int code = payload.readInt();
+        String message = readString(payload);
+        Headers responseHeaders = readHeaders(payload);
+        long sentRequestMillis = payload.readLong();
+        long receivedResponseMillis = payload.readLong();
+
+        Handshake handshake = null;
+        String cipherSuiteString = readString(payload);
+        String tlsVersionString = readString(payload);
+        List<Certificate> peerCertificates = readEncodedCertificates(payload);
+        List<Certificate> localCertificates = readEncodedCertificates(payload);
+        if (!cipherSuiteString.isEmpty()) {
+          CipherSuite cipherSuite = CipherSuite.forJavaName(cipherSuiteString);
+          TlsVersion tlsVersion = !tlsVersionString.isEmpty()
+              ? TlsVersion.forJavaName(tlsVersionString)
+              : null;
+          handshake = new Handshake(tlsVersion, cipherSuite, peerCertificates, localCertificates);
+        }
+        if (!payload.exhausted()) throw new IOException("unexpected metadata payload");
+
+        return new Entry(url, varyHeaders, requestMethod, protocol, code, message,
+            responseHeaders, handshake, sentRequestMillis, receivedResponseMillis);
+      } catch (IllegalArgumentException e) {
+        throw new IOException(e.getMessage());
+      } finally {
+        in.close();
+      }
+    }
+
+    private Entry(String url, Headers varyHeaders, String requestMethod, Protocol protocol,
+        int code, String message, Headers responseHeaders, Handshake handshake,
+        long sentRequestMillis, long receivedResponseMillis) {
+      this.url = url;
+      this.varyHeaders = varyHeaders;
+      this.requestMethod = requestMethod;
+      this.protocol = protocol;
+      this.code = code;
+      this.message = message;
+      this.responseHeaders = responseHeaders;
+      this.handshake = handshake;
+      this.sentRequestMillis = sentRequestMillis;
+      this.receivedResponseMillis = receivedResponseMillis;
+      this.legacyFormat = false;
+    }
+
+    /**
+     * Reads an entry in the legacy text format. A typical entry looks like this:
      * <pre>{@code
      *   http://google.com/foo
      *   GET
@@ -562,9 +853,9 @@ public final class Cache implements Closeable, Flushable {
      *
      * 缓存条目，其中包含头的缓存策略信息
      */
-    public Entry(Source in) throws IOException {
+    Entry(BufferedSource source) throws IOException {
       try {
-        BufferedSource source = Okio.buffer(in);
+        legacyFormat = true;
         url = source.readUtf8LineStrict();
         requestMethod = source.readUtf8LineStrict();
         Headers.Builder varyHeadersBuilder = new Headers.Builder();
@@ -612,7 +903,7 @@ public final class Cache implements Closeable, Flushable {
           handshake = null;
         }
       } finally {
-        in.close();
+        source.close();
       }
     }
 
@@ -627,6 +918,7 @@ public final class Cache implements Closeable, Flushable {
       this.handshake = response.handshake();
       this.sentRequestMillis = response.sentRequestAtMillis();
       this.receivedResponseMillis = response.receivedResponseAtMillis();
+      this.legacyFormat = false;
     }
 
     /**
@@ -635,53 +927,104 @@ public final class Cache implements Closeable, Flushable {
      * @throws IOException
      */
     public void writeTo(DiskLruCache.Editor editor) throws IOException {
+      Buffer payload = new Buffer();
+      writeString(payload, url);
+      writeString(payload, requestMethod);
+      writeHeaders(payload, varyHeaders);
+      writeString(payload, protocol.toString());
+      payload.writeInt(code);
+      writeString(payload, message);
+      writeHeaders(payload, responseHeaders);
+      payload.writeLong(sentRequestMillis);
+      payload.writeLong(receivedResponseMillis);
+
+      // The handshake’s TLS version is null on HttpsURLConnection and on older cached responses.
+      boolean https = isHttps() && handshake != null;
+      TlsVersion tlsVersion = https ? handshake.tlsVersion() : null;
+      writeString(payload, https ? handshake.cipherSuite().javaName() : "");
+      writeString(payload, tlsVersion != null ? tlsVersion.javaName() : "");
+      writeEncodedCertificates(payload,
+          https ? handshake.peerCertificates() : Collections.<Certificate>emptyList());
+      writeEncodedCertificates(payload,
+          https ? handshake.localCertificates() : Collections.<Certificate>emptyList());
+
+      byte[] bytes = payload.readByteArray();
+      CRC32 crc32 = new CRC32();
+      crc32.update(bytes, 0, bytes.length);
+
       BufferedSink sink = Okio.buffer(editor.newSink(ENTRY_METADATA));
+      sink.writeInt(ENTRY_MAGIC)
+          .writeInt(ENTRY_FORMAT_VERSION)
+          .writeInt(bytes.length)
+          .writeInt((int) crc32.getValue())
+          .write(bytes);
+      sink.close();
+    }
+
+    private static String readString(Buffer source) throws IOException {
+      return source.readUtf8(readLength(source));
+    }
+
+    private static void writeString(Buffer sink, String value) {
+      ByteString bytes = ByteString.encodeUtf8(value);
+      sink.writeInt(bytes.size()).write(bytes);
+    }
+
+    private static int readLength(Buffer source) throws IOException {
+      int length = source.readInt();
+      if (length < 0 || length > source.size()) {
+        throw new IOException("unexpected length: " + length);
+      }
+      return length;
+    }
+
+    private static Headers readHeaders(Buffer source) throws IOException {
+      int count = readLength(source);
+      Headers.Builder result = new Headers.Builder();
+      for (int i = 0; i < count; i++) {
+        String name = readString(source);
+        String value = readString(source);
+        result.addLenient(name, value);
+      }
+      return result.build();
+    }
+
+    private static void writeHeaders(Buffer sink, Headers headers) {
+      sink.writeInt(headers.size());
+      for (int i = 0, size = headers.size(); i < size; i++) {
+        writeString(sink, headers.name(i));
+        writeString(sink, headers.value(i));
+      }
+    }
 
-      sink.writeUtf8(url)
-          .writeByte('\n');
-      sink.writeUtf8(requestMethod)
-          .writeByte('\n');
-      sink.writeDecimalLong(varyHeaders.size())
-          .writeByte('\n');
-      for (int i = 0, size = varyHeaders.size(); i < size; i++) {
-        sink.writeUtf8(varyHeaders.name(i))
-            .writeUtf8(": ")
-            .writeUtf8(varyHeaders.value(i))
-            .writeByte('\n');
+    private static List<Certificate> readEncodedCertificates(Buffer source) throws IOException {
+      int count = readLength(source);
+      if (count == 0) return Collections.emptyList();
+      List<ByteString> result = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        result.add(source.readByteString(readLength(source)));
       }
+      return new EncodedCertificateList(result);
+    }
 
-      sink.writeUtf8(new StatusLine(protocol, code, message).toString())
-          .writeByte('\n');
-      sink.writeDecimalLong(responseHeaders.size() + 2)
-          .writeByte('\n');
-      for (int i = 0, size = responseHeaders.size(); i < size; i++) {
-        sink.writeUtf8(responseHeaders.name(i))
-            .writeUtf8(": ")
-            .writeUtf8(responseHeaders.value(i))
-            .writeByte('\n');
+    private static void writeEncodedCertificates(Buffer sink, List<Certificate> certificates)
+        throws IOException {
+      sink.writeInt(certificates.size());
+      if (certificates instanceof EncodedCertificateList) {
+        // Don't decode certificates only to encode them again.
+        for (ByteString bytes : ((EncodedCertificateList) certificates).encoded) {
+          sink.writeInt(bytes.size()).write(bytes);
+        }
+        return;
       }
-      sink.writeUtf8(SENT_MILLIS)
-          .writeUtf8(": ")
-          .writeDecimalLong(sentRequestMillis)
-          .writeByte('\n');
-      sink.writeUtf8(RECEIVED_MILLIS)
-          .writeUtf8(": ")
-          .writeDecimalLong(receivedResponseMillis)
-          .writeByte('\n');
-
-      if (isHttps()) {
-        sink.writeByte('\n');
-        sink.writeUtf8(handshake.cipherSuite().javaName())
-            .writeByte('\n');
-        writeCertList(sink, handshake.peerCertificates());
-        writeCertList(sink, handshake.localCertificates());
-        // The handshake’s TLS version is null on HttpsURLConnection and on older cached responses.
-        if (handshake.tlsVersion() != null) {
-          sink.writeUtf8(handshake.tlsVersion().javaName())
-              .writeByte('\n');
+      try {
+        for (int i = 0, size = certificates.size(); i < size; i++) {
+          byte[] bytes = certificates.get(i).getEncoded();
+          sink.writeInt(bytes.length).write(bytes);
         }
+      } catch (CertificateEncodingException e) {
+        throw new IOException(e.getMessage());
       }
-      sink.close();
     }
 
     private boolean isHttps() {
@@ -707,28 +1050,6 @@ public final class Cache implements Closeable, Flushable {
       }
     }
 
-    /**
-     * 将两段的握手证书写入缓存
-     * @param sink
-     * @param certificates
-     * @throws IOException
-     */
-    private void writeCertList(BufferedSink sink, List<Certificate> certificates)
-        throws IOException {
-      try {
-        sink.writeDecimalLong(certificates.size())
-            .writeByte('\n');
-        for (int i = 0, size = certificates.size(); i < size; i++) {
-          byte[] bytes = certificates.get(i).getEncoded();
-          String line = ByteString.of(bytes).base64();
-          sink.writeUtf8(line)
-              .writeByte('\n');
-        }
-      } catch (CertificateEncodingException e) {
-        throw new IOException(e.getMessage());
-      }
-    }
-
     /**
      * 比较方法、url、头等信息
      * @param request
@@ -745,6 +1066,16 @@ public final class Cache implements Closeable, Flushable {
     public Response response(DiskLruCache.Snapshot snapshot) {
       String contentType = responseHeaders.get("Content-Type");
       String contentLength = responseHeaders.get("Content-Length");
+      return response(new CacheResponseBody(snapshot, contentType, contentLength));
+    }
+
+    /** Returns a response whose body is read from memory. */
+    public Response response(String key, long sequenceNumber, ByteString body) {
+      String contentType = responseHeaders.get("Content-Type");
+      return response(new MemoryResponseBody(key, sequenceNumber, body, contentType));
+    }
+
+    private Response response(ResponseBody body) {
       Request cacheRequest = new Request.Builder() //构造请求
           .url(url)
           .method(requestMethod, null)
@@ -756,7 +1087,7 @@ public final class Cache implements Closeable, Flushable {
           .code(code)
           .message(message)
           .headers(responseHeaders)
-          .body(new CacheResponseBody(snapshot, contentType, contentLength))
+          .body(body)
           .handshake(handshake)
           .sentRequestAtMillis(sentRequestMillis)
           .receivedResponseAtMillis(receivedResponseMillis)
@@ -764,6 +1095,45 @@ public final class Cache implements Closeable, Flushable {
     }
   }
 
+  /**
+   * An immutable list of certificates read from binary metadata. Certificates are decoded on first
+   * access, so cache hits that don't inspect the handshake don't pay to parse them.
+   */
+  static final class EncodedCertificateList extends AbstractList<Certificate> {
+    final List<ByteString> encoded;
+    private List<Certificate> decoded; // Guarded by this.
+
+    EncodedCertificateList(List<ByteString> encoded) {
+      this.encoded = encoded;
+    }
+
+    @Override public Certificate get(int index) {
+      return decoded().get(index);
+    }
+
+    @Override public int size() {
+      return encoded.size();
+    }
+
+    private synchronized List<Certificate> decoded() {
+      if (decoded == null) {
+        try {
+          CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+          List<Certificate> result = new ArrayList<>(encoded.size());
+          for (ByteString bytes : encoded) {
+            result.add(certificateFactory.generateCertificate(
+                new Buffer().write(bytes).inputStream()));
+          }
+          decoded = result;
+        } catch (CertificateException e) {
+          // The metadata's checksum matched, so these are the bytes that were written.
+          throw new IllegalStateException("unable to decode cached certificate", e);
+        }
+      }
+      return decoded;
+    }
+  }
+
   static int readInt(BufferedSource source) throws IOException {
     try {
       long result = source.readDecimalLong();
@@ -777,6 +1147,48 @@ public final class Cache implements Closeable, Flushable {
     }
   }
 
+  /** A response body from the memory cache. It shares its bytes with the cached entry. */
+  private static final class MemoryResponseBody extends ResponseBody {
+    final String key;
+    final long sequenceNumber;
+    private final ByteString body;
+    private final String contentType;
+    private final BufferedSource bodySource;
+
+    MemoryResponseBody(String key, long sequenceNumber, ByteString body, String contentType) {
+      this.key = key;
+      this.sequenceNumber = sequenceNumber;
+      this.body = body;
+      this.contentType = contentType;
+      this.bodySource = new Buffer().write(body);
+    }
+
+    @Override public MediaType contentType() {
+      return contentType != null ? MediaType.parse(contentType) : null;
+    }
+
+    @Override public long contentLength() {
+      return body.size();
+    }
+
+    @Override public BufferedSource source() {
+      return bodySource;
+    }
+  }
+
+  /** A cached entry whose metadata and body are held in memory. */
+  private static final class MemoryEntry {
+    final Entry entry;
+    final long sequenceNumber;
+    final ByteString body;
+
+    MemoryEntry(Entry entry, long sequenceNumber, ByteString body) {
+      this.entry = entry;
+      this.sequenceNumber = sequenceNumber;
+      this.body = body;
+    }
+  }
+
   private static class CacheResponseBody extends ResponseBody {
     final DiskLruCache.Snapshot snapshot;
     private final BufferedSource bodySource;
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import okhttp3.internal.NamedRunnable;
+import okhttp3.internal.Util;
+import okhttp3.internal.platform.Platform;
+
+import static okhttp3.internal.platform.Platform.WARN;
+
+/**
+ * A {@link Dns} that caches the results of another. Successful lookups are cached for a time to
+ * live, and failed lookups are cached for a shorter negative time to live. Once a successful
+ * lookup expires it may still be returned for a grace period while it is refreshed on a background
+ * thread, so callers don't wait on the network to resolve hosts they use often.
+ *
+ * <p>Use {@link #prefetch} to resolve hosts before they're needed. Concurrent lookups of a host
+ * that isn't cached share a single lookup with the delegate, including a refresh or prefetch that
+ * is already in flight.
+ *
+ * <p>This class is safe for concurrent use. Share a single instance between clients to share its
+ * cache.
+ */
+public final class CachingDns implements Dns {
+  /** The most lookups to make in the background at once, across all caches. */
+  static final int MAX_BACKGROUND_LOOKUPS = 8;
+
+  /** Background threads resolve prefetches and stale entries. Excess lookups wait in a queue. */
+  private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+      MAX_BACKGROUND_LOOKUPS /* corePoolSize */, MAX_BACKGROUND_LOOKUPS /* maximumPoolSize */,
+      60L /* keepAliveTime */, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+      Util.threadFactory("OkHttp CachingDns", true));
+
+  static {
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  private final Dns delegate;
+  private final long ttlNanos;
+  private final long negativeTtlNanos;
+  private final long staleNanos;
+  private final Map<String, Long> hostTtlNanos;
+
+  /** Cached lookups by lowercase host name, in least-recently used order. Guarded by this. */
+  private final LinkedHashMap<String, Entry> entries;
+
+  /** Lookups waiting on the delegate, by lowercase host name. Guarded by this. */
+  private final Map<String, Lookup> inFlight = new LinkedHashMap<>();
+
+  private int hitCount;
+  private int staleHitCount;
+  private int negativeHitCount;
+  private int missCount;
+  private int refreshCount;
+
+  CachingDns(Builder builder) {
+    this.delegate = builder.delegate;
+    this.ttlNanos = builder.ttlNanos;
+    this.negativeTtlNanos = builder.negativeTtlNanos;
+    this.staleNanos = builder.staleNanos;
+    this.hostTtlNanos = Collections.unmodifiableMap(new LinkedHashMap<>(builder.hostTtlNanos));
+    final int maxEntries = builder.maxEntries;
+    this.entries = new LinkedHashMap<String, Entry>(0, 0.75f, true) {
+      @Override protected boolean removeEldestEntry(Map.Entry<String, CachingDns.Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  @Override public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+    if (hostname == null) throw new UnknownHostException("hostname == null");
+    String host = hostname.toLowerCase(Locale.US);
+    long now = System.nanoTime();
+
+    Entry entry;
+    boolean refresh = false;
+    synchronized (this) {
+      entry = entries.get(host);
+      if (entry != null && now - entry.expiresAtNanos < 0) {
+        if (entry.addresses != null) {
+          hitCount++;
+        } else {
+          negativeHitCount++;
+        }
+      } else if (entry != null && entry.addresses != null && now - entry.staleAtNanos < 0) {
+        // Serve the stale entry and refresh it in the background.
+        staleHitCount++;
+        if (!entry.refreshing) {
+          entry.refreshing = true;
+          refresh = true;
+        }
+      } else {
+        entry = null;
+        missCount++;
+      }
+    }
+
+    if (refresh) {
+      executor.execute(new RefreshRunnable(host));
+    }
+
+    if (entry == null) {
+      entry = resolveOnce(host);
+    }
+
+    if (entry.addresses == null) {
+      UnknownHostException exception = new UnknownHostException(entry.failure.getMessage());
+      exception.initCause(entry.failure);
+      throw exception;
+    }
+    return entry.addresses;
+  }
+
+  /**
+   * Resolves {@code hostnames} in the background and caches the results. Hosts that are already
+   * cached and haven't expired are skipped.
+   */
+  public void prefetch(String... hostnames) {
+    prefetch(Arrays.asList(hostnames));
+  }
+
+  /**
+   * Resolves {@code hostnames} in the background and caches the results. Hosts that are already
+   * cached and haven't expired are skipped.
+   */
+  public void prefetch(List<String> hostnames) {
+    long now = System.nanoTime();
+    for (String hostname : hostnames) {
+      String host = hostname.toLowerCase(Locale.US);
+      synchronized (this) {
+        Entry entry = entries.get(host);
+        if (entry != null && (entry.refreshing || now - entry.expiresAtNanos < 0)) continue;
+        if (entry != null) entry.refreshing = true;
+      }
+      executor.execute(new RefreshRunnable(host));
+    }
+  }
+
+  /**
+   * Looks up {@code host} with the delegate and caches the result, or waits for a lookup of it that
+   * is already in flight.
+   */
+  private Entry resolveOnce(String host) throws UnknownHostException {
+    Lookup lookup;
+    synchronized (this) {
+      lookup = inFlight.get(host);
+      if (lookup == null) inFlight.put(host, new Lookup());
+    }
+    if (lookup != null) return lookup.await(host);
+
+    Entry entry = null;
+    RuntimeException failure = null;
+    try {
+      entry = resolve(host);
+      return entry;
+    } catch (RuntimeException e) {
+      failure = e;
+      throw e;
+    } finally {
+      synchronized (this) {
+        lookup = inFlight.remove(host);
+        if (entry != null) {
+          put(host, entry);
+        } else {
+          Entry previous = entries.get(host);
+          if (previous != null) previous.refreshing = false;
+        }
+      }
+      lookup.complete(entry, failure);
+    }
+  }
+
+  /** Looks up {@code host} with the delegate. */
+  private Entry resolve(String host) {
+    Entry entry;
+    try {
+      List<InetAddress> addresses = delegate.lookup(host);
+      if (addresses.isEmpty()) throw new UnknownHostException("No addresses for " + host);
+      long ttl = ttlNanos(host);
+      long now = System.nanoTime();
+      entry = new Entry(Util.immutableList(addresses), null, now + ttl, now + ttl + staleNanos);
+    } catch (UnknownHostException e) {
+      long now = System.nanoTime();
+      entry = new Entry(null, e, now + negativeTtlNanos, now + negativeTtlNanos);
+    }
+    return entry;
+  }
+
+  private synchronized void put(String host, Entry entry) {
+    Entry previous = entries.get(host);
+    if (entry.addresses == null && previous != null && previous.addresses != null
+        && System.nanoTime() - previous.staleAtNanos < 0) {
+      // A refresh failed. Keep serving the stale addresses until they're too old.
+      previous.refreshing = false;
+    } else if (entry.addresses != null || negativeTtlNanos > 0) {
+      entries.put(host, entry);
+    } else {
+      entries.remove(host);
+    }
+  }
+
+  private long ttlNanos(String host) {
+    Long ttl = hostTtlNanos.get(host);
+    return ttl != null ? ttl : ttlNanos;
+  }
+
+  /** Removes all cached lookups. */
+  public synchronized void evictAll() {
+    entries.clear();
+  }
+
+  /** Returns the number of hosts in the cache, including expired ones. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Returns the number of lookups answered with an unexpired successful lookup. */
+  public synchronized int hitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of lookups answered with an expired lookup while it was refreshed. */
+  public synchronized int staleHitCount() {
+    return staleHitCount;
+  }
+
+  /** Returns the number of lookups answered with an unexpired failed lookup. */
+  public synchronized int negativeHitCount() {
+    return negativeHitCount;
+  }
+
+  /** Returns the number of lookups that had to wait for the delegate. */
+  public synchronized int missCount() {
+    return missCount;
+  }
+
+  /** Returns the number of lookups performed in the background by refreshes and prefetches. */
+  public synchronized int refreshCount() {
+    return refreshCount;
+  }
+
+  final class RefreshRunnable extends NamedRunnable {
+    private final String host;
+
+    RefreshRunnable(String host) {
+      super("OkHttp CachingDns %s", host);
+      this.host = host;
+    }
+
+    @Override protected void execute() {
+      synchronized (CachingDns.this) {
+        refreshCount++;
+      }
+      try {
+        resolveOnce(host);
+      } catch (UnknownHostException ignored) {
+        // Another lookup of this host failed while we waited for it. It cached the failure.
+      } catch (RuntimeException e) {
+        Platform.get().log(WARN, "CachingDns failed to refresh " + host, e);
+      }
+    }
+  }
+
+  /** A lookup with the delegate that other lookups of the same host may wait for. */
+  static final class Lookup {
+    // Guarded by this.
+    private boolean done;
+    private Entry entry;
+    private RuntimeException failure;
+
+    synchronized void complete(Entry entry, RuntimeException failure) {
+      this.done = true;
+      this.entry = entry;
+      this.failure = failure;
+      notifyAll();
+    }
+
+    synchronized Entry await(String host) throws UnknownHostException {
+      try {
+        while (!done) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new UnknownHostException("Interrupted while resolving " + host);
+      }
+      if (entry == null) {
+        UnknownHostException exception = new UnknownHostException("Failed to resolve " + host);
+        exception.initCause(failure);
+        throw exception;
+      }
+      return entry;
+    }
+  }
+
+  static final class Entry {
+    /** Null if the lookup failed. */
+    final List<InetAddress> addresses;
+    /** Non-null if the lookup failed. */
+    final UnknownHostException failure;
+    final long expiresAtNanos;
+    final long staleAtNanos;
+    /** True if a background lookup is in flight. Guarded by the cache. */
+    boolean refreshing;
+
+    Entry(List<InetAddress> addresses, UnknownHostException failure, long expiresAtNanos,
+        long staleAtNanos) {
+      this.addresses = addresses;
+      this.failure = failure;
+      this.expiresAtNanos = expiresAtNanos;
+      this.staleAtNanos = staleAtNanos;
+    }
+  }
+
+  public static final class Builder {
+    Dns delegate = Dns.SYSTEM;
+    long ttlNanos = TimeUnit.SECONDS.toNanos(60);
+    long negativeTtlNanos = TimeUnit.SECONDS.toNanos(10);
+    long staleNanos = TimeUnit.MINUTES.toNanos(5);
+    int maxEntries = 256;
+    final Map<String, Long> hostTtlNanos = new LinkedHashMap<>();
+
+    /** Sets the DNS to resolve cache misses with. Defaults to {@link Dns#SYSTEM}. */
+    public Builder delegate(Dns delegate) {
+      if (delegate == null) throw new NullPointerException("delegate == null");
+      this.delegate = delegate;
+      return this;
+    }
+
+    /** Sets how long successful lookups are cached. Defaults to 60 seconds. */
+    public Builder ttl(long duration, TimeUnit unit) {
+      this.ttlNanos = checkDuration("ttl", duration, unit);
+      return this;
+    }
+
+    /** Sets how long successful lookups of {@code hostname} are cached. */
+    public Builder ttl(String hostname, long duration, TimeUnit unit) {
+      if (hostname == null) throw new NullPointerException("hostname == null");
+      hostTtlNanos.put(hostname.toLowerCase(Locale.US), checkDuration("ttl", duration, unit));
+      return this;
+    }
+
+    /** Sets how long failed lookups are cached. Zero disables negative caching. Defaults to 10s. */
+    public Builder negativeTtl(long duration, TimeUnit unit) {
+      this.negativeTtlNanos = checkDuration("negativeTtl", duration, unit);
+      return this;
+    }
+
+    /**
+     * Sets how long after expiring a successful lookup may still be returned while it is refreshed
+     * in the background. Zero disables stale results. Defaults to 5 minutes.
+     */
+    public Builder staleWhileRevalidate(long duration, TimeUnit unit) {
+      this.staleNanos = checkDuration("staleWhileRevalidate", duration, unit);
+      return this;
+    }
+
+    /** Sets the maximum number of hosts to cache. Defaults to 256. */
+    public Builder maxEntries(int maxEntries) {
+      if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0: " + maxEntries);
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    private static long checkDuration(String name, long duration, TimeUnit unit) {
+      if (duration < 0) throw new IllegalArgumentException(name + " < 0");
+      if (unit == null) throw new NullPointerException("unit == null");
+      return unit.toNanos(duration);
+    }
+
+    public CachingDns build() {
+      return new CachingDns(this);
+    }
+  }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how long each phase of each call takes, in a {@link LatencyHistogram} per phase, both in
+ * total and for each host. Also counts how often calls get a connection from the pool rather than
+ * connecting, and how many header and body bytes they transfer. Install it as the client's event
+ * listener factory:
+ *
+ * <pre>   {@code
+ *
+ *   CallMetrics metrics = new CallMetrics();
+ *   OkHttpClient client = new OkHttpClient.Builder()
+ *       .eventListenerFactory(metrics)
+ *       .build();
+ *   ...
+ *   long p99 = metrics.snapshot().latency(CallMetrics.Phase.RESPONSE_HEADERS).percentileNanos(99);
+ * }</pre>
+ *
+ * <p>Only phases that complete successfully are recorded. Each call is counted under the host of
+ * its original request, even if it is redirected to another host. To bound memory, hosts beyond
+ * the first {@code maxHosts} are counted only in the totals.
+ */
+public final class CallMetrics implements EventListener.Factory {
+  public static final int DEFAULT_MAX_HOSTS = 256;
+
+  public enum Phase {
+    /** Resolving a host name. A call that connects through several proxies may resolve several. */
+    DNS,
+    /** Making a connection, including its TLS handshake and any proxy tunnel. */
+    CONNECT,
+    /** The TLS handshake alone, excluding certificate pinning and hostname verification. */
+    SECURE_CONNECT,
+    REQUEST_HEADERS,
+    REQUEST_BODY,
+    /** From sending the request to receiving the response headers. */
+    RESPONSE_HEADERS,
+    /** From receiving the response headers until the response body is exhausted or closed. */
+    RESPONSE_BODY,
+    /** From the start of the call until its final response headers, including every phase. */
+    FETCH
+  }
+
+  private final int maxHosts;
+  private final Stats total = new Stats();
+  private final ConcurrentMap<String, Stats> hosts = new ConcurrentHashMap<>();
+
+  public CallMetrics() {
+    this(DEFAULT_MAX_HOSTS);
+  }
+
+  public CallMetrics(int maxHosts) {
+    if (maxHosts < 0) throw new IllegalArgumentException("maxHosts < 0: " + maxHosts);
+    this.maxHosts = maxHosts;
+  }
+
+  @Override public EventListener create(Call call) {
+    return new CallListener(total, hostStats(call.request().url().host()));
+  }
+
+  /** Returns the stats for {@code host}, or null if there are already too many hosts. */
+  private Stats hostStats(String host) {
+    Stats result = hosts.get(host);
+    if (result != null || hosts.size() >= maxHosts) return result;
+    Stats stats = new Stats();
+    result = hosts.putIfAbsent(host, stats);
+    return result != null ? result : stats;
+  }
+
+  /** Returns the metrics of all calls. */
+  public Snapshot snapshot() {
+    return total.snapshot();
+  }
+
+  /** Returns the metrics of calls to {@code host}, or null if none have been counted. */
+  public Snapshot snapshot(String host) {
+    Stats stats = hosts.get(host);
+    return stats != null ? stats.snapshot() : null;
+  }
+
+  /** Returns the hosts whose calls are counted separately, in sorted order. */
+  public Set<String> hosts() {
+    return Collections.unmodifiableSet(new TreeSet<>(hosts.keySet()));
+  }
+
+  /** Clears all recorded metrics and forgets all hosts. */
+  public void reset() {
+    hosts.clear();
+    total.reset();
+  }
+
+  /** Recording counterpart of {@link Snapshot}. */
+  static final class Stats {
+    final Map<Phase, LatencyHistogram> latencies = new EnumMap<>(Phase.class);
+    final AtomicLong connectionsAcquired = new AtomicLong();
+    final AtomicLong connectionsReused = new AtomicLong();
+    final AtomicLong requestHeaderBytes = new AtomicLong();
+    final AtomicLong requestBodyBytes = new AtomicLong();
+    final AtomicLong responseHeaderBytes = new AtomicLong();
+    final AtomicLong responseBodyBytes = new AtomicLong();
+    final AtomicLong decodedResponseBodyBytes = new AtomicLong();
+
+    Stats() {
+      for (Phase phase : Phase.values()) {
+        latencies.put(phase, new LatencyHistogram());
+      }
+    }
+
+    Snapshot snapshot() {
+      Map<Phase, LatencyHistogram.Snapshot> snapshots = new EnumMap<>(Phase.class);
+      for (Map.Entry<Phase, LatencyHistogram> entry : latencies.entrySet()) {
+        snapshots.put(entry.getKey(), entry.getValue().snapshot());
+      }
+      return new Snapshot(snapshots, this);
+    }
+
+    void reset() {
+      for (LatencyHistogram histogram : latencies.values()) {
+        histogram.reset();
+      }
+      connectionsAcquired.set(0L);
+      connectionsReused.set(0L);
+      requestHeaderBytes.set(0L);
+      requestBodyBytes.set(0L);
+      responseHeaderBytes.set(0L);
+      responseBodyBytes.set(0L);
+      decodedResponseBodyBytes.set(0L);
+    }
+  }
+
+  public static final class Snapshot {
+    private final Map<Phase, LatencyHistogram.Snapshot> latencies;
+    private final long connectionsAcquired;
+    private final long connectionsReused;
+    private final long requestHeaderBytes;
+    private final long requestBodyBytes;
+    private final long responseHeaderBytes;
+    private final long responseBodyBytes;
+    private final long decodedResponseBodyBytes;
+
+    Snapshot(Map<Phase, LatencyHistogram.Snapshot> latencies, Stats stats) {
+      this.latencies = latencies;
+      this.connectionsAcquired = stats.connectionsAcquired.get();
+      this.connectionsReused = stats.connectionsReused.get();
+      this.requestHeaderBytes = stats.requestHeaderBytes.get();
+      this.requestBodyBytes = stats.requestBodyBytes.get();
+      this.responseHeaderBytes = stats.responseHeaderBytes.get();
+      this.responseBodyBytes = stats.responseBodyBytes.get();
+      this.decodedResponseBodyBytes = stats.decodedResponseBodyBytes.get();
+    }
+
+    public LatencyHistogram.Snapshot latency(Phase phase) {
+      return latencies.get(phase);
+    }
+
+    /** Returns the number of connections acquired to carry requests, new or pooled. */
+    public long connectionsAcquired() {
+      return connectionsAcquired;
+    }
+
+    /** Returns the number of acquired connections that the call didn't have to connect. */
+    public long connectionsReused() {
+      return connectionsReused;
+    }
+
+    /** Returns the size of the request headers sent, encoded as HTTP/1.1. */
+    public long requestHeaderBytes() {
+      return requestHeaderBytes;
+    }
+
+    public long requestBodyBytes() {
+      return requestBodyBytes;
+    }
+
+    /** Returns the size of the response headers received, encoded as HTTP/1.1. */
+    public long responseHeaderBytes() {
+      return responseHeaderBytes;
+    }
+
+    /** Returns the number of response body bytes read from the network, before decoding. */
+    public long responseBodyBytes() {
+      return responseBodyBytes;
+    }
+
+    /** Returns the number of response body bytes read after transparent gzip decoding. */
+    public long decodedResponseBodyBytes() {
+      return decodedResponseBodyBytes;
+    }
+
+    @Override public String toString() {
+      Map<Phase, LatencyHistogram.Snapshot> counted = new LinkedHashMap<>();
+      for (Map.Entry<Phase, LatencyHistogram.Snapshot> entry : latencies.entrySet()) {
+        if (entry.getValue().count() > 0) counted.put(entry.getKey(), entry.getValue());
+      }
+      return "Snapshot{connectionsAcquired=" + connectionsAcquired
+          + ", connectionsReused=" + connectionsReused
+          + ", requestHeaderBytes=" + requestHeaderBytes
+          + ", requestBodyBytes=" + requestBodyBytes
+          + ", responseHeaderBytes=" + responseHeaderBytes
+          + ", responseBodyBytes=" + responseBodyBytes
+          + ", decodedResponseBodyBytes=" + decodedResponseBodyBytes
+          + ", latencies=" + counted
+          + "}";
+    }
+  }
+
+  /** Times the phases of a single call and counts its bytes. Connect events may be concurrent. */
+  static final class CallListener extends EventListener {
+    private final Stats total;
+    private final Stats host; // Null if this call's host isn't counted separately.
+
+    // Guarded by this.
+    private long fetchStartNanos;
+    private long dnsStartNanos;
+    private final Map<InetAddress, Long> connectStartNanos = new LinkedHashMap<>();
+    private boolean connectedSinceAcquire;
+    private long requestHeadersStartNanos;
+    private long requestBodyStartNanos;
+    private long responseHeadersStartNanos;
+    private long responseBodyStartNanos;
+
+    CallListener(Stats total, Stats host) {
+      this.total = total;
+      this.host = host;
+    }
+
+    private void add(AtomicLong totalCount, AtomicLong hostCount, long byteCount) {
+      totalCount.addAndGet(byteCount);
+      if (hostCount != null) hostCount.addAndGet(byteCount);
+    }
+
+    private void record(Phase phase, long startNanos) {
+      long nanos = System.nanoTime() - startNanos;
+      total.latencies.get(phase).record(nanos);
+      if (host != null) host.latencies.get(phase).record(nanos);
+    }
+
+    @Override public synchronized void fetchStart(Call call) {
+      fetchStartNanos = System.nanoTime();
+    }
+
+    @Override public synchronized void dnsStart(Call call, String domainName) {
+      dnsStartNanos = System.nanoTime();
+    }
+
+    @Override public synchronized void dnsEnd(Call call, String domainName,
+        List<InetAddress> inetAddressList, Throwable throwable) {
+      if (throwable == null) record(Phase.DNS, dnsStartNanos);
+    }
+
+    @Override public synchronized void connectStart(Call call, InetAddress address, int port) {
+      connectStartNanos.put(address, System.nanoTime());
+    }
+
+    @Override public void secureConnectEnd(Call call, Handshake handshake,
+        boolean sessionResumed, long handshakeNanos, Throwable throwable) {
+      if (throwable != null) return;
+      total.latencies.get(Phase.SECURE_CONNECT).record(handshakeNanos);
+      if (host != null) host.latencies.get(Phase.SECURE_CONNECT).record(handshakeNanos);
+    }
+
+    @Override public synchronized void connectEnd(Call call, InetAddress address, int port,
+        String protocol, Throwable throwable) {
+      Long startNanos = connectStartNanos.remove(address);
+      if (throwable != null) return;
+      connectedSinceAcquire = true;
+      if (startNanos != null) record(Phase.CONNECT, startNanos);
+    }
+
+    @Override public synchronized void connectionAcquired(Call call, Connection connection) {
+      total.connectionsAcquired.incrementAndGet();
+      if (host != null) host.connectionsAcquired.incrementAndGet();
+      if (!connectedSinceAcquire) {
+        total.connectionsReused.incrementAndGet();
+        if (host != null) host.connectionsReused.incrementAndGet();
+      }
+      connectedSinceAcquire = false;
+    }
+
+    @Override public synchronized void requestHeadersStart(Call call) {
+      requestHeadersStartNanos = System.nanoTime();
+    }
+
+    @Override public synchronized void requestHeadersEnd(Call call, Throwable throwable) {
+      if (throwable == null) record(Phase.REQUEST_HEADERS, requestHeadersStartNanos);
+    }
+
+    @Override public void requestHeaderBytes(Call call, long byteCount) {
+      add(total.requestHeaderBytes, host != null ? host.requestHeaderBytes : null, byteCount);
+    }
+
+    @Override public synchronized void requestBodyStart(Call call) {
+      requestBodyStartNanos = System.nanoTime();
+    }
+
+    @Override public synchronized void requestBodyEnd(Call call, Throwable throwable) {
+      if (throwable == null) record(Phase.REQUEST_BODY, requestBodyStartNanos);
+    }
+
+    @Override public void requestBodyBytes(Call call, long byteCount) {
+      add(total.requestBodyBytes, host != null ? host.requestBodyBytes : null, byteCount);
+    }
+
+    @Override public synchronized void responseHeadersStart(Call call) {
+      responseHeadersStartNanos = System.nanoTime();
+    }
+
+    @Override public synchronized void responseHeadersEnd(Call call, Throwable throwable) {
+      if (throwable == null) record(Phase.RESPONSE_HEADERS, responseHeadersStartNanos);
+    }
+
+    @Override public void responseHeaderBytes(Call call, long byteCount) {
+      add(total.responseHeaderBytes, host != null ? host.responseHeaderBytes : null, byteCount);
+    }
+
+    @Override public synchronized void responseBodyStart(Call call) {
+      responseBodyStartNanos = System.nanoTime();
+    }
+
+    @Override public synchronized void responseBodyEnd(Call call, Throwable throwable) {
+      if (throwable == null && responseBodyStartNanos != 0L) {
+        record(Phase.RESPONSE_BODY, responseBodyStartNanos);
+        responseBodyStartNanos = 0L;
+      }
+    }
+
+    @Override public void responseBodyBytes(Call call, long byteCount, long decodedByteCount) {
+      add(total.responseBodyBytes, host != null ? host.responseBodyBytes : null, byteCount);
+      add(total.decodedResponseBodyBytes, host != null ? host.decodedResponseBodyBytes : null,
+          decodedByteCount);
+    }
+
+    @Override public synchronized void fetchEnd(Call call, Throwable throwable) {
+      if (throwable == null) record(Phase.FETCH, fetchStartNanos);
+    }
+  }
+}
@@ -20,10 +20,13 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.net.ssl.SSLPeerUnverifiedException;
+import okhttp3.internal.cache.SegmentedLruCache;
 import okhttp3.internal.tls.CertificateChainCleaner;
 import okio.ByteString;
 
@@ -132,12 +135,47 @@ import static okhttp3.internal.Util.equal;
 public final class CertificatePinner {
   public static final CertificatePinner DEFAULT = new Builder().build();
 
+  /** The maximum number of certificates whose public key hashes are remembered. */
+  private static final int MAX_CACHED_PUBLIC_KEY_HASHES = 256;
+
+  /**
+   * Public key hashes of recently checked certificates. A certificate's hashes never change, so
+   * this is shared by all pinners.
+   */
+  private static final SegmentedLruCache<Certificate, PublicKeyHashes> publicKeyHashes
+      = new SegmentedLruCache<>(MAX_CACHED_PUBLIC_KEY_HASHES);
+
   private final Set<Pin> pins;
   private final CertificateChainCleaner certificateChainCleaner;
 
+  /** Pins for exact hostnames, keyed by canonical hostname. */
+  private final Map<String, List<Pin>> hostnamePins;
+
+  /** Pins for wildcard patterns like {@code *.example.com}, keyed by the suffix after the dot. */
+  private final Map<String, List<Pin>> wildcardPins;
+
   CertificatePinner(Set<Pin> pins, CertificateChainCleaner certificateChainCleaner) {
     this.pins = pins;
     this.certificateChainCleaner = certificateChainCleaner;
+    this.hostnamePins = index(pins, false);
+    this.wildcardPins = index(pins, true);
+  }
+
+  private static Map<String, List<Pin>> index(Set<Pin> pins, boolean wildcard) {
+    Map<String, List<Pin>> result = new LinkedHashMap<>();
+    for (Pin pin : pins) {
+      if (pin.isWildcard() != wildcard) continue;
+      List<Pin> list = result.get(pin.canonicalHostname);
+      if (list == null) {
+        list = new ArrayList<>();
+        result.put(pin.canonicalHostname, list);
+      }
+      list.add(pin);
+    }
+    for (Map.Entry<String, List<Pin>> entry : result.entrySet()) {
+      entry.setValue(Collections.unmodifiableList(entry.getValue()));
+    }
+    return result;
   }
 
   @Override public boolean equals(Object other) {
@@ -172,19 +210,14 @@ public final class CertificatePinner {
 
     for (int c = 0, certsSize = peerCertificates.size(); c < certsSize; c++) {
       X509Certificate x509Certificate = (X509Certificate) peerCertificates.get(c);
-
-      // Lazily compute the hashes for each certificate.
-      ByteString sha1 = null;
-      ByteString sha256 = null;
+      PublicKeyHashes hashes = publicKeyHashes(x509Certificate);
 
       for (int p = 0, pinsSize = pins.size(); p < pinsSize; p++) {
         Pin pin = pins.get(p);
         if (pin.hashAlgorithm.equals("sha256/")) {
-          if (sha256 == null) sha256 = sha256(x509Certificate);
-          if (pin.hash.equals(sha256)) return; // Success!
+          if (pin.hash.equals(hashes.sha256())) return; // Success!
         } else if (pin.hashAlgorithm.equals("sha1/")) {
-          if (sha1 == null) sha1 = sha1(x509Certificate);
-          if (pin.hash.equals(sha1)) return; // Success!
+          if (pin.hash.equals(hashes.sha1())) return; // Success!
         } else {
           throw new AssertionError();
         }
@@ -219,12 +252,18 @@ public final class CertificatePinner {
    * hostname does not have pinned certificates.
    */
   List<Pin> findMatchingPins(String hostname) {
-    List<Pin> result = Collections.emptyList();
+    List<Pin> exact = hostnamePins.get(hostname);
+    List<Pin> wildcard = wildcardPins.isEmpty()
+        ? null
+        : wildcardPins.get(hostname.substring(hostname.indexOf('.') + 1));
+
+    if (wildcard == null) return exact != null ? exact : Collections.<Pin>emptyList();
+    if (exact == null) return wildcard;
+
+    // Both kinds of pin match. Return them in the order they were added.
+    List<Pin> result = new ArrayList<>();
     for (Pin pin : pins) {
-      if (pin.matches(hostname)) {
-        if (result.isEmpty()) result = new ArrayList<>();
-        result.add(pin);
-      }
+      if (pin.matches(hostname)) result.add(pin);
     }
     return result;
   }
@@ -246,7 +285,16 @@ public final class CertificatePinner {
     if (!(certificate instanceof X509Certificate)) {
       throw new IllegalArgumentException("Certificate pinning requires X509 certificates");
     }
-    return "sha256/" + sha256((X509Certificate) certificate).base64();
+    return "sha256/" + publicKeyHashes((X509Certificate) certificate).sha256().base64();
+  }
+
+  private static PublicKeyHashes publicKeyHashes(X509Certificate certificate) {
+    PublicKeyHashes result = publicKeyHashes.get(certificate);
+    if (result == null) {
+      result = new PublicKeyHashes(certificate);
+      publicKeyHashes.put(certificate, result, 1L);
+    }
+    return result;
   }
 
   static ByteString sha1(X509Certificate x509Certificate) {
@@ -257,6 +305,29 @@ public final class CertificatePinner {
     return ByteString.of(x509Certificate.getPublicKey().getEncoded()).sha256();
   }
 
+  /** Lazily computed hashes of a certificate's Subject Public Key Info. */
+  static final class PublicKeyHashes {
+    private final X509Certificate certificate;
+    private volatile ByteString sha1;
+    private volatile ByteString sha256;
+
+    PublicKeyHashes(X509Certificate certificate) {
+      this.certificate = certificate;
+    }
+
+    ByteString sha1() {
+      ByteString result = sha1;
+      if (result == null) sha1 = result = CertificatePinner.sha1(certificate);
+      return result;
+    }
+
+    ByteString sha256() {
+      ByteString result = sha256;
+      if (result == null) sha256 = result = CertificatePinner.sha256(certificate);
+      return result;
+    }
+  }
+
   static final class Pin {
     private static final String WILDCARD = "*.";
     /** A hostname like {@code example.com} or a pattern like {@code *.example.com}. */
@@ -288,10 +359,15 @@ public final class CertificatePinner {
       }
     }
 
+    boolean isWildcard() {
+      return pattern.startsWith(WILDCARD);
+    }
+
     boolean matches(String hostname) {
-      if (pattern.startsWith(WILDCARD)) {
+      if (isWildcard()) {
         int firstDot = hostname.indexOf('.');
-        return hostname.regionMatches(false, firstDot + 1, canonicalHostname, 0,
+        return hostname.length() - firstDot - 1 == canonicalHostname.length()
+            && hostname.regionMatches(false, firstDot + 1, canonicalHostname, 0,
             canonicalHostname.length());
       }
 
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.internal.cache.CacheStrategy;
+import okhttp3.internal.http.HttpHeaders;
+import okhttp3.internal.http.RealInterceptorChain;
+
+import static okhttp3.internal.Util.closeQuietly;
+
+/**
+ * Collapses identical concurrent GET requests into a single network call. The first request for a
+ * URL proceeds normally; requests for the same URL that arrive while it is in flight wait for its
+ * response instead of making their own calls. If that response is cacheable and its {@code Vary}
+ * headers match the waiting request, the waiting request receives a copy of it. Otherwise the
+ * waiting request proceeds on its own.
+ *
+ * <p>Response bodies are shared with {@link ResponseBodyTee}, which copies the body to a file in
+ * {@code directory} as it is read so that each caller can consume it at its own pace. The file is
+ * deleted once every copy of the body has been closed. Requests that don't wait on another request
+ * don't use a file.
+ *
+ * <p>A waiting request stops waiting if its call is canceled, and makes its own call if the first
+ * request doesn't get a response within the waiting call's {@linkplain
+ * OkHttpClient#readTimeoutMillis() read timeout}.
+ *
+ * <p>Install this as an {@linkplain OkHttpClient.Builder#addInterceptor application interceptor}
+ * so that waiting requests also benefit from the response cache. Requests with a {@code Range}
+ * header or a conditional header are never coalesced.
+ */
+public final class CoalescingInterceptor implements Interceptor {
+  /** The default number of bytes of each shared body to keep in memory. */
+  public static final long DEFAULT_BUFFER_SIZE = 64 * 1024L;
+
+  /** How often a waiting request checks whether its call was canceled. */
+  static final long CANCEL_CHECK_MILLIS = 100L;
+
+  private final File directory;
+  private final long bufferMaxSize;
+
+  /** In-flight requests by cache key. Guarded by this. */
+  private final Map<String, Flight> flights = new HashMap<>();
+
+  private int coalescedCount; // Guarded by this.
+  private int nextFileId; // Guarded by this.
+
+  public CoalescingInterceptor(File directory) {
+    this(directory, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param directory a writable directory for the bodies of shared responses.
+   * @param bufferMaxSize the number of bytes of each shared body to also keep in memory.
+   */
+  public CoalescingInterceptor(File directory, long bufferMaxSize) {
+    if (directory == null) throw new NullPointerException("directory == null");
+    if (bufferMaxSize <= 0) throw new IllegalArgumentException("bufferMaxSize <= 0");
+    this.directory = directory;
+    this.bufferMaxSize = bufferMaxSize;
+  }
+
+  public File directory() {
+    return directory;
+  }
+
+  /** Returns the number of requests that were served with another request's response. */
+  public synchronized int coalescedCount() {
+    return coalescedCount;
+  }
+
+  @Override public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    if (!isCoalescable(request)) return chain.proceed(request);
+
+    String key = Cache.key(request.url());
+    Flight flight;
+    boolean leader;
+    synchronized (this) {
+      flight = flights.get(key);
+      leader = flight == null;
+      if (leader) {
+        flight = new Flight(request);
+        flights.put(key, flight);
+      } else {
+        flight.followerCount++;
+      }
+    }
+
+    return leader
+        ? lead(chain, key, flight)
+        : follow(chain, flight);
+  }
+
+  private static boolean isCoalescable(Request request) {
+    return request.method().equals("GET")
+        && request.header("Range") == null
+        && request.header("If-None-Match") == null
+        && request.header("If-Modified-Since") == null
+        && request.header("If-Match") == null
+        && request.header("If-Unmodified-Since") == null;
+  }
+
+  /** Makes the network call for {@code flight} and shares its response with any followers. */
+  private Response lead(Chain chain, String key, Flight flight) throws IOException {
+    Response response = null;
+    List<ResponseBody> bodies = null;
+    try {
+      response = chain.proceed(flight.request);
+
+      int followerCount;
+      synchronized (this) {
+        flights.remove(key); // Later requests start a new flight.
+        followerCount = flight.followerCount;
+      }
+
+      if (followerCount > 0 && response.body() != null
+          && CacheStrategy.isCacheable(response, flight.request)) {
+        bodies = share(response.body(), followerCount + 1);
+      }
+    } finally {
+      if (response == null) {
+        synchronized (this) {
+          flights.remove(key);
+        }
+      }
+      flight.publish(response, bodies);
+    }
+
+    return bodies != null
+        ? withBody(response, flight.request, bodies.get(0))
+        : response;
+  }
+
+  /** Returns {@code count} copies of {@code body}, or null if the body couldn't be shared. */
+  private List<ResponseBody> share(ResponseBody body, int count) {
+    File file;
+    synchronized (this) {
+      file = new File(directory, "coalesce-" + nextFileId++);
+    }
+
+    ResponseBodyTee tee;
+    try {
+      directory.mkdirs();
+      tee = ResponseBodyTee.create(body, file, bufferMaxSize);
+    } catch (IOException e) {
+      file.delete();
+      return null;
+    }
+
+    List<ResponseBody> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(tee.newBody());
+    }
+    return result;
+  }
+
+  /** Waits for the leader of {@code flight} and returns a copy of its response if it's usable. */
+  private Response follow(Chain chain, Flight flight) throws IOException {
+    Request request = chain.request();
+    Call call = chain instanceof RealInterceptorChain
+        ? ((RealInterceptorChain) chain).call()
+        : null;
+    ResponseBody body = flight.awaitBody(call, waitTimeoutMillis(call));
+
+    if (body != null) {
+      Response response = flight.response;
+      if (HttpHeaders.varyMatches(response, flight.request.headers(), request)) {
+        synchronized (this) {
+          coalescedCount++;
+        }
+        return withBody(response, request, body);
+      }
+      closeQuietly(body); // This request needs a different variant.
+    }
+
+    return chain.proceed(request);
+  }
+
+  /**
+   * Returns how long {@code call} waits for a leader's response, or 0 to wait indefinitely. Without
+   * a call, as when the chain isn't OkHttp's, a follower waits until the leader responds.
+   */
+  private static long waitTimeoutMillis(Call call) {
+    return call instanceof RealCall ? ((RealCall) call).client.readTimeoutMillis() : 0L;
+  }
+
+  private static Response withBody(Response response, Request request, ResponseBody body) {
+    return response.newBuilder()
+        .request(request)
+        .body(body)
+        .build();
+  }
+
+  static final class Flight {
+    final Request request;
+
+    /** The number of requests waiting on this flight. Guarded by the interceptor. */
+    int followerCount;
+
+    // Guarded by this.
+    boolean published;
+    Response response;
+    List<ResponseBody> bodies;
+    int nextBody = 1; // The leader takes the first copy.
+    int abandonedCount; // Followers that stopped waiting before the response arrived.
+
+    Flight(Request request) {
+      this.request = request;
+    }
+
+    /**
+     * Releases followers. If {@code bodies} is null, followers must make their own calls.
+     */
+    synchronized void publish(Response response, List<ResponseBody> bodies) {
+      this.response = response;
+      this.bodies = bodies;
+      this.published = true;
+      if (bodies != null) {
+        // Close the copies that abandoned followers would have taken.
+        for (int i = 0; i < abandonedCount; i++) {
+          closeQuietly(bodies.get(bodies.size() - 1 - i));
+        }
+      }
+      notifyAll();
+    }
+
+    /**
+     * Returns a copy of the shared body, or null if this flight's response can't be shared or
+     * didn't arrive within {@code timeoutMillis}. Throws if {@code call} is canceled while waiting.
+     */
+    synchronized ResponseBody awaitBody(Call call, long timeoutMillis) throws IOException {
+      long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      try {
+        while (!published) {
+          if (call != null && call.isCanceled()) {
+            abandonedCount++; // Our copy of the body is closed when it's published.
+            throw new IOException("Canceled");
+          }
+          long waitMillis = CANCEL_CHECK_MILLIS;
+          if (timeoutMillis != 0L) {
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0L) {
+              abandonedCount++;
+              return null; // Stop waiting and make our own call.
+            }
+            waitMillis = Math.min(waitMillis, TimeUnit.NANOSECONDS.toMillis(remainingNanos) + 1);
+          }
+          wait(waitMillis);
+        }
+      } catch (InterruptedException e) {
+        abandonedCount++;
+        throw new InterruptedIOException();
+      }
+      return bodies != null ? bodies.get(nextBody++) : null;
+    }
+  }
+}
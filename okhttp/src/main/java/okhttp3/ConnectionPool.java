@@ -16,20 +16,30 @@
  */
 package okhttp3;
 
+import java.io.IOException;
 import java.lang.ref.Reference;
 import java.net.Socket;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import okhttp3.internal.NamedRunnable;
 import okhttp3.internal.Util;
 import okhttp3.internal.connection.RealConnection;
 import okhttp3.internal.connection.RouteDatabase;
+import okhttp3.internal.connection.RouteException;
+import okhttp3.internal.connection.RouteSelector;
+import okhttp3.internal.connection.TlsSessionCache;
 import okhttp3.internal.connection.StreamAllocation;
 import okhttp3.internal.platform.Platform;
 
@@ -53,6 +63,9 @@ public final class ConnectionPool {
       Integer.MAX_VALUE /* maximumPoolSize */, 60L /* keepAliveTime */, TimeUnit.SECONDS,
       new SynchronousQueue<Runnable>(), Util.threadFactory("OkHttp ConnectionPool", true));
 
+  /** Runs background tasks for pools that use virtual threads. Created lazily. */
+  private static Executor virtualThreadExecutor;
+
   /** The maximum number of idle connections for each address. */
   private final int maxIdleConnections;
   private final long keepAliveDurationNs;
@@ -78,7 +91,19 @@ public final class ConnectionPool {
 
   private final Deque<RealConnection> connections = new ArrayDeque<>();
   final RouteDatabase routeDatabase = new RouteDatabase();
+  final TlsSessionCache tlsSessionCache = new TlsSessionCache();
   boolean cleanupRunning;
+  private boolean virtualThreads;
+  private boolean parkIdleReaders;
+
+  /** Timeout for connections made by {@link #setMinimumIdleConnections}. */
+  static final int WARM_CONNECT_TIMEOUT_MILLIS = 10_000;
+
+  /** The number of idle connections to keep to each address. */
+  private final Map<Address, Integer> minimumIdleConnections = new LinkedHashMap<>();
+
+  /** The number of connections being made in the background to each address. */
+  private final Map<Address, Integer> warmingConnections = new LinkedHashMap<>();
 
   /**
    * Create a new connection pool with tuning parameters appropriate for a single-user application.
@@ -120,6 +145,81 @@ public final class ConnectionPool {
     return connections.size();
   }
 
+  /**
+   * Runs this pool's background tasks and the frame readers of its HTTP/2 connections on virtual
+   * threads. This has no effect on runtimes older than JDK 24, where virtual threads can deadlock
+   * in OkHttp's locks, or on tasks and connections that are already running.
+   */
+  public synchronized void setVirtualThreads(boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+  }
+
+  /** Returns a factory for virtual threads if this pool uses them, or null. */
+  synchronized ThreadFactory virtualThreadFactory(String name) {
+    return virtualThreads ? Platform.get().virtualThreadFactory(name) : null;
+  }
+
+  /**
+   * Stops reading idle HTTP/2 connections on a thread of their own. Instead a single shared thread
+   * watches their sockets with a {@link java.nio.channels.Selector}, and a connection's reader
+   * resumes when the peer sends data, such as the response to a new call. This lets many idle
+   * multiplexed connections stay open without a thread each.
+   *
+   * <p>This applies to connections made after it is set, and only to connections that use the
+   * default socket factory and either no proxy or an HTTP proxy.
+   */
+  public synchronized void setParkIdleReaders(boolean parkIdleReaders) {
+    this.parkIdleReaders = parkIdleReaders;
+  }
+
+  synchronized boolean parkIdleReaders() {
+    return parkIdleReaders;
+  }
+
+  /** Returns the executor for this pool's cleanup and warming tasks. */
+  private Executor executor() {
+    assert (Thread.holdsLock(this));
+    if (!virtualThreads) return executor;
+    synchronized (ConnectionPool.class) {
+      if (virtualThreadExecutor == null) {
+        ThreadFactory threadFactory = Platform.get().virtualThreadFactory("OkHttp ConnectionPool");
+        virtualThreadExecutor = threadFactory != null
+            ? Util.threadPerTaskExecutor(threadFactory)
+            : executor;
+      }
+      return virtualThreadExecutor;
+    }
+  }
+
+  /**
+   * Keeps at least {@code count} idle connections to {@code address} in this pool, so that a burst
+   * of calls after a quiet period doesn't wait on TCP and TLS handshakes. Missing connections are
+   * made immediately on a background thread, and the pool's cleanup task replaces connections that
+   * are used, closed, or fail. Kept connections are exempt from the keep alive duration and the
+   * idle connection limit.
+   *
+   * <p>A single HTTP/2 connection carries many calls, so once a multiplexed connection to {@code
+   * address} exists no further connections are made. Pass 0 to stop keeping connections.
+   */
+  public void setMinimumIdleConnections(Address address, int count) {
+    if (address == null) throw new NullPointerException("address == null");
+    if (count < 0) throw new IllegalArgumentException("count < 0: " + count);
+
+    synchronized (this) {
+      if (count == 0) {
+        minimumIdleConnections.remove(address);
+        return;
+      }
+      minimumIdleConnections.put(address, count);
+      if (!cleanupRunning) {
+        cleanupRunning = true;
+        executor().execute(cleanupRunnable);
+      } else {
+        notifyAll(); // Awake the cleanup thread so it makes the new connections.
+      }
+    }
+  }
+
   /** Returns a recycled connection to {@code address}, or null if no such connection exists. */
   /**
    * 寻找符合address条件的已回收连接
@@ -132,6 +232,9 @@ public final class ConnectionPool {
     for (RealConnection connection : connections) {
       if (connection.isEligible(address)) {
         streamAllocation.acquire(connection);
+        if (minimumIdleConnections.containsKey(address)) {
+          notifyAll(); // Awake the cleanup thread to replace the connection we took.
+        }
         return connection;
       }
     }
@@ -159,7 +262,7 @@ public final class ConnectionPool {
     assert (Thread.holdsLock(this));
     if (!cleanupRunning) {
       cleanupRunning = true;
-      executor.execute(cleanupRunnable);// 执行连接池清理
+      executor().execute(cleanupRunnable);// 执行连接池清理
     }
     connections.add(connection);// 加入新输入的连接
   }
@@ -219,8 +322,20 @@ public final class ConnectionPool {
 
     // Find either a connection to evict, or the time that the next eviction is due.
     synchronized (this) {
+      // Idle connections to addresses in minimumIdleConnections are kept up to their minimum.
+      Map<Address, Integer> keptCounts = new LinkedHashMap<>();
+      Set<Address> multiplexedAddresses = new LinkedHashSet<>();
+
       for (Iterator<RealConnection> i = connections.iterator(); i.hasNext(); ) {
         RealConnection connection = i.next();
+        Address address = connection.route().address();
+        Integer minimumIdle = minimumIdleConnections.get(address);
+        boolean healthy = connection.isHealthy(false);
+
+        if (minimumIdle != null && healthy && connection.isMultiplexed()
+            && !connection.noNewStreams) {
+          multiplexedAddresses.add(address);
+        }
 
         // If the connection is in use, keep searching.
         if (pruneAndGetAllocationCount(connection, now) > 0) {
@@ -228,11 +343,25 @@ public final class ConnectionPool {
           continue;
         }
 
+        if (minimumIdle != null && healthy && !connection.noNewStreams) {
+          Integer keptCount = keptCounts.get(address);
+          if (keptCount == null) keptCount = 0;
+          if (keptCount < minimumIdle) {
+            keptCounts.put(address, keptCount + 1);
+            continue; // Keep this connection warm.
+          }
+        }
+
         idleConnectionCount++;// 如果没有引用，则空闲的连接数++
 
         // If the connection is ready to be evicted, we're done.
         // 寻找存活时间最长的连接
         long idleDurationNs = now - connection.idleAtNanos;
+        if (!healthy && (connection.isMultiplexed() || minimumIdle != null)) {
+          // An HTTP/2 connection that missed several keepalive pings (a degraded one) or a closed
+          // warm connection won't be reused, so evict it.
+          idleDurationNs = keepAliveDurationNs;
+        }
         if (idleDurationNs > longestIdleDurationNs) {
           longestIdleDurationNs = idleDurationNs;
           longestIdleConnection = connection;
@@ -247,9 +376,12 @@ public final class ConnectionPool {
         connections.remove(longestIdleConnection); // 移除这个连接
       } else if (idleConnectionCount > 0) {
         // A connection will be ready to evict soon.
+        warmConnections(keptCounts, multiplexedAddresses);
         return keepAliveDurationNs - longestIdleDurationNs;
-      } else if (inUseConnectionCount > 0) {
-        // All connections are in use. It'll be at least the keep alive duration 'til we run again.
+      } else if (!connections.isEmpty() || !minimumIdleConnections.isEmpty()) {
+        // All connections are in use or kept warm. It'll be at least the keep alive duration 'til
+        // we run again.
+        warmConnections(keptCounts, multiplexedAddresses);
         return keepAliveDurationNs;
       } else {
         // No connections, idle or in use.
@@ -264,6 +396,92 @@ public final class ConnectionPool {
     return 0;
   }
 
+  /**
+   * Starts background connections to each address that has fewer idle connections than its
+   * minimum. When the protocol of an address isn't yet known only one connection is made, in case
+   * it is multiplexed.
+   */
+  private void warmConnections(Map<Address, Integer> keptCounts, Set<Address> multiplexedAddresses) {
+    assert (Thread.holdsLock(this));
+    for (Map.Entry<Address, Integer> entry : minimumIdleConnections.entrySet()) {
+      Address address = entry.getKey();
+      if (multiplexedAddresses.contains(address)) continue;
+
+      Integer keptCount = keptCounts.get(address);
+      Integer warmingCount = warmingConnections.get(address);
+      int kept = keptCount != null ? keptCount : 0;
+      int warming = warmingCount != null ? warmingCount : 0;
+      int deficit = entry.getValue() - kept - warming;
+      if (deficit <= 0) continue;
+
+      boolean protocolKnown = false;
+      for (RealConnection connection : connections) {
+        if (connection.route().address().equals(address)) {
+          protocolKnown = true;
+          break;
+        }
+      }
+      if (!protocolKnown) {
+        if (warming > 0) continue;
+        deficit = 1;
+      }
+
+      warmingConnections.put(address, warming + deficit);
+      for (int i = 0; i < deficit; i++) {
+        executor().execute(new WarmConnectionRunnable(address));
+      }
+    }
+  }
+
+  /** Makes a connection to {@code address} and adds it to the pool as an idle connection. */
+  final class WarmConnectionRunnable extends NamedRunnable {
+    private final Address address;
+
+    WarmConnectionRunnable(Address address) {
+      super("OkHttp ConnectionPool warming %s", address.url().redact());
+      this.address = address;
+    }
+
+    @Override protected void execute() {
+      RealConnection connection = null;
+      try {
+        RouteSelector routeSelector = new RouteSelector(address, routeDatabase);
+        while (connection == null && routeSelector.hasNext()) {
+          Route route = routeSelector.next();
+          RealConnection candidate = new RealConnection(ConnectionPool.this, route);
+          try {
+            candidate.connect(WARM_CONNECT_TIMEOUT_MILLIS, WARM_CONNECT_TIMEOUT_MILLIS,
+                WARM_CONNECT_TIMEOUT_MILLIS, 0, true, null, EventListener.NULL_EVENT_LISTENER);
+            routeDatabase.connected(route);
+            connection = candidate;
+          } catch (RouteException e) {
+            routeSelector.connectFailed(route, e.getLastConnectException());
+          }
+        }
+      } catch (IOException e) {
+        Platform.get().log(Platform.INFO, "Failed to warm a connection to " + address.url(), e);
+      }
+
+      boolean keep = false;
+      synchronized (ConnectionPool.this) {
+        Integer warmingCount = warmingConnections.get(address);
+        if (warmingCount != null && warmingCount > 1) {
+          warmingConnections.put(address, warmingCount - 1);
+        } else {
+          warmingConnections.remove(address);
+        }
+
+        if (connection != null && minimumIdleConnections.containsKey(address)) {
+          keep = true;
+          connection.idleAtNanos = System.nanoTime();
+          put(connection);
+          ConnectionPool.this.notifyAll(); // Awake the cleanup thread: we may need more.
+        }
+      }
+      if (connection != null && !keep) closeQuietly(connection.socket());
+    }
+  }
+
   /**
    * Prunes any leaked allocations and then returns the number of remaining live allocations on
    * {@code connection}. Allocations are leaked if the connection is tracking them but the
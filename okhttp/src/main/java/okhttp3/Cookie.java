@@ -18,7 +18,6 @@ package okhttp3;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
-import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.Locale;
@@ -568,7 +567,7 @@ public final class Cookie {
       if (expiresAt == Long.MIN_VALUE) {
         result.append("; max-age=0");
       } else {
-        result.append("; expires=").append(HttpDate.format(new Date(expiresAt)));
+        result.append("; expires=").append(HttpDate.formatMillis(expiresAt));
       }
     }
 
@@ -15,18 +15,28 @@
  */
 package okhttp3;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Deque;
-import java.util.Iterator;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import okhttp3.RealCall.AsyncCall;
+import okhttp3.internal.NamedRunnable;
 import okhttp3.internal.Util;
+import okhttp3.internal.platform.Platform;
 
 /**
  * Policy on when async requests are executed.
@@ -35,39 +45,121 @@ import okhttp3.internal.Util;
  * <p>Each dispatcher uses an {@link ExecutorService} to run calls internally. If you supply your
  * own executor, it should be able to run {@linkplain #getMaxRequests the configured maximum} number
  * of calls concurrently.
+ *
+ * <p>Ready calls are queued per host. Enqueueing, promoting and finishing a call each take time
+ * proportional to the logarithm of the number of hosts with ready calls, not to the number of
+ * calls, so the dispatcher stays cheap with thousands of calls in flight.
+ *
+ * <p>Ready calls run in order of their request's {@linkplain Request#priority() priority}, then
+ * earliest {@linkplain Request#deadlineMillis() deadline}, then the order they were enqueued. Calls
+ * without a deadline are ordered as if it were 10 seconds after they were enqueued. Calls whose
+ * deadline passes before they run are failed when it passes.
+ *
+ * <p>On JDK 24 and newer, {@link #setVirtualThreads} runs each call on its own virtual thread.
+ * Synchronous calls always run on the calling thread, which may itself be virtual.
  */
 public final class Dispatcher {
   private int maxRequests = 64;
   private int maxRequestsPerHost = 5;
   private Runnable idleCallback;
+  private boolean virtualThreads;
 
   /** Executes calls. Created lazily. */
   private ExecutorService executorService;
 
-  /** Ready async calls in the order they'll be run. */
-  private final Deque<AsyncCall> readyAsyncCalls = new ArrayDeque<>();
+  /** True if the application provided {@link #executorService}. */
+  private final boolean executorServiceProvided;
+
+  /** Ready and running async calls, by host. Hosts with neither are removed. */
+  private final Map<String, HostCalls> hostCalls = new HashMap<>();
+
+  /**
+   * Hosts that have ready calls and are below {@link #maxRequestsPerHost}, ordered by their next
+   * ready call. The first host holds the next call to run. A host must be removed from this set
+   * before its next ready call changes.
+   */
+  private final TreeSet<HostCalls> readyHosts = new TreeSet<>(new Comparator<HostCalls>() {
+    @Override public int compare(HostCalls a, HostCalls b) {
+      int result = CALL_ORDER.compare(a.readyCalls.peek(), b.readyCalls.peek());
+      return result != 0 ? result : a.host.compareTo(b.host);
+    }
+  });
+
+  /** The number of ready calls across all hosts. */
+  private int readyAsyncCallsCount;
+
+  /** Assigns each enqueued call its place in line. */
+  private long nextSequence;
 
   /** Running asynchronous calls. Includes canceled calls that haven't finished yet. */
-  private final Deque<AsyncCall> runningAsyncCalls = new ArrayDeque<>();
+  private final Set<AsyncCall> runningAsyncCalls = new LinkedHashSet<>();
 
   /** Running synchronous calls. Includes canceled calls that haven't finished yet. */
-  private final Deque<RealCall> runningSyncCalls = new ArrayDeque<>();
+  private final Set<RealCall> runningSyncCalls = new LinkedHashSet<>();
+
+  // Dispatch latency is recorded by executor threads, outside of the dispatcher's lock. Each array
+  // is indexed by priority.
+  private final AtomicLongArray dispatchedCallsCount = newPriorityArray();
+  private final AtomicLongArray totalDispatchLatencyNanos = newPriorityArray();
+  private final AtomicLongArray maxDispatchLatencyNanos = newPriorityArray();
+  private final AtomicLong expiredCallsCount = new AtomicLong();
+
+  /**
+   * Shared by all dispatchers to fail ready calls at their deadlines. Its tasks don't call user
+   * code; they hand expired calls off to the dispatcher's executor service.
+   */
+  private static final ScheduledThreadPoolExecutor deadlineTimer =
+      new ScheduledThreadPoolExecutor(1, Util.threadFactory("OkHttp Dispatcher Deadlines", true));
+
+  static {
+    deadlineTimer.setRemoveOnCancelPolicy(true);
+  }
 
   public Dispatcher(ExecutorService executorService) {
     this.executorService = executorService;
+    this.executorServiceProvided = true;
   }
 
   public Dispatcher() {
+    this.executorServiceProvided = false;
   }
 
   public synchronized ExecutorService executorService() {
     if (executorService == null) {
-      executorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
-          new SynchronousQueue<Runnable>(), Util.threadFactory("OkHttp Dispatcher", false));
+      ThreadFactory virtualThreadFactory = virtualThreads
+          ? Platform.get().virtualThreadFactory("OkHttp Dispatcher")
+          : null;
+      executorService = virtualThreadFactory != null
+          ? Util.threadPerTaskExecutor(virtualThreadFactory)
+          : new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+              new SynchronousQueue<Runnable>(), Util.threadFactory("OkHttp Dispatcher", false));
     }
     return executorService;
   }
 
+  /**
+   * Set whether asynchronous calls run on virtual threads. Each call gets a new virtual thread that
+   * blocks on socket I/O without holding a platform thread. This has no effect on runtimes older
+   * than JDK 24, where a virtual thread waiting in a {@code synchronized} block pins its carrier
+   * thread and enough waiting calls could deadlock the client; calls run on platform threads
+   * instead.
+   *
+   * <p>Calls that are already running keep their threads. This may not be used with a dispatcher
+   * that was created with its own executor service.
+   */
+  public synchronized void setVirtualThreads(boolean virtualThreads) {
+    if (executorServiceProvided) {
+      throw new IllegalStateException("executorService was provided");
+    }
+    if (this.virtualThreads == virtualThreads) return;
+    this.virtualThreads = virtualThreads;
+    this.executorService = null; // Threads of the previous executor time out once idle.
+  }
+
+  public synchronized boolean getVirtualThreads() {
+    return virtualThreads;
+  }
+
   /**
    * Set the maximum number of requests to execute concurrently. Above this requests queue in
    * memory, waiting for the running calls to complete.
@@ -101,6 +193,9 @@ public final class Dispatcher {
       throw new IllegalArgumentException("max < 1: " + maxRequestsPerHost);
     }
     this.maxRequestsPerHost = maxRequestsPerHost;
+    for (HostCalls host : hostCalls.values()) {
+      offerReadyHost(host);
+    }
     promoteCalls();
   }
 
@@ -124,14 +219,36 @@ public final class Dispatcher {
     this.idleCallback = idleCallback;
   }
 
-  synchronized void enqueue(AsyncCall call) {
-    if (runningAsyncCalls.size() < maxRequests && runningCallsForHost(call) < maxRequestsPerHost) {
-      runningAsyncCalls.add(call);
-      // 执行AsyncCall，AsyncCall拥有runnable接口
-      executorService().execute(call);
-    } else {
-      readyAsyncCalls.add(call);
+  synchronized void enqueue(final AsyncCall call) {
+    call.sequence = nextSequence++;
+    call.enqueuedAtNanos = System.nanoTime();
+    long deadlineMillis = call.request().deadlineMillis();
+    if (deadlineMillis != 0L) {
+      long deadlineNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(deadlineMillis), MAX_DEADLINE);
+      call.deadlineAtNanos = call.enqueuedAtNanos + deadlineNanos;
+      call.expiry = deadlineTimer.schedule(new Runnable() {
+        @Override public void run() {
+          expireReady(call);
+        }
+      }, deadlineNanos, TimeUnit.NANOSECONDS);
+    }
+
+    String host = call.host();
+    HostCalls calls = hostCalls.get(host);
+    if (calls == null) {
+      calls = new HostCalls(host);
+      hostCalls.put(host, calls);
+    }
+    if (calls.inReadyHosts) {
+      readyHosts.remove(calls); // This call may change the host's place in line.
+      calls.inReadyHosts = false;
     }
+    calls.readyCalls.add(call);
+    readyAsyncCallsCount++;
+    offerReadyHost(calls);
+
+    // 如果还可以并发，立即执行
+    promoteCalls();
   }
 
   /**
@@ -139,8 +256,10 @@ public final class Dispatcher {
    * Call#execute() synchronously} and {@linkplain Call#enqueue asynchronously}.
    */
   public synchronized void cancelAll() {
-    for (AsyncCall call : readyAsyncCalls) {
-      call.get().cancel();
+    for (HostCalls calls : hostCalls.values()) {
+      for (AsyncCall call : calls.readyCalls) {
+        call.get().cancel();
+      }
     }
 
     for (AsyncCall call : runningAsyncCalls) {
@@ -156,32 +275,74 @@ public final class Dispatcher {
    * 准备列表中的异步回调转移到异步回调的执行列表中
    */
   private void promoteCalls() {
-    if (runningAsyncCalls.size() >= maxRequests) return; // Already running max capacity.
-    if (readyAsyncCalls.isEmpty()) return; // No ready calls to promote.
+    long now = System.nanoTime();
+    while (runningAsyncCalls.size() < maxRequests) {
+      HostCalls calls = readyHosts.pollFirst();
+      if (calls == null) return; // No ready calls to promote.
+      calls.inReadyHosts = false;
+      if (calls.runningCallsCount >= maxRequestsPerHost) continue; // The limit was lowered.
+
+      AsyncCall call = calls.readyCalls.poll();
+      readyAsyncCallsCount--;
+      if (call.expiry != null) call.expiry.cancel(false);
+
+      if (call.deadlineAtNanos != 0L && now - call.deadlineAtNanos >= 0L) {
+        // 已超过截止时间，不再执行
+        expire(call);
+        if (calls.runningCallsCount == 0 && calls.readyCalls.isEmpty()) {
+          hostCalls.remove(calls.host);
+        } else {
+          offerReadyHost(calls);
+        }
+        continue;
+      }
 
-    for (Iterator<AsyncCall> i = readyAsyncCalls.iterator(); i.hasNext(); ) {
-      AsyncCall call = i.next();
+      calls.runningCallsCount++;
+      offerReadyHost(calls);
 
-      if (runningCallsForHost(call) < maxRequestsPerHost) {
-        i.remove();
-        runningAsyncCalls.add(call);
-        executorService().execute(call);
-      }
+      runningAsyncCalls.add(call);
+      executorService().execute(call);
+    }
+  }
 
-      if (runningAsyncCalls.size() >= maxRequests) return; // Reached max capacity.
+  /** Fails {@code call} if it is still waiting to run. Invoked at the call's deadline. */
+  private synchronized void expireReady(AsyncCall call) {
+    HostCalls calls = hostCalls.get(call.host());
+    if (calls == null || !calls.readyCalls.contains(call)) return; // Already promoted.
+
+    if (calls.inReadyHosts) {
+      readyHosts.remove(calls); // Removing this call may change the host's place in line.
+      calls.inReadyHosts = false;
+    }
+    calls.readyCalls.remove(call);
+    readyAsyncCallsCount--;
+    expire(call);
+
+    if (calls.runningCallsCount == 0 && calls.readyCalls.isEmpty()) {
+      hostCalls.remove(calls.host);
+    } else {
+      offerReadyHost(calls);
     }
   }
 
-  /**
-   * 同一个host运行的call数量
-   */
-  /** Returns the number of running calls that share a host with {@code call}. */
-  private int runningCallsForHost(AsyncCall call) {
-    int result = 0;
-    for (AsyncCall c : runningAsyncCalls) {
-      if (c.host().equals(call.host())) result++;
+  /** Fails {@code call} on the executor service because it waited past its deadline. */
+  private void expire(final AsyncCall call) {
+    expiredCallsCount.incrementAndGet();
+    executorService().execute(new NamedRunnable("OkHttp %s", call.get().redactedUrl()) {
+      @Override protected void execute() {
+        call.deadlineExceeded();
+      }
+    });
+  }
+
+  /** Adds {@code calls} to the ready hosts if it has a call that may run now. */
+  private void offerReadyHost(HostCalls calls) {
+    if (!calls.inReadyHosts
+        && !calls.readyCalls.isEmpty()
+        && calls.runningCallsCount < maxRequestsPerHost) {
+      calls.inReadyHosts = true;
+      readyHosts.add(calls);
     }
-    return result;
   }
 
   /** Used by {@code Call#execute} to signal it is in-flight. */
@@ -190,22 +351,47 @@ public final class Dispatcher {
     runningSyncCalls.add(call);
   }
 
+  /** Used by {@code AsyncCall#run} to signal that it has started executing. */
+  void dispatched(AsyncCall call) {
+    long latencyNanos = System.nanoTime() - call.enqueuedAtNanos;
+    int priority = call.request().priority().ordinal();
+    dispatchedCallsCount.incrementAndGet(priority);
+    totalDispatchLatencyNanos.addAndGet(priority, latencyNanos);
+    for (long max; latencyNanos > (max = maxDispatchLatencyNanos.get(priority)); ) {
+      if (maxDispatchLatencyNanos.compareAndSet(priority, max, latencyNanos)) break;
+    }
+  }
+
   /** Used by {@code AsyncCall#run} to signal completion. */
   void finished(AsyncCall call) {
-    finished(runningAsyncCalls, call, true);
+    int runningCallsCount;
+    Runnable idleCallback;
+    synchronized (this) {
+      if (!runningAsyncCalls.remove(call)) throw new AssertionError("Call wasn't in-flight!");
+      String host = call.host();
+      HostCalls calls = hostCalls.get(host);
+      calls.runningCallsCount--;
+      if (calls.runningCallsCount == 0 && calls.readyCalls.isEmpty()) {
+        hostCalls.remove(host);
+      } else {
+        offerReadyHost(calls);
+      }
+      promoteCalls();// 去调用异步回调队列执行
+      runningCallsCount = runningCallsCount();
+      idleCallback = this.idleCallback;
+    }
+
+    if (runningCallsCount == 0 && idleCallback != null) {
+      idleCallback.run();
+    }
   }
 
   /** Used by {@code Call#execute} to signal completion. */
   void finished(RealCall call) {
-    finished(runningSyncCalls, call, false);
-  }
-
-  private <T> void finished(Deque<T> calls, T call, boolean promoteCalls) {
     int runningCallsCount;
     Runnable idleCallback;
     synchronized (this) {
-      if (!calls.remove(call)) throw new AssertionError("Call wasn't in-flight!");
-      if (promoteCalls) promoteCalls();// 去调用异步回调队列执行
+      if (!runningSyncCalls.remove(call)) throw new AssertionError("Call wasn't in-flight!");
       runningCallsCount = runningCallsCount();
       idleCallback = this.idleCallback;
     }
@@ -217,6 +403,12 @@ public final class Dispatcher {
 
   /** Returns a snapshot of the calls currently awaiting execution. */
   public synchronized List<Call> queuedCalls() {
+    List<AsyncCall> readyAsyncCalls = new ArrayList<>(readyAsyncCallsCount);
+    for (HostCalls calls : hostCalls.values()) {
+      readyAsyncCalls.addAll(calls.readyCalls);
+    }
+    Collections.sort(readyAsyncCalls, CALL_ORDER);
+
     List<Call> result = new ArrayList<>();
     for (AsyncCall asyncCall : readyAsyncCalls) {
       result.add(asyncCall.get());
@@ -235,10 +427,105 @@ public final class Dispatcher {
   }
 
   public synchronized int queuedCallsCount() {
-    return readyAsyncCalls.size();
+    return readyAsyncCallsCount;
   }
 
   public synchronized int runningCallsCount() {
     return runningAsyncCalls.size() + runningSyncCalls.size();
   }
+
+  /** Returns the number of asynchronous calls that have started executing. */
+  public long dispatchedCallsCount() {
+    long result = 0L;
+    for (Priority priority : Priority.values()) {
+      result += dispatchedCallsCount(priority);
+    }
+    return result;
+  }
+
+  /** Returns the number of asynchronous calls of {@code priority} that have started executing. */
+  public long dispatchedCallsCount(Priority priority) {
+    return dispatchedCallsCount.get(priority.ordinal());
+  }
+
+  /**
+   * Returns the total time asynchronous calls spent between being {@linkplain Call#enqueue
+   * enqueued} and starting to execute on the executor service. Divide by {@link
+   * #dispatchedCallsCount} for the mean dispatch latency.
+   */
+  public long totalDispatchLatencyNanos() {
+    long result = 0L;
+    for (Priority priority : Priority.values()) {
+      result += totalDispatchLatencyNanos(priority);
+    }
+    return result;
+  }
+
+  /** Returns the total time asynchronous calls of {@code priority} waited to start executing. */
+  public long totalDispatchLatencyNanos(Priority priority) {
+    return totalDispatchLatencyNanos.get(priority.ordinal());
+  }
+
+  /** Returns the longest time an asynchronous call waited to start executing. */
+  public long maxDispatchLatencyNanos() {
+    long result = 0L;
+    for (Priority priority : Priority.values()) {
+      result = Math.max(result, maxDispatchLatencyNanos(priority));
+    }
+    return result;
+  }
+
+  /** Returns the longest time an asynchronous call of {@code priority} waited to start. */
+  public long maxDispatchLatencyNanos(Priority priority) {
+    return maxDispatchLatencyNanos.get(priority.ordinal());
+  }
+
+  /** Returns the number of asynchronous calls that failed because they missed their deadline. */
+  public long expiredCallsCount() {
+    return expiredCallsCount.get();
+  }
+
+  private static AtomicLongArray newPriorityArray() {
+    return new AtomicLongArray(Priority.values().length);
+  }
+
+  /** Deadlines are capped so that adding them to {@link System#nanoTime} can't overflow. */
+  static final long MAX_DEADLINE = Long.MAX_VALUE / 4;
+
+  /**
+   * Calls without a deadline are ordered as if they had this one. This lets urgent calls go first
+   * without starving calls that have no deadline. Such calls are never failed for waiting.
+   */
+  static final long IMPLICIT_DEADLINE = TimeUnit.SECONDS.toNanos(10);
+
+  /** Orders ready calls by priority, then by deadline, then by the order they were enqueued. */
+  static final Comparator<AsyncCall> CALL_ORDER = new Comparator<AsyncCall>() {
+    @Override public int compare(AsyncCall a, AsyncCall b) {
+      int result = a.request().priority().compareTo(b.request().priority());
+      if (result != 0) return result;
+
+      long delta = orderAtNanos(a) - orderAtNanos(b);
+      if (delta != 0L) return delta < 0L ? -1 : 1;
+
+      return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+    }
+
+    private long orderAtNanos(AsyncCall call) {
+      return call.deadlineAtNanos != 0L
+          ? call.deadlineAtNanos
+          : call.enqueuedAtNanos + IMPLICIT_DEADLINE;
+    }
+  };
+
+  /** The ready and running async calls to a single host. Guarded by the dispatcher. */
+  static final class HostCalls {
+    final String host;
+    final PriorityQueue<AsyncCall> readyCalls = new PriorityQueue<>(11, CALL_ORDER);
+    int runningCallsCount;
+    boolean inReadyHosts;
+
+    HostCalls(String host) {
+      this.host = host;
+    }
+  }
 }
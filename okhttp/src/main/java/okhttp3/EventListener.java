@@ -19,9 +19,13 @@ import java.net.InetAddress;
 import java.util.List;
 
 /**
- * Observes, modifies, and potentially short-circuits requests going out and the corresponding
- * responses coming back in. Typically interceptors add, remove, or transform headers on the request
- * or response.
+ * Listener for metrics events. Extend this class to monitor the quantity, size, and duration of
+ * your application's HTTP calls.
+ *
+ * <p>Each start event is followed by its matching end event, with a null throwable if the step
+ * succeeded or a non-null throwable if it failed. {@link #connectionAcquired} has no matching
+ * release event. Events are invoked on the thread doing the work, and a call that races connections to several addresses may deliver
+ * connect events concurrently. Implementations should be fast and must be safe for concurrent use.
  */
 public class EventListener {
   public static final EventListener NULL_EVENT_LISTENER = new EventListener() {
@@ -47,37 +51,93 @@ public class EventListener {
       Throwable throwable) {
   }
 
+  /**
+   * Invoked after a TLS handshake completes or fails. On success {@code handshake} is non-null and
+   * {@code sessionResumed} is true if the TLS session from an earlier connection to the same address
+   * was resumed, which is much cheaper than a full handshake. {@code handshakeNanos} is the time
+   * spent in the handshake itself, excluding certificate pinning and hostname verification.
+   *
+   * <p>The default implementation calls {@link #secureConnectEnd(Call, Handshake, Throwable)}.
+   */
+  public void secureConnectEnd(Call call, Handshake handshake, boolean sessionResumed,
+      long handshakeNanos, Throwable throwable) {
+    secureConnectEnd(call, handshake, throwable);
+  }
+
   public void connectEnd(Call call,  InetAddress address, int port, String protocol,
       Throwable throwable) {
   }
 
+  /**
+   * Invoked after a connection has been chosen to carry a request: either a pooled connection or
+   * one that this call connected. A call that follows redirects or retries may acquire several.
+   */
+  public void connectionAcquired(Call call, Connection connection) {
+  }
+
   public void requestHeadersStart(Call call) {
   }
 
   public void requestHeadersEnd(Call call, Throwable throwable) {
   }
 
+  /**
+   * Invoked after the request headers are written, with their size encoded as HTTP/1.1. The count
+   * includes the request line and the blank line that ends the headers. HTTP/2 compresses headers,
+   * so it may send fewer bytes than this.
+   */
+  public void requestHeaderBytes(Call call, long byteCount) {
+  }
+
   public void requestBodyStart(Call call) {
   }
 
   public void requestBodyEnd(Call call, Throwable throwable) {
   }
 
+  /** Invoked after the request body is written, with the number of bytes written. */
+  public void requestBodyBytes(Call call, long byteCount) {
+  }
+
   public void responseHeadersStart(Call call) {
   }
 
   public void responseHeadersEnd(Call call, Throwable throwable) {
   }
 
+  /**
+   * Like {@link #requestHeaderBytes}, but for the response headers that were received. The count
+   * includes the status line in place of the request line.
+   */
+  public void responseHeaderBytes(Call call, long byteCount) {
+  }
+
   public void responseBodyStart(Call call) {
   }
 
   public void responseBodyEnd(Call call, Throwable throwable) {
   }
 
+  /**
+   * Invoked once a response body from the network is exhausted or closed, with the number of bytes
+   * read. {@code byteCount} is the size of the body as it was transferred, and {@code
+   * decodedByteCount} is its size after OkHttp's transparent gzip decoding; they are equal if the
+   * body wasn't decoded. Not invoked for bodies served from the cache.
+   */
+  public void responseBodyBytes(Call call, long byteCount, long decodedByteCount) {
+  }
+
   public void fetchEnd(Call call, Throwable throwable) {
   }
 
+  static EventListener.Factory factory(final EventListener listener) {
+    return new EventListener.Factory() {
+      public EventListener create(Call call) {
+        return listener;
+      }
+    };
+  }
+
   public interface Factory {
     EventListener create(Call call);
   }
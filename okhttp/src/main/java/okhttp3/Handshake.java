@@ -37,7 +37,8 @@ public final class Handshake {
   private final List<Certificate> peerCertificates; // 远端证书
   private final List<Certificate> localCertificates; // 本地证书
 
-  private Handshake(TlsVersion tlsVersion, CipherSuite cipherSuite,
+  /** Callers must pass lists that are already immutable. */
+  Handshake(TlsVersion tlsVersion, CipherSuite cipherSuite,
       List<Certificate> peerCertificates, List<Certificate> localCertificates) {
     this.tlsVersion = tlsVersion;
     this.cipherSuite = cipherSuite;
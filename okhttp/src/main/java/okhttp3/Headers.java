@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -49,8 +50,44 @@ import okhttp3.internal.http.HttpDate;
  * HTTP Header的封装类，包含一些基本的增删改查功能
  */
 public final class Headers {
+  /**
+   * Headers with more fields than this get a hash index of their names on the first lookup. Smaller
+   * headers are scanned, which is as fast and allocates nothing.
+   */
+  static final int INDEX_THRESHOLD = 8;
+
+  /**
+   * Canonical instances of common header names. Names read from the network or the cache are
+   * replaced with these so that responses share one copy of each.
+   */
+  private static final Map<String, String> WELL_KNOWN_NAMES = new HashMap<>();
+
+  static {
+    String[] names = {
+        "Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language", "Accept-Ranges",
+        "Access-Control-Allow-Origin", "Age", "Allow", "Authorization", "Cache-Control",
+        "Connection", "Content-Disposition", "Content-Encoding", "Content-Language",
+        "Content-Length", "Content-Location", "Content-Range", "Content-Type", "Cookie", "Date",
+        "ETag", "Expect", "Expires", "Host", "If-Match", "If-Modified-Since", "If-None-Match",
+        "If-Range", "If-Unmodified-Since", "Keep-Alive", "Last-Modified", "Link", "Location",
+        "OkHttp-Received-Millis", "OkHttp-Sent-Millis", "Pragma", "Proxy-Authenticate",
+        "Proxy-Authorization", "Proxy-Connection", "Range", "Referer", "Retry-After", "Server",
+        "Set-Cookie", "Strict-Transport-Security", "TE", "Trailer", "Transfer-Encoding",
+        "Upgrade", "User-Agent", "Vary", "Via", "WWW-Authenticate", "Warning",
+    };
+    for (String name : names) {
+      WELL_KNOWN_NAMES.put(name, name);
+      // HTTP/2 header names are lowercase.
+      String lowercase = name.toLowerCase(Locale.US);
+      WELL_KNOWN_NAMES.put(lowercase, lowercase);
+    }
+  }
+
   private final String[] namesAndValues;
 
+  /** Lazily-built index of the field names. Null until a lookup needs it. */
+  private volatile Index index;
+
   Headers(Builder builder) {
     this.namesAndValues = builder.namesAndValues.toArray(new String[builder.namesAndValues.size()]);
   }
@@ -61,7 +98,11 @@ public final class Headers {
 
   /** Returns the last value corresponding to the specified field, or null. */
   public String get(String name) {
-    return get(namesAndValues, name);
+    Index index = index();
+    if (index == null) return get(namesAndValues, name);
+
+    int slot = index.find(namesAndValues, name);
+    return slot != -1 ? value(index.table[slot + 1]) : null;
   }
 
   /**
@@ -78,6 +119,21 @@ public final class Headers {
     return namesAndValues.length / 2;
   }
 
+  /**
+   * Returns the number of UTF-8 bytes required to encode these headers using HTTP/1.1. This is also
+   * the approximate size of HTTP/2 headers before they are compressed with HPACK. It excludes the
+   * request or status line and the blank line that ends the headers.
+   */
+  public long byteCount() {
+    // Each header name has 2 bytes of overhead for ': ' and every header value has 2 bytes of
+    // overhead for '\r\n'.
+    long result = namesAndValues.length * 2;
+    for (int i = 0, size = namesAndValues.length; i < size; i++) {
+      result += Util.utf8Size(namesAndValues[i]);
+    }
+    return result;
+  }
+
   /** Returns the field at {@code position}. */
   public String name(int index) {
     return namesAndValues[index * 2];
@@ -104,6 +160,20 @@ public final class Headers {
    * @return
    */
   public List<String> values(String name) {
+    Index index = index();
+    if (index != null) {
+      int slot = index.find(namesAndValues, name);
+      if (slot == -1) return Collections.emptyList();
+      int first = index.table[slot];
+      if (index.next[first] == -1) return Collections.singletonList(value(first));
+
+      List<String> result = new ArrayList<>(2);
+      for (int i = first; i != -1; i = index.next[i]) {
+        result.add(value(i));
+      }
+      return Collections.unmodifiableList(result);
+    }
+
     List<String> result = null;
     for (int i = 0, size = size(); i < size; i++) {
       if (name.equalsIgnoreCase(name(i))) {
@@ -179,6 +249,99 @@ public final class Headers {
     return result;
   }
 
+  /** Returns the index of this instance's names, building it if necessary. */
+  private Index index() {
+    if (namesAndValues.length <= INDEX_THRESHOLD * 2) return null;
+    Index result = index;
+    if (result == null) {
+      result = Index.build(namesAndValues);
+      index = result; // Racing threads build equivalent indexes, so it doesn't matter which wins.
+    }
+    return result;
+  }
+
+  /**
+   * An open-addressing hash table from case-insensitive field names to the positions of the fields
+   * with that name.
+   */
+  private static final class Index {
+    /**
+     * Pairs of field positions: the first and the last field with a name. Slots whose first entry
+     * is -1 are empty.
+     */
+    final int[] table;
+
+    /** The position of the next field with the same name, or -1 for the last one. */
+    final int[] next;
+
+    Index(int[] table, int[] next) {
+      this.table = table;
+      this.next = next;
+    }
+
+    static Index build(String[] namesAndValues) {
+      int size = namesAndValues.length / 2;
+      int capacity = Integer.highestOneBit(size * 2 - 1) << 1; // At least twice the field count.
+      int[] table = new int[capacity * 2];
+      Arrays.fill(table, -1);
+      int[] next = new int[size];
+      Arrays.fill(next, -1);
+
+      for (int i = 0; i < size; i++) {
+        String name = namesAndValues[i * 2];
+        int mask = capacity - 1;
+        for (int h = caseInsensitiveHash(name) & mask; ; h = (h + 1) & mask) {
+          int slot = h * 2;
+          int first = table[slot];
+          if (first == -1) {
+            table[slot] = i;
+            table[slot + 1] = i;
+            break;
+          }
+          if (name.equalsIgnoreCase(namesAndValues[first * 2])) {
+            next[table[slot + 1]] = i;
+            table[slot + 1] = i;
+            break;
+          }
+        }
+      }
+      return new Index(table, next);
+    }
+
+    /** Returns the slot for {@code name}, or -1 if there are no fields with that name. */
+    int find(String[] namesAndValues, String name) {
+      int capacity = table.length / 2;
+      int mask = capacity - 1;
+      for (int h = caseInsensitiveHash(name) & mask; ; h = (h + 1) & mask) {
+        int slot = h * 2;
+        int first = table[slot];
+        if (first == -1) return -1;
+        if (name.equalsIgnoreCase(namesAndValues[first * 2])) return slot;
+      }
+    }
+  }
+
+  /** Returns a hash of {@code name} that is equal for names that are equal ignoring case. */
+  static int caseInsensitiveHash(String name) {
+    int result = 0;
+    for (int i = 0, length = name.length(); i < length; i++) {
+      char c = name.charAt(i);
+      if (c >= 'A' && c <= 'Z') {
+        c += 'a' - 'A';
+      } else if (c >= 0x80) {
+        c = Character.toLowerCase(Character.toUpperCase(c)); // Consistent with equalsIgnoreCase.
+      }
+      result = 31 * result + c;
+    }
+    return result;
+  }
+
+  /** Returns the canonical instance of {@code name} if it's a common header name. */
+  static String intern(String name) {
+    String result = WELL_KNOWN_NAMES.get(name);
+    return result != null ? result : name;
+  }
+
   private static String get(String[] namesAndValues, String name) {
     for (int i = namesAndValues.length - 2; i >= 0; i -= 2) {
       if (name.equalsIgnoreCase(namesAndValues[i])) {
@@ -283,7 +446,7 @@ public final class Headers {
      * from the remote peer or cache.
      */
     Builder addLenient(String name, String value) {
-      namesAndValues.add(name);
+      namesAndValues.add(intern(name));
       namesAndValues.add(value.trim());
       return this;
     }
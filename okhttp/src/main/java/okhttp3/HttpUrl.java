@@ -27,6 +27,7 @@ import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import okhttp3.internal.cache.SegmentedLruCache;
 import okio.Buffer;
 
 import static okhttp3.internal.Util.delimiterOffset;
@@ -317,18 +318,21 @@ public final class HttpUrl {
   final int port;
 
   /**
-   * A list of canonical path segments. This list always contains at least one element, which may be
+   * A list of decoded path segments. This list always contains at least one element, which may be
    * the empty string. Each segment is formatted with a leading '/', so if path segments were ["a",
-   * "b", ""], then the encoded path would be "/a/b/".
+   * "b", ""], then the encoded path would be "/a/b/". Null until first needed.
    */
-  private final List<String> pathSegments;
+  private volatile List<String> pathSegments;
+
+  /** True if this URL has a query, even an empty one. */
+  private final boolean hasQuery;
 
   /**
-   * Alternating, decoded query names and values, or null for no query. Names may be empty or
-   * non-empty, but never null. Values are null if the name has no corresponding '=' separator, or
-   * empty, or non-empty.
+   * Alternating, decoded query names and values. Names may be empty or non-empty, but never null.
+   * Values are null if the name has no corresponding '=' separator, or empty, or non-empty. Null
+   * until first needed, and always null for URLs without a query.
    */
-  private final List<String> queryNamesAndValues;
+  private volatile List<String> queryNamesAndValues;
 
   /** Decoded fragment. */
   private final String fragment;
@@ -342,10 +346,7 @@ public final class HttpUrl {
     this.password = percentDecode(builder.encodedPassword, false);
     this.host = builder.host;
     this.port = builder.effectivePort();
-    this.pathSegments = percentDecode(builder.encodedPathSegments, false);
-    this.queryNamesAndValues = builder.encodedQueryNamesAndValues != null
-        ? percentDecode(builder.encodedQueryNamesAndValues, true)
-        : null;
+    this.hasQuery = builder.encodedQuery != null || builder.encodedQueryNamesAndValues != null;
     this.fragment = builder.encodedFragment != null
         ? percentDecode(builder.encodedFragment, false)
         : null;
@@ -529,7 +530,7 @@ public final class HttpUrl {
    * </table>
    */
   public int pathSize() {
-    return pathSegments.size();
+    return pathSegments().size();
   }
 
   /**
@@ -592,7 +593,12 @@ public final class HttpUrl {
    * </table>
    */
   public List<String> pathSegments() {
-    return pathSegments;
+    List<String> result = pathSegments;
+    if (result == null) {
+      result = percentDecode(encodedPathSegments(), false);
+      pathSegments = result; // Racing threads decode equal lists, so it doesn't matter which wins.
+    }
+    return result;
   }
 
   /**
@@ -611,7 +617,7 @@ public final class HttpUrl {
    * </table>
    */
   public String encodedQuery() {
-    if (queryNamesAndValues == null) return null; // No query.
+    if (!hasQuery) return null; // No query.
     int queryStart = url.indexOf('?') + 1;
     int queryEnd = delimiterOffset(url, queryStart + 1, url.length(), '#');
     return url.substring(queryStart, queryEnd);
@@ -630,6 +636,20 @@ public final class HttpUrl {
     }
   }
 
+  /**
+   * Returns this URL's decoded query names and values, splitting the query if it hasn't been split
+   * already. Returns null if this URL has no query.
+   */
+  private List<String> queryNamesAndValues() {
+    if (!hasQuery) return null;
+    List<String> result = queryNamesAndValues;
+    if (result == null) {
+      result = percentDecode(queryStringToNamesAndValues(encodedQuery()), true);
+      queryNamesAndValues = result;
+    }
+    return result;
+  }
+
   /**
    * Cuts {@code encodedQuery} up into alternating parameter names and values. This divides a query
    * string like {@code subject=math&easy&problem=5-2=3} into the list {@code ["subject", "math",
@@ -671,9 +691,9 @@ public final class HttpUrl {
    * </table>
    */
   public String query() {
-    if (queryNamesAndValues == null) return null; // No query.
+    if (!hasQuery) return null; // No query.
     StringBuilder result = new StringBuilder();
-    namesAndValuesToQueryString(result, queryNamesAndValues);
+    namesAndValuesToQueryString(result, queryNamesAndValues());
     return result.toString();
   }
 
@@ -692,6 +712,7 @@ public final class HttpUrl {
    * </table>
    */
   public int querySize() {
+    List<String> queryNamesAndValues = queryNamesAndValues();
     return queryNamesAndValues != null ? queryNamesAndValues.size() / 2 : 0;
   }
 
@@ -709,6 +730,7 @@ public final class HttpUrl {
    * </table>
    */
   public String queryParameter(String name) {
+    List<String> queryNamesAndValues = queryNamesAndValues();
     if (queryNamesAndValues == null) return null;
     for (int i = 0, size = queryNamesAndValues.size(); i < size; i += 2) {
       if (name.equals(queryNamesAndValues.get(i))) {
@@ -732,6 +754,7 @@ public final class HttpUrl {
    * </table>
    */
   public Set<String> queryParameterNames() {
+    List<String> queryNamesAndValues = queryNamesAndValues();
     if (queryNamesAndValues == null) return Collections.emptySet();
     Set<String> result = new LinkedHashSet<>();
     for (int i = 0, size = queryNamesAndValues.size(); i < size; i += 2) {
@@ -759,6 +782,7 @@ public final class HttpUrl {
    * </table>
    */
   public List<String> queryParameterValues(String name) {
+    List<String> queryNamesAndValues = queryNamesAndValues();
     if (queryNamesAndValues == null) return Collections.emptyList();
     List<String> result = new ArrayList<>();
     for (int i = 0, size = queryNamesAndValues.size(); i < size; i += 2) {
@@ -787,6 +811,7 @@ public final class HttpUrl {
    * </table>
    */
   public String queryParameterName(int index) {
+    List<String> queryNamesAndValues = queryNamesAndValues();
     if (queryNamesAndValues == null) throw new IndexOutOfBoundsException();
     return queryNamesAndValues.get(index * 2);
   }
@@ -809,6 +834,7 @@ public final class HttpUrl {
    * </table>
    */
   public String queryParameterValue(int index) {
+    List<String> queryNamesAndValues = queryNamesAndValues();
     if (queryNamesAndValues == null) throw new IndexOutOfBoundsException();
     return queryNamesAndValues.get(index * 2 + 1);
   }
@@ -951,6 +977,44 @@ public final class HttpUrl {
     return url;
   }
 
+  /**
+   * A bounded cache of parsed URLs. Applications that parse the same strings repeatedly, such as
+   * a fixed set of API endpoints, can parse through one of these to skip the work for strings
+   * they've seen recently. URLs are immutable so cached instances are safe to share.
+   *
+   * <p>This class is safe for concurrent use.
+   */
+  public static final class ParseCache {
+    private final SegmentedLruCache<String, HttpUrl> urls;
+
+    /** Creates a cache that holds up to {@code maxSize} parsed URLs. */
+    public ParseCache(int maxSize) {
+      this.urls = new SegmentedLruCache<>(maxSize);
+    }
+
+    /**
+     * Returns the URL for {@code url} if it is a well-formed HTTP or HTTPS URL, or null if it
+     * isn't. Equivalent to {@link HttpUrl#parse}.
+     */
+    public HttpUrl parse(String url) {
+      HttpUrl result = urls.get(url);
+      if (result == null) {
+        result = HttpUrl.parse(url);
+        if (result != null) urls.put(url, result, 1L);
+      }
+      return result;
+    }
+
+    /** Returns the maximum number of URLs this cache holds. */
+    public int maxSize() {
+      return (int) urls.maxSize();
+    }
+
+    public void evictAll() {
+      urls.evictAll();
+    }
+  }
+
   public static final class Builder {
     String scheme;
     String encodedUsername = "";
@@ -958,6 +1022,8 @@ public final class HttpUrl {
     String host;
     int port = -1;
     final List<String> encodedPathSegments = new ArrayList<>();
+    /** A canonical query that hasn't been split yet. Null if the query is split or absent. */
+    String encodedQuery;
     List<String> encodedQueryNamesAndValues;
     String encodedFragment;
 
@@ -1114,24 +1180,33 @@ public final class HttpUrl {
     }
 
     public Builder query(String query) {
-      this.encodedQueryNamesAndValues = query != null
-          ? queryStringToNamesAndValues(canonicalize(
-          query, QUERY_ENCODE_SET, false, false, true, true))
+      this.encodedQuery = query != null
+          ? canonicalize(query, QUERY_ENCODE_SET, false, false, true, true)
           : null;
+      this.encodedQueryNamesAndValues = null;
       return this;
     }
 
     public Builder encodedQuery(String encodedQuery) {
-      this.encodedQueryNamesAndValues = encodedQuery != null
-          ? queryStringToNamesAndValues(
-          canonicalize(encodedQuery, QUERY_ENCODE_SET, true, false, true, true))
+      this.encodedQuery = encodedQuery != null
+          ? canonicalize(encodedQuery, QUERY_ENCODE_SET, true, false, true, true)
           : null;
+      this.encodedQueryNamesAndValues = null;
       return this;
     }
 
+    /** Splits the query into names and values so that individual parameters can be edited. */
+    private void splitQuery() {
+      if (encodedQuery != null) {
+        encodedQueryNamesAndValues = queryStringToNamesAndValues(encodedQuery);
+        encodedQuery = null;
+      }
+    }
+
     /** Encodes the query parameter using UTF-8 and adds it to this URL's query string. */
     public Builder addQueryParameter(String name, String value) {
       if (name == null) throw new NullPointerException("name == null");
+      splitQuery();
       if (encodedQueryNamesAndValues == null) encodedQueryNamesAndValues = new ArrayList<>();
       encodedQueryNamesAndValues.add(
           canonicalize(name, QUERY_COMPONENT_ENCODE_SET, false, false, true, true));
@@ -1144,6 +1219,7 @@ public final class HttpUrl {
     /** Adds the pre-encoded query parameter to this URL's query string. */
     public Builder addEncodedQueryParameter(String encodedName, String encodedValue) {
       if (encodedName == null) throw new NullPointerException("encodedName == null");
+      splitQuery();
       if (encodedQueryNamesAndValues == null) encodedQueryNamesAndValues = new ArrayList<>();
       encodedQueryNamesAndValues.add(
           canonicalize(encodedName, QUERY_COMPONENT_ENCODE_SET, true, false, true, true));
@@ -1167,6 +1243,7 @@ public final class HttpUrl {
 
     public Builder removeAllQueryParameters(String name) {
       if (name == null) throw new NullPointerException("name == null");
+      splitQuery();
       if (encodedQueryNamesAndValues == null) return this;
       String nameToRemove = canonicalize(
           name, QUERY_COMPONENT_ENCODE_SET, false, false, true, true);
@@ -1176,6 +1253,7 @@ public final class HttpUrl {
 
     public Builder removeAllEncodedQueryParameters(String encodedName) {
       if (encodedName == null) throw new NullPointerException("encodedName == null");
+      splitQuery();
       if (encodedQueryNamesAndValues == null) return this;
       removeAllCanonicalQueryParameters(
           canonicalize(encodedName, QUERY_COMPONENT_ENCODE_SET, true, false, true, true));
@@ -1219,6 +1297,7 @@ public final class HttpUrl {
         encodedPathSegments.set(i,
             canonicalize(pathSegment, PATH_SEGMENT_ENCODE_SET_URI, true, true, false, true));
       }
+      splitQuery();
       if (encodedQueryNamesAndValues != null) {
         for (int i = 0, size = encodedQueryNamesAndValues.size(); i < size; i++) {
           String component = encodedQueryNamesAndValues.get(i);
@@ -1272,7 +1351,10 @@ public final class HttpUrl {
 
       pathSegmentsToString(result, encodedPathSegments);
 
-      if (encodedQueryNamesAndValues != null) {
+      if (encodedQuery != null) {
+        result.append('?');
+        result.append(encodedQuery);
+      } else if (encodedQueryNamesAndValues != null) {
         result.append('?');
         namesAndValuesToQueryString(result, encodedQueryNamesAndValues);
       }
@@ -1401,8 +1483,9 @@ public final class HttpUrl {
       // Query.
       if (pos < limit && input.charAt(pos) == '?') {
         int queryDelimiterOffset = delimiterOffset(input, pos, limit, '#');
-        this.encodedQueryNamesAndValues = queryStringToNamesAndValues(canonicalize(
-            input, pos + 1, queryDelimiterOffset, QUERY_ENCODE_SET, true, false, true, true));
+        this.encodedQuery = canonicalize(
+            input, pos + 1, queryDelimiterOffset, QUERY_ENCODE_SET, true, false, true, true);
+        this.encodedQueryNamesAndValues = null;
         pos = queryDelimiterOffset;
       }
 
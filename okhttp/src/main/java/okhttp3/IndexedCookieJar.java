@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import okhttp3.internal.io.FileSystem;
+import okhttp3.internal.platform.Platform;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+
+import static okhttp3.internal.platform.Platform.WARN;
+
+/**
+ * A cookie jar that stores cookies in memory, indexed so that loading the cookies for a request
+ * only visits cookies that could match it.
+ *
+ * <p>Cookies are indexed by their domain and then by their path. To load cookies for a request
+ * this jar looks up the request's host and each of its parent domains, and walks the path index
+ * along the request's path. The cost is proportional to the number of labels in the host, the
+ * number of segments in the path and the number of matching cookies, not to the number of
+ * cookies in the jar.
+ *
+ * <p>A cookie replaces any cookie with the same name, domain and path. Expired cookies are
+ * discarded as they expire. When a domain has more than {@link #maxCookiesPerDomain} cookies, the
+ * cookie that expires soonest is discarded.
+ *
+ * <p>If this jar is created with a file, persistent cookies are read from that file on first use
+ * and written to it by {@link #flush}. Session cookies are never written.
+ *
+ * <p>This class is safe for concurrent use.
+ */
+public final class IndexedCookieJar implements CookieJar {
+  /** The default number of cookies to keep for each domain. Browsers keep between 50 and 180. */
+  public static final int DEFAULT_MAX_COOKIES_PER_DOMAIN = 50;
+
+  static final int FILE_MAGIC = 0x004f4b4a;
+  static final int FILE_VERSION = 1;
+
+  private static final int FLAG_HOST_ONLY = 1;
+  private static final int FLAG_SECURE = 1 << 1;
+  private static final int FLAG_HTTP_ONLY = 1 << 2;
+
+  /** Cookies that expire sooner sort first. Ties are broken by the order cookies were stored. */
+  private static final Comparator<Entry> EXPIRY_ORDER = new Comparator<Entry>() {
+    @Override public int compare(Entry a, Entry b) {
+      long aExpiresAt = a.cookie.expiresAt();
+      long bExpiresAt = b.cookie.expiresAt();
+      if (aExpiresAt != bExpiresAt) return aExpiresAt < bExpiresAt ? -1 : 1;
+      return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+    }
+  };
+
+  private final FileSystem fileSystem;
+  private final File file;
+  private final int maxCookiesPerDomain;
+
+  /**
+   * Serializes flushes, which all write the same temporary file. Held while taking the snapshot
+   * so that a later flush never writes older cookies than an earlier one.
+   */
+  private final Object flushLock = new Object();
+
+  // All fields below are guarded by this.
+
+  /** Cookies by their domain. */
+  private final Map<String, Domain> domains = new HashMap<>();
+
+  /** All cookies, soonest expiring first. */
+  private final TreeSet<Entry> byExpiry = new TreeSet<>(EXPIRY_ORDER);
+
+  private long nextSequence;
+  private boolean initialized;
+
+  /** Creates a jar that keeps cookies in memory only. */
+  public IndexedCookieJar() {
+    this(DEFAULT_MAX_COOKIES_PER_DOMAIN);
+  }
+
+  /** Creates a jar that keeps up to {@code maxCookiesPerDomain} cookies for each domain. */
+  public IndexedCookieJar(int maxCookiesPerDomain) {
+    this(FileSystem.SYSTEM, null, maxCookiesPerDomain);
+  }
+
+  /**
+   * Creates a jar that keeps up to {@code maxCookiesPerDomain} cookies for each domain, and reads
+   * and writes persistent cookies in {@code file}.
+   */
+  public IndexedCookieJar(File file, int maxCookiesPerDomain) {
+    this(FileSystem.SYSTEM, file, maxCookiesPerDomain);
+    if (file == null) throw new NullPointerException("file == null");
+  }
+
+  IndexedCookieJar(FileSystem fileSystem, File file, int maxCookiesPerDomain) {
+    if (maxCookiesPerDomain < 1) {
+      throw new IllegalArgumentException("maxCookiesPerDomain < 1: " + maxCookiesPerDomain);
+    }
+    this.fileSystem = fileSystem;
+    this.file = file;
+    this.maxCookiesPerDomain = maxCookiesPerDomain;
+  }
+
+  public int maxCookiesPerDomain() {
+    return maxCookiesPerDomain;
+  }
+
+  public File file() {
+    return file;
+  }
+
+  @Override public synchronized void saveFromResponse(HttpUrl url, List<Cookie> cookies) {
+    initialize();
+    long now = System.currentTimeMillis();
+    evictExpired(now);
+    for (int i = 0, size = cookies.size(); i < size; i++) {
+      Cookie cookie = cookies.get(i);
+      remove(cookie);
+      // Servers delete cookies by sending them with an expiration date in the past.
+      if (cookie.expiresAt() > now) add(cookie);
+    }
+  }
+
+  @Override public synchronized List<Cookie> loadForRequest(HttpUrl url) {
+    initialize();
+    evictExpired(System.currentTimeMillis());
+    if (domains.isEmpty()) return Collections.emptyList();
+
+    List<Cookie> result = null;
+    List<String> pathSegments = null;
+    String host = url.host();
+    for (int pos = 0; pos != -1; ) {
+      // Look up the host, then each of its parent domains.
+      Domain domain = domains.get(pos == 0 ? host : host.substring(pos));
+      if (domain != null) {
+        if (pathSegments == null) pathSegments = pathSegments(url.encodedPath());
+        result = domain.collect(url, pathSegments, result);
+      }
+      int dot = host.indexOf('.', pos);
+      pos = dot != -1 ? dot + 1 : -1;
+    }
+
+    return result != null ? result : Collections.<Cookie>emptyList();
+  }
+
+  /** Returns the number of cookies in this jar. */
+  public synchronized int size() {
+    initialize();
+    evictExpired(System.currentTimeMillis());
+    return byExpiry.size();
+  }
+
+  /** Returns a snapshot of the cookies in this jar, soonest expiring first. */
+  public synchronized List<Cookie> cookies() {
+    initialize();
+    evictExpired(System.currentTimeMillis());
+    List<Cookie> result = new ArrayList<>(byExpiry.size());
+    for (Entry entry : byExpiry) {
+      result.add(entry.cookie);
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /** Removes all cookies from this jar. The file, if any, is updated on the next flush. */
+  public synchronized void evictAll() {
+    initialize();
+    domains.clear();
+    byExpiry.clear();
+  }
+
+  /**
+   * Writes this jar's persistent cookies to its file, replacing the file's contents. Does nothing
+   * if this jar has no file. Concurrent flushes run one at a time.
+   */
+  public void flush() throws IOException {
+    if (file == null) return;
+
+    synchronized (flushLock) {
+      List<Cookie> cookies = new ArrayList<>();
+      for (Cookie cookie : cookies()) {
+        if (cookie.persistent()) cookies.add(cookie);
+      }
+
+      File tmp = new File(file.getPath() + ".tmp");
+      BufferedSink sink = Okio.buffer(fileSystem.sink(tmp));
+      try {
+        sink.writeInt(FILE_MAGIC);
+        sink.writeInt(FILE_VERSION);
+        sink.writeInt(cookies.size());
+        for (Cookie cookie : cookies) {
+          writeString(sink, cookie.name());
+          writeString(sink, cookie.value());
+          writeString(sink, cookie.domain());
+          writeString(sink, cookie.path());
+          sink.writeLong(cookie.expiresAt());
+          sink.writeByte((cookie.hostOnly() ? FLAG_HOST_ONLY : 0)
+              | (cookie.secure() ? FLAG_SECURE : 0)
+              | (cookie.httpOnly() ? FLAG_HTTP_ONLY : 0));
+        }
+      } finally {
+        sink.close();
+      }
+      fileSystem.rename(tmp, file);
+    }
+  }
+
+  /** Reads persistent cookies from this jar's file the first time this jar is used. */
+  private void initialize() {
+    if (initialized) return;
+    initialized = true;
+    if (file == null || !fileSystem.exists(file)) return;
+
+    try {
+      BufferedSource source = Okio.buffer(fileSystem.source(file));
+      try {
+        if (source.readInt() != FILE_MAGIC || source.readInt() != FILE_VERSION) {
+          throw new IOException("unexpected header");
+        }
+        long now = System.currentTimeMillis();
+        for (int i = 0, count = source.readInt(); i < count; i++) {
+          String name = readString(source);
+          String value = readString(source);
+          String domain = readString(source);
+          String path = readString(source);
+          long expiresAt = source.readLong();
+          int flags = source.readByte();
+
+          Cookie.Builder builder = new Cookie.Builder()
+              .name(name)
+              .value(value)
+              .path(path)
+              .expiresAt(expiresAt);
+          if ((flags & FLAG_HOST_ONLY) != 0) {
+            builder.hostOnlyDomain(domain);
+          } else {
+            builder.domain(domain);
+          }
+          if ((flags & FLAG_SECURE) != 0) builder.secure();
+          if ((flags & FLAG_HTTP_ONLY) != 0) builder.httpOnly();
+
+          Cookie cookie = builder.build();
+          if (cookie.expiresAt() > now) {
+            remove(cookie);
+            add(cookie);
+          }
+        }
+      } finally {
+        source.close();
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      Platform.get().log(WARN, "Failed to read cookies from " + file + ": " + e, null);
+    }
+  }
+
+  private static void writeString(BufferedSink sink, String string) throws IOException {
+    ByteString bytes = ByteString.encodeUtf8(string);
+    sink.writeInt(bytes.size());
+    sink.write(bytes);
+  }
+
+  private static String readString(BufferedSource source) throws IOException {
+    int byteCount = source.readInt();
+    if (byteCount < 0) throw new IOException("unexpected length: " + byteCount);
+    return source.readUtf8(byteCount);
+  }
+
+  private void evictExpired(long now) {
+    while (!byExpiry.isEmpty() && byExpiry.first().cookie.expiresAt() <= now) {
+      Entry entry = byExpiry.first();
+      removeEntry(domains.get(entry.cookie.domain()), entry);
+    }
+  }
+
+  private void add(Cookie cookie) {
+    Domain domain = domains.get(cookie.domain());
+    if (domain == null) {
+      domain = new Domain();
+      domains.put(cookie.domain(), domain);
+    }
+
+    Entry entry = new Entry(cookie, nextSequence++);
+    domain.node(cookie.path(), true).entries(cookie.path()).add(entry);
+    domain.byExpiry.add(entry);
+    byExpiry.add(entry);
+
+    while (domain.byExpiry.size() > maxCookiesPerDomain) {
+      removeEntry(domain, domain.byExpiry.first());
+    }
+  }
+
+  /** Removes the cookie with the same name, domain and path as {@code cookie}, if any. */
+  private void remove(Cookie cookie) {
+    Domain domain = domains.get(cookie.domain());
+    if (domain == null) return;
+    PathNode node = domain.node(cookie.path(), false);
+    if (node == null) return;
+    for (Entry entry : node.entries(cookie.path())) {
+      if (entry.cookie.name().equals(cookie.name())) {
+        removeEntry(domain, entry);
+        return;
+      }
+    }
+  }
+
+  private void removeEntry(Domain domain, Entry entry) {
+    String path = entry.cookie.path();
+    domain.node(path, false).entries(path).remove(entry);
+    domain.byExpiry.remove(entry);
+    byExpiry.remove(entry);
+    if (domain.byExpiry.isEmpty()) domains.remove(entry.cookie.domain());
+  }
+
+  /**
+   * Returns the segments of an encoded path, like {@code ["a", "b"]} for {@code "/a/b"} and
+   * {@code ["a", "b", ""]} for {@code "/a/b/"}. The leading slash is skipped.
+   */
+  static List<String> pathSegments(String path) {
+    List<String> result = new ArrayList<>();
+    for (int pos = 1; pos <= path.length(); ) {
+      int slash = path.indexOf('/', pos);
+      if (slash == -1) slash = path.length();
+      result.add(path.substring(pos, slash));
+      pos = slash + 1;
+    }
+    return result;
+  }
+
+  /** The cookies for a single domain, indexed by path. */
+  static final class Domain {
+    final PathNode root = new PathNode();
+    final TreeSet<Entry> byExpiry = new TreeSet<>(EXPIRY_ORDER);
+
+    /**
+     * Returns the node for {@code cookiePath}. A path like {@code /a/b} or {@code /a/b/} is on the
+     * node reached by the segments {@code a} and {@code b}; the trailing slash only affects which
+     * list of the node the cookie is in.
+     */
+    PathNode node(String cookiePath, boolean create) {
+      int end = cookiePath.endsWith("/") ? cookiePath.length() - 1 : cookiePath.length();
+      PathNode node = root;
+      for (int pos = 1; pos <= end && node != null; ) {
+        int slash = cookiePath.indexOf('/', pos);
+        if (slash == -1 || slash > end) slash = end;
+        node = node.child(cookiePath.substring(pos, slash), create);
+        pos = slash + 1;
+      }
+      return node;
+    }
+
+    /** Adds the cookies that match {@code url} to {@code result}, creating it if necessary. */
+    List<Cookie> collect(HttpUrl url, List<String> pathSegments, List<Cookie> result) {
+      PathNode node = root;
+      for (int i = 0, size = pathSegments.size(); node != null; i++) {
+        // Cookies with the node's path match. Those with a trailing slash only match longer paths.
+        result = node.collect(url, node.exact, result);
+        if (i < size) result = node.collect(url, node.trailingSlash, result);
+        if (i == size) break;
+        node = node.child(pathSegments.get(i), false);
+      }
+      return result;
+    }
+  }
+
+  static final class PathNode {
+    /** Cookies with this node's path, like {@code /a/b}. */
+    final List<Entry> exact = new ArrayList<>(1);
+    /** Cookies with this node's path and a trailing slash, like {@code /a/b/}. */
+    final List<Entry> trailingSlash = new ArrayList<>(1);
+    Map<String, PathNode> children;
+
+    PathNode child(String segment, boolean create) {
+      PathNode result = children != null ? children.get(segment) : null;
+      if (result == null && create) {
+        if (children == null) children = new HashMap<>();
+        result = new PathNode();
+        children.put(segment, result);
+      }
+      return result;
+    }
+
+    List<Entry> entries(String cookiePath) {
+      return cookiePath.endsWith("/") ? trailingSlash : exact;
+    }
+
+    List<Cookie> collect(HttpUrl url, List<Entry> entries, List<Cookie> result) {
+      for (Iterator<Entry> i = entries.iterator(); i.hasNext(); ) {
+        Cookie cookie = i.next().cookie;
+        // Confirm host-only, IP address and secure restrictions.
+        if (!cookie.matches(url)) continue;
+        if (result == null) result = new ArrayList<>();
+        result.add(cookie);
+      }
+      return result;
+    }
+  }
+
+  static final class Entry {
+    final Cookie cookie;
+    final long sequence;
+
+    Entry(Cookie cookie, long sequence) {
+      this.cookie = cookie;
+      this.sequence = sequence;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with bounded relative error. Durations below 32 ns are
+ * counted exactly; larger durations are counted in buckets that split each power of two into 16,
+ * so every bucket is at most 1/16 as wide as the values it holds. Durations longer than about 18
+ * minutes share the last bucket.
+ *
+ * <p>Recording is lock-free and allocation-free, and is safe for concurrent use. Snapshots taken
+ * while other threads record may include some but not all of the concurrent recordings.
+ */
+public final class LatencyHistogram {
+  /** Buckets per power of two, as a power of two. */
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  /** Durations of 2^40 ns or more go in the last bucket. */
+  private static final int MAX_EXPONENT = 40;
+  private static final int OVERFLOW_BUCKET =
+      SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+  static final int BUCKET_COUNT = OVERFLOW_BUCKET + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /** Records one occurrence of {@code nanos}. Negative durations are recorded as 0. */
+  public void record(long nanos) {
+    if (nanos < 0) nanos = 0;
+    counts.incrementAndGet(bucketIndex(nanos));
+    totalNanos.addAndGet(nanos);
+    for (long max = maxNanos.get(); nanos > max; max = maxNanos.get()) {
+      if (maxNanos.compareAndSet(max, nanos)) break;
+    }
+  }
+
+  public Snapshot snapshot() {
+    long[] snapshotCounts = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshotCounts[i] = counts.get(i);
+    }
+    return new Snapshot(snapshotCounts, totalNanos.get(), maxNanos.get());
+  }
+
+  /** Returns a snapshot and clears this histogram. No recording is lost between the two. */
+  public Snapshot snapshotAndReset() {
+    long[] snapshotCounts = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshotCounts[i] = counts.getAndSet(i, 0L);
+    }
+    return new Snapshot(snapshotCounts, totalNanos.getAndSet(0L), maxNanos.getAndSet(0L));
+  }
+
+  public void reset() {
+    snapshotAndReset();
+  }
+
+  static int bucketIndex(long nanos) {
+    if (nanos < SUB_BUCKET_COUNT) return (int) nanos;
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    if (exponent >= MAX_EXPONENT) return OVERFLOW_BUCKET;
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (nanos >>> shift) - SUB_BUCKET_COUNT;
+    return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /** Returns the largest duration that is counted in the bucket at {@code index}. */
+  static long bucketMaxNanos(int index) {
+    if (index < SUB_BUCKET_COUNT) return index;
+    if (index == OVERFLOW_BUCKET) return Long.MAX_VALUE;
+    int exponent = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+    int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+    int shift = exponent - SUB_BUCKET_BITS;
+    return ((long) (subBucket + 1) << shift) - 1;
+  }
+
+  /** An immutable copy of a histogram's counts. */
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    Snapshot(long[] counts, long totalNanos, long maxNanos) {
+      long count = 0L;
+      for (long bucketCount : counts) {
+        count += bucketCount;
+      }
+      this.counts = counts;
+      this.count = count;
+      this.totalNanos = totalNanos;
+      this.maxNanos = maxNanos;
+    }
+
+    /** Returns the number of recorded durations. */
+    public long count() {
+      return count;
+    }
+
+    public long totalNanos() {
+      return totalNanos;
+    }
+
+    /** Returns the mean duration, or 0 if nothing was recorded. */
+    public long meanNanos() {
+      return count != 0L ? totalNanos / count : 0L;
+    }
+
+    /** Returns the longest recorded duration, or 0 if nothing was recorded. */
+    public long maxNanos() {
+      return maxNanos;
+    }
+
+    /**
+     * Returns a duration that {@code percentile} percent of recorded durations are less than or
+     * equal to, such as 99.9 for the 99.9th percentile. The result is at most 1/16 larger than the
+     * exact percentile, and never larger than {@link #maxNanos}. Returns 0 if nothing was recorded.
+     */
+    public long percentileNanos(double percentile) {
+      if (percentile < 0.0 || percentile > 100.0) {
+        throw new IllegalArgumentException("percentile < 0 || percentile > 100: " + percentile);
+      }
+      if (count == 0L) return 0L;
+
+      long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+      long seen = 0L;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) return Math.min(bucketMaxNanos(i), maxNanos);
+      }
+      return maxNanos;
+    }
+
+    @Override public String toString() {
+      return "Snapshot{count=" + count
+          + ", mean=" + meanNanos()
+          + ", p50=" + percentileNanos(50.0)
+          + ", p99=" + percentileNanos(99.0)
+          + ", max=" + maxNanos
+          + "}";
+    }
+  }
+}
@@ -28,6 +28,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import javax.net.SocketFactory;
 import javax.net.ssl.HostnameVerifier;
@@ -42,6 +44,7 @@ import okhttp3.internal.Util;
 import okhttp3.internal.cache.InternalCache;
 import okhttp3.internal.connection.RealConnection;
 import okhttp3.internal.connection.RouteDatabase;
+import okhttp3.internal.connection.TlsSessionCache;
 import okhttp3.internal.connection.StreamAllocation;
 import okhttp3.internal.platform.Platform;
 import okhttp3.internal.tls.CertificateChainCleaner;
@@ -167,6 +170,19 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
         return connectionPool.routeDatabase;
       }
 
+      @Override public TlsSessionCache tlsSessionCache(ConnectionPool connectionPool) {
+        return connectionPool.tlsSessionCache;
+      }
+
+      @Override public ThreadFactory virtualThreadFactory(
+          ConnectionPool connectionPool, String name) {
+        return connectionPool.virtualThreadFactory(name);
+      }
+
+      @Override public boolean parkIdleReaders(ConnectionPool connectionPool) {
+        return connectionPool.parkIdleReaders();
+      }
+
       @Override public int code(Response.Builder responseBuilder) {
         return responseBuilder.code;
       }
@@ -188,6 +204,28 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
       @Override public Call newWebSocketCall(OkHttpClient client, Request originalRequest) {
         return new RealCall(client, originalRequest, true);
       }
+
+      @Override public ExecutorService executor(WebSocketScheduler scheduler) {
+        return scheduler.executor();
+      }
+
+      @Override public RoundTripStats newRoundTripStats(
+          long[] samples, int sampleCount, int missedPings) {
+        return RoundTripStats.get(samples, sampleCount, missedPings);
+      }
+
+      @Override public ScheduledExecutorService timer(WebSocketScheduler scheduler) {
+        return scheduler.timer();
+      }
+
+      @Override public boolean reserve(
+          WebSocketScheduler scheduler, long byteCount, Runnable onWritable) {
+        return scheduler.reserve(byteCount, onWritable);
+      }
+
+      @Override public void release(WebSocketScheduler scheduler, long byteCount) {
+        scheduler.release(byteCount);
+      }
     };
   }
 
@@ -217,6 +255,11 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
   final int readTimeout;
   final int writeTimeout;
   final int pingInterval;
+  final EventListener.Factory eventListenerFactory;
+  final boolean fastFallback;
+  final WebSocketScheduler webSocketScheduler;
+  final boolean webSocketCompression;
+  final boolean webSocketContextTakeover;
 
   /**
    * 构造函数调用Builder方法
@@ -266,6 +309,11 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
     this.readTimeout = builder.readTimeout;
     this.writeTimeout = builder.writeTimeout;
     this.pingInterval = builder.pingInterval;
+    this.eventListenerFactory = builder.eventListenerFactory;
+    this.fastFallback = builder.fastFallback;
+    this.webSocketScheduler = builder.webSocketScheduler;
+    this.webSocketCompression = builder.webSocketCompression;
+    this.webSocketContextTakeover = builder.webSocketContextTakeover;
   }
 
   private X509TrustManager systemDefaultTrustManager() {
@@ -309,11 +357,34 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
     return writeTimeout;
   }
 
-  /** Web socket ping interval (in milliseconds). */
+  /** Web socket and HTTP/2 ping interval (in milliseconds). */
   public int pingIntervalMillis() {
     return pingInterval;
   }
 
+  public EventListener.Factory eventListenerFactory() {
+    return eventListenerFactory;
+  }
+
+  /** True if new connections race all of a host's addresses. */
+  public boolean fastFallback() {
+    return fastFallback;
+  }
+
+  public WebSocketScheduler webSocketScheduler() {
+    return webSocketScheduler;
+  }
+
+  /** True if web sockets offer permessage-deflate compression to servers. */
+  public boolean webSocketCompression() {
+    return webSocketCompression;
+  }
+
+  /** True if compressing web sockets keep their compression context across messages. */
+  public boolean webSocketContextTakeover() {
+    return webSocketContextTakeover;
+  }
+
   public Proxy proxy() {
     return proxy;
   }
@@ -425,7 +496,8 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
    * Uses {@code request} to connect a new web socket.
    */
   @Override public WebSocket newWebSocket(Request request, WebSocketListener listener) {
-    RealWebSocket webSocket = new RealWebSocket(request, listener, new SecureRandom());
+    RealWebSocket webSocket = new RealWebSocket(
+        request, listener, new SecureRandom(), webSocketScheduler);
     webSocket.connect(this);
     return webSocket;
   }
@@ -461,6 +533,11 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
     int readTimeout;
     int writeTimeout;
     int pingInterval;
+    EventListener.Factory eventListenerFactory;
+    boolean fastFallback;
+    WebSocketScheduler webSocketScheduler;
+    boolean webSocketCompression;
+    boolean webSocketContextTakeover;
 
     /**
      * 构造函数配置默认的请求参数
@@ -485,6 +562,11 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
       readTimeout = 10_000;// 读超时
       writeTimeout = 10_000;// 写超时
       pingInterval = 0;// ping心跳间隔时间
+      eventListenerFactory = EventListener.factory(EventListener.NULL_EVENT_LISTENER);
+      fastFallback = false;
+      webSocketScheduler = WebSocketScheduler.defaultScheduler();
+      webSocketCompression = false;
+      webSocketContextTakeover = true;
     }
 
     Builder(OkHttpClient okHttpClient) {
@@ -514,6 +596,11 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
       this.readTimeout = okHttpClient.readTimeout;
       this.writeTimeout = okHttpClient.writeTimeout;
       this.pingInterval = okHttpClient.pingInterval;
+      this.eventListenerFactory = okHttpClient.eventListenerFactory;
+      this.fastFallback = okHttpClient.fastFallback;
+      this.webSocketScheduler = okHttpClient.webSocketScheduler;
+      this.webSocketCompression = okHttpClient.webSocketCompression;
+      this.webSocketContextTakeover = okHttpClient.webSocketContextTakeover;
     }
 
     /**
@@ -545,10 +632,14 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
     }
 
     /**
-     * Sets the interval between web socket pings initiated by this client. Use this to
-     * automatically send web socket ping frames until either the web socket fails or it is closed.
-     * This keeps the connection alive and may detect connectivity failures early. No timeouts are
-     * enforced on the acknowledging pongs.
+     * Sets the interval between HTTP/2 and web socket pings initiated by this client. Use this to
+     * automatically send ping frames until either the connection fails or it is closed. This keeps
+     * the connection alive and may detect connectivity failures early.
+     *
+     * <p>An HTTP/2 connection tolerates a single pong that arrives after its next ping is due. One
+     * that misses two pongs in a row stops accepting new calls, and one that misses three in a row
+     * is closed. Ping round trip times are tracked per connection; see {@link RoundTripStats}. No
+     * timeouts are enforced on web socket pongs.
      *
      * <p>The default value of 0 disables client-initiated pings.
      */
@@ -557,6 +648,77 @@ public class OkHttpClient implements Cloneable, Call.Factory, WebSocket.Factory
       return this;
     }
 
+    /**
+     * Configure a single client scoped listener that will receive all analytic events for this
+     * client.
+     *
+     * @see EventListener for semantics and restrictions on listener implementations.
+     */
+    public Builder eventListener(EventListener eventListener) {
+      if (eventListener == null) throw new NullPointerException("eventListener == null");
+      this.eventListenerFactory = EventListener.factory(eventListener);
+      return this;
+    }
+
+    /**
+     * Configure a factory to provide per-call scoped listeners that will receive analytic events
+     * for this client.
+     *
+     * @see EventListener for semantics and restrictions on listener implementations.
+     */
+    public Builder eventListenerFactory(EventListener.Factory eventListenerFactory) {
+      if (eventListenerFactory == null) {
+        throw new NullPointerException("eventListenerFactory == null");
+      }
+      this.eventListenerFactory = eventListenerFactory;
+      return this;
+    }
+
+    /**
+     * Configure this client to race connection attempts to all of a host's IP addresses, in the style
+     * of <a href="https://tools.ietf.org/html/rfc8305">Happy Eyeballs</a>. Attempts alternate
+     * between IPv6 and IPv4 and are started 250 ms apart, or immediately when the previous attempt
+     * fails. The first connection to complete its handshakes is used and the others are canceled.
+     *
+     * <p>This costs extra sockets and handshakes when the first address is slow, in exchange for
+     * not waiting out a full connect timeout when it is unreachable. It is disabled by default.
+     */
+    public Builder fastFallback(boolean fastFallback) {
+      this.fastFallback = fastFallback;
+      return this;
+    }
+
+    /**
+     * Sets the scheduler that writes outgoing web socket frames and limits how many bytes may be
+     * enqueued on web sockets. Share a scheduler between clients to share its threads and its total
+     * queue budget. By default all clients share one scheduler that doesn't limit the total.
+     */
+    public Builder webSocketScheduler(WebSocketScheduler webSocketScheduler) {
+      if (webSocketScheduler == null) {
+        throw new NullPointerException("webSocketScheduler == null");
+      }
+      this.webSocketScheduler = webSocketScheduler;
+      return this;
+    }
+
+    /**
+     * Configures whether web sockets offer <a href="https://tools.ietf.org/html/rfc7692">RFC
+     * 7692</a> permessage-deflate compression to servers. If the server accepts, messages of 1 KiB
+     * or more are compressed in both directions.
+     *
+     * <p>With {@code contextTakeover} each side keeps its compression window across messages, which
+     * compresses repetitive messages better but holds about 300 KiB of native memory per web
+     * socket. Without it each message is compressed independently and compressors are only held
+     * while a message is being processed.
+     *
+     * <p>Compression is disabled by default.
+     */
+    public Builder webSocketCompression(boolean enabled, boolean contextTakeover) {
+      this.webSocketCompression = enabled;
+      this.webSocketContextTakeover = contextTakeover;
+      return this;
+    }
+
     private static int checkDuration(String name, long duration, TimeUnit unit) {
       if (duration < 0) throw new IllegalArgumentException(name + " < 0");
       if (unit == null) throw new NullPointerException("unit == null");
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+/**
+ * How urgently the {@link Dispatcher} should run an asynchronous call. When calls are waiting for
+ * the dispatcher's limits, calls of a higher priority run before calls of a lower priority,
+ * regardless of when they were enqueued.
+ */
+public enum Priority {
+  /** Calls that a user is waiting on, such as loading the content on screen. */
+  HIGH,
+
+  /** The default priority. */
+  NORMAL,
+
+  /** Calls that nobody is waiting on, such as prefetches and background syncs. */
+  LOW
+}
@@ -16,8 +16,10 @@
 package okhttp3;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 import okhttp3.internal.NamedRunnable;
 import okhttp3.internal.cache.CacheInterceptor;
 import okhttp3.internal.connection.ConnectInterceptor;
@@ -41,6 +43,9 @@ final class RealCall implements Call {
   final Request originalRequest;
   final boolean forWebSocket;
 
+  /** Observes the progress of this call. */
+  final EventListener eventListener;
+
   // Guarded by this.
   private boolean executed;
 
@@ -48,7 +53,9 @@ final class RealCall implements Call {
     this.client = client;
     this.originalRequest = originalRequest;// 传递进入的Request对象
     this.forWebSocket = forWebSocket;
-    this.retryAndFollowUpInterceptor = new RetryAndFollowUpInterceptor(client, forWebSocket);
+    this.eventListener = client.eventListenerFactory().create(this);
+    this.retryAndFollowUpInterceptor = new RetryAndFollowUpInterceptor(
+        client, this, eventListener, forWebSocket);
   }
 
   @Override public Request request() {
@@ -124,6 +131,18 @@ final class RealCall implements Call {
   final class AsyncCall extends NamedRunnable {
     private final Callback responseCallback;
 
+    /** The order this call was enqueued in. Assigned by the dispatcher. */
+    long sequence;
+
+    /** When this call was enqueued. Assigned by the dispatcher. */
+    long enqueuedAtNanos;
+
+    /** When this call must start by, or 0 for no deadline. Assigned by the dispatcher. */
+    long deadlineAtNanos;
+
+    /** Fails this call if it's still waiting at its deadline. Assigned by the dispatcher. */
+    ScheduledFuture<?> expiry;
+
     AsyncCall(Callback responseCallback) {
       super("OkHttp %s", redactedUrl());
       // 用户填入的callback，用于返回结果的回调
@@ -142,7 +161,13 @@ final class RealCall implements Call {
       return RealCall.this;
     }
 
+    /** Fails this call without executing it because it waited past its deadline. */
+    void deadlineExceeded() {
+      responseCallback.onFailure(RealCall.this, new InterruptedIOException("deadline exceeded"));
+    }
+
     @Override protected void execute() {
+      client.dispatcher().dispatched(this);
       boolean signalledCallback = false;
       try {
         // 拦截器链
@@ -209,8 +234,16 @@ final class RealCall implements Call {
     interceptors.add(new CallServerInterceptor(forWebSocket));
     // 设置完整的OkHttp拦截链
     Interceptor.Chain chain = new RealInterceptorChain(
-        interceptors, null, null, null, 0, originalRequest);
+        interceptors, null, null, null, 0, originalRequest, this);
     // 调用链中的下一个拦截器，在这里是开始调用第一个拦截器
-    return chain.proceed(originalRequest);
+    eventListener.fetchStart(this);
+    try {
+      Response response = chain.proceed(originalRequest);
+      eventListener.fetchEnd(this, null);
+      return response;
+    } catch (IOException e) {
+      eventListener.fetchEnd(this, e);
+      throw e;
+    }
   }
 }
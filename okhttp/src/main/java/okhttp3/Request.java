@@ -17,6 +17,7 @@ package okhttp3;
 
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import okhttp3.internal.Util;
 import okhttp3.internal.http.HttpMethod;
 
@@ -26,11 +27,17 @@ import okhttp3.internal.http.HttpMethod;
  * 用于HTTP request的构造和属性设置
  */
 public final class Request {
+  /** The weight of streams that don't specify one. */
+  static final int DEFAULT_STREAM_WEIGHT = 16;
+
   final HttpUrl url;
   final String method;
   final Headers headers;
   final RequestBody body;
   final Object tag;
+  final int streamWeight;
+  final Priority priority;
+  final long deadlineMillis;
 
   private volatile CacheControl cacheControl; // Lazily initialized.
 
@@ -40,6 +47,9 @@ public final class Request {
     this.headers = builder.headers.build();
     this.body = builder.body;
     this.tag = builder.tag != null ? builder.tag : this;
+    this.streamWeight = builder.streamWeight;
+    this.priority = builder.priority;
+    this.deadlineMillis = builder.deadlineMillis;
   }
 
   public HttpUrl url() {
@@ -70,6 +80,27 @@ public final class Request {
     return tag;
   }
 
+  /**
+   * Returns this request's share of a shared HTTP/2 connection's write window, from 1 to 256.
+   * Requests on HTTP/1 connections ignore this.
+   */
+  public int streamWeight() {
+    return streamWeight;
+  }
+
+  /** Returns the priority the dispatcher runs this request's asynchronous calls with. */
+  public Priority priority() {
+    return priority;
+  }
+
+  /**
+   * Returns how long an asynchronous call of this request may wait in the dispatcher's queue
+   * before it fails, or 0 for no deadline.
+   */
+  public long deadlineMillis() {
+    return deadlineMillis;
+  }
+
   public Builder newBuilder() {
     return new Builder(this);
   }
@@ -106,6 +137,9 @@ public final class Request {
     Headers.Builder headers;
     RequestBody body;
     Object tag;
+    int streamWeight = DEFAULT_STREAM_WEIGHT;
+    Priority priority = Priority.NORMAL;
+    long deadlineMillis;
 
     /**
      * 默认请求方法和请求头
@@ -121,6 +155,9 @@ public final class Request {
       this.method = request.method;
       this.body = request.body;
       this.tag = request.tag;
+      this.streamWeight = request.streamWeight;
+      this.priority = request.priority;
+      this.deadlineMillis = request.deadlineMillis;
       this.headers = request.headers.newBuilder();
     }
 
@@ -269,6 +306,51 @@ public final class Request {
       return this;
     }
 
+    /**
+     * Sets the weight used to share a multiplexed HTTP/2 connection's write window with other
+     * requests. When several requests are uploading on the same connection, each is granted DATA
+     * frames in proportion to its weight, so a small request with a high weight isn't starved by a
+     * large upload with a low weight. The default is 16, the HTTP/2 default weight.
+     */
+    public Builder streamWeight(int streamWeight) {
+      if (streamWeight < 1 || streamWeight > 256) {
+        throw new IllegalArgumentException("streamWeight < 1 || streamWeight > 256: "
+            + streamWeight);
+      }
+      this.streamWeight = streamWeight;
+      return this;
+    }
+
+    /**
+     * Sets the priority of asynchronous calls of this request. Once the dispatcher is running its
+     * maximum number of calls, waiting calls are run in priority order. The default is {@link
+     * Priority#NORMAL}.
+     */
+    public Builder priority(Priority priority) {
+      if (priority == null) throw new NullPointerException("priority == null");
+      this.priority = priority;
+      return this;
+    }
+
+    /**
+     * Sets how long an asynchronous call of this request may wait to be run by the dispatcher.
+     * Within a priority, waiting calls with the earliest deadline run first. A call still waiting
+     * when its deadline passes fails with an {@link java.io.InterruptedIOException} instead of
+     * being run. A value of 0 means no deadline; such calls are ordered as if their deadline were
+     * 10 seconds after they were enqueued, so calls with deadlines can't starve them.
+     *
+     * <p>The deadline doesn't limit how long the call takes once it is running. Use the client's
+     * timeouts for that.
+     */
+    public Builder deadline(long timeout, TimeUnit unit) {
+      if (timeout < 0) throw new IllegalArgumentException("timeout < 0");
+      if (unit == null) throw new NullPointerException("unit == null");
+      long millis = unit.toMillis(timeout);
+      if (millis == 0 && timeout > 0) throw new IllegalArgumentException("timeout too small.");
+      this.deadlineMillis = millis;
+      return this;
+    }
+
     /**
      * 调用Request构造函数，完成设置，返回Request对象
      * @return Request对象
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.File;
+import java.io.IOException;
+import okhttp3.internal.cache2.Relay;
+import okio.ByteString;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+import static okhttp3.internal.Util.closeQuietly;
+
+/**
+ * Replicates a response body so that several consumers can each read all of it, for example the
+ * caller, a logger and a cache writer. Each copy is an independent {@link ResponseBody} that may
+ * be read at its own pace, on its own thread.
+ *
+ * <p>The upstream body is read once. Bytes are written to a file as they arrive and the most
+ * recent {@code bufferMaxSize} bytes are also kept in memory, so copies that keep up with upstream
+ * read from memory and copies that fall behind read from the file. The whole body is never held
+ * in memory.
+ *
+ * <pre>   {@code
+ *
+ *   ResponseBodyTee tee = ResponseBodyTee.create(response.body(), file, 64 * 1024);
+ *   ResponseBody forCaller = tee.newBody();
+ *   ResponseBody forLogger = tee.newBody();
+ * }</pre>
+ *
+ * <p>Copies may be created until every copy created so far has been closed. When that happens the
+ * upstream body is closed and the file is deleted. Create at least one copy and close every copy
+ * you create.
+ */
+public final class ResponseBodyTee {
+  private final ResponseBody upstream;
+  private final Relay relay;
+  private final File file;
+
+  private int openCount; // Guarded by this.
+  private boolean closed; // Guarded by this.
+
+  private ResponseBodyTee(ResponseBody upstream, Relay relay, File file) {
+    this.upstream = upstream;
+    this.relay = relay;
+    this.file = file;
+  }
+
+  /**
+   * Returns a tee that replicates {@code body} through {@code file}, keeping up to {@code
+   * bufferMaxSize} recent bytes in memory. Any existing contents of {@code file} are replaced.
+   */
+  public static ResponseBodyTee create(ResponseBody body, File file, long bufferMaxSize)
+      throws IOException {
+    if (body == null) throw new NullPointerException("body == null");
+    if (file == null) throw new NullPointerException("file == null");
+    if (bufferMaxSize <= 0) throw new IllegalArgumentException("bufferMaxSize <= 0");
+    Relay relay = Relay.edit(file, body.source(), ByteString.EMPTY, bufferMaxSize);
+    return new ResponseBodyTee(body, relay, file);
+  }
+
+  public File file() {
+    return file;
+  }
+
+  /**
+   * Returns a new copy of the upstream body. Each copy returns every byte of the body, starting
+   * from the first.
+   *
+   * @throws IllegalStateException if every copy created so far has been closed.
+   */
+  public ResponseBody newBody() {
+    synchronized (this) {
+      if (closed) throw new IllegalStateException("closed");
+      openCount++;
+    }
+
+    Source source = new ForwardingSource(relay.newSource()) {
+      boolean sourceClosed;
+
+      @Override public void close() throws IOException {
+        if (sourceClosed) return;
+        sourceClosed = true;
+        super.close();
+        copyClosed();
+      }
+    };
+    return ResponseBody.create(upstream.contentType(), upstream.contentLength(),
+        Okio.buffer(source));
+  }
+
+  private void copyClosed() {
+    synchronized (this) {
+      if (--openCount > 0) return;
+      closed = true;
+    }
+    closeQuietly(upstream);
+    file.delete();
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.util.Arrays;
+import okhttp3.internal.connection.RealConnection;
+
+/**
+ * An immutable snapshot of the ping round trip times observed on an HTTP/2 connection. Get one with
+ * {@link #get(Connection)}, for example in a network interceptor. Percentiles are computed over the
+ * most recent pings. All durations are in nanoseconds, and are -1 if no ping has
+ * completed yet.
+ */
+public final class RoundTripStats {
+  private final int sampleCount;
+  private final long median;
+  private final long p90;
+  private final long p99;
+  private final long max;
+  private final int missedPings;
+
+  private RoundTripStats(long[] samples, int sampleCount, int missedPings) {
+    int size = Math.min(sampleCount, samples.length);
+    long[] sorted = Arrays.copyOf(samples, size);
+    Arrays.sort(sorted);
+    this.sampleCount = sampleCount;
+    this.median = percentile(sorted, 50);
+    this.p90 = percentile(sorted, 90);
+    this.p99 = percentile(sorted, 99);
+    this.max = size > 0 ? sorted[size - 1] : -1L;
+    this.missedPings = missedPings;
+  }
+
+  /**
+   * Returns the round trip times of pings on {@code connection}, including keepalive pings, or null
+   * if it isn't an HTTP/2 connection. Use this to prefer faster connections when routing calls.
+   */
+  public static RoundTripStats get(Connection connection) {
+    return connection instanceof RealConnection
+        ? ((RealConnection) connection).roundTripStats()
+        : null;
+  }
+
+  /**
+   * Returns stats for {@code sampleCount} completed pings. The round trip times of the most recent
+   * of them, up to {@code samples.length}, are in {@code samples} in any order.
+   */
+  static RoundTripStats get(long[] samples, int sampleCount, int missedPings) {
+    return new RoundTripStats(samples, sampleCount, missedPings);
+  }
+
+  private static long percentile(long[] sorted, int percentile) {
+    if (sorted.length == 0) return -1L;
+    int index = (sorted.length * percentile + 99) / 100 - 1;
+    return sorted[Math.max(index, 0)];
+  }
+
+  /** Returns the total number of pings that completed on this connection. */
+  public int sampleCount() {
+    return sampleCount;
+  }
+
+  public long medianNanos() {
+    return median;
+  }
+
+  public long p90Nanos() {
+    return p90;
+  }
+
+  public long p99Nanos() {
+    return p99;
+  }
+
+  public long maxNanos() {
+    return max;
+  }
+
+  /**
+   * Returns the number of consecutive keepalive pings that weren't answered in time. A connection
+   * that has missed several is degraded and gets no new streams.
+   */
+  public int missedPings() {
+    return missedPings;
+  }
+
+  @Override public String toString() {
+    return "RoundTripStats{samples=" + sampleCount
+        + ", median=" + median
+        + ", p90=" + p90
+        + ", p99=" + p99
+        + ", max=" + max
+        + ", missedPings=" + missedPings
+        + '}';
+  }
+}
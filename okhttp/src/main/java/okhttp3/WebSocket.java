@@ -68,9 +68,9 @@ public interface WebSocket {
    * {@code 0x1}) message.
    *
    * <p>This method returns true if the message was enqueued. Messages that would overflow the
-   * outgoing message buffer will be rejected and trigger a {@linkplain #close graceful shutdown} of
-   * this web socket. This method returns false in that case, and in any other case where this
-   * web socket is closing, closed, or canceled.
+   * outgoing message buffer are rejected, and the listener's {@link WebSocketListener#onWritable}
+   * is invoked once the buffer has drained. This method returns false in that case, and in any
+   * other case where this web socket is closing, closed, or canceled.
    *
    * <p>This method returns immediately.
    */
@@ -81,9 +81,9 @@ public interface WebSocket {
    * message.
    *
    * <p>This method returns true if the message was enqueued. Messages that would overflow the
-   * outgoing message buffer will be rejected and trigger a {@linkplain #close graceful shutdown} of
-   * this web socket. This method returns false in that case, and in any other case where this
-   * web socket is closing, closed, or canceled.
+   * outgoing message buffer are rejected, and the listener's {@link WebSocketListener#onWritable}
+   * is invoked once the buffer has drained. This method returns false in that case, and in any
+   * other case where this web socket is closing, closed, or canceled.
    *
    * <p>This method returns immediately.
    */
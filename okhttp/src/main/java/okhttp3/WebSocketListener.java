@@ -33,6 +33,13 @@ public abstract class WebSocketListener {
   public void onMessage(WebSocket webSocket, ByteString bytes) {
   }
 
+  /**
+   * Invoked when a web socket that refused a message because its outgoing queue was full has
+   * drained enough to accept messages again. This is invoked at most once per refusal.
+   */
+  public void onWritable(WebSocket webSocket) {
+  }
+
   /** Invoked when the peer has indicated that no more incoming messages will be transmitted. */
   public void onClosing(WebSocket webSocket, int code, String reason) {
   }
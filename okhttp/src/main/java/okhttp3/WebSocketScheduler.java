@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import okhttp3.internal.Util;
+
+/**
+ * Writes outgoing frames for many web sockets on a small shared pool of threads, and limits how
+ * many bytes those web sockets may enqueue. Web sockets that share a scheduler also share its
+ * threads and its total queue budget.
+ *
+ * <p>When a message would overflow either the web socket's own queue or the total queue, {@link
+ * WebSocket#send} returns false and the web socket's listener receives {@link
+ * WebSocketListener#onWritable} once the queue has drained to half of its limit.
+ *
+ * <p>Ping intervals and close timeouts are timed on a separate thread, so web sockets whose peers
+ * have stopped reading can't delay the timeouts that cancel them. A blocked write holds its thread
+ * for at most the client's {@linkplain OkHttpClient.Builder#writeTimeout write timeout}.
+ */
+public final class WebSocketScheduler {
+  /** The default maximum number of bytes to enqueue on a single web socket. */
+  static final long DEFAULT_MAX_QUEUE_SIZE = 16 * 1024 * 1024; // 16 MiB.
+
+  /** The scheduler of clients that don't configure their own. Created lazily. */
+  private static WebSocketScheduler defaultScheduler;
+
+  private final ThreadPoolExecutor executor;
+  private final ScheduledThreadPoolExecutor timer;
+  private final long maxQueueSize;
+  private final long maxTotalQueueSize;
+
+  /** The total size in bytes of messages enqueued on all web sockets. Guarded by this. */
+  private long totalQueueSize;
+
+  /** Callbacks of web sockets that were refused by the total queue budget. Guarded by this. */
+  private final ArrayDeque<Runnable> awaitingWritable = new ArrayDeque<>();
+
+  /**
+   * Create a new scheduler with tuning parameters appropriate for a single-user application. The
+   * tuning parameters of this scheduler are subject to change in future OkHttp releases. Currently
+   * this scheduler uses one thread per processor, permits 16 MiB to be enqueued per web socket, and
+   * doesn't limit the total.
+   */
+  public WebSocketScheduler() {
+    this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_QUEUE_SIZE, Long.MAX_VALUE);
+  }
+
+  public WebSocketScheduler(int maxThreads, long maxQueueSize, long maxTotalQueueSize) {
+    if (maxThreads < 1) {
+      throw new IllegalArgumentException("maxThreads < 1: " + maxThreads);
+    }
+    if (maxQueueSize <= 0) {
+      throw new IllegalArgumentException("maxQueueSize <= 0: " + maxQueueSize);
+    }
+    if (maxTotalQueueSize < maxQueueSize) {
+      throw new IllegalArgumentException("maxTotalQueueSize < maxQueueSize: " + maxTotalQueueSize);
+    }
+    this.maxQueueSize = maxQueueSize;
+    this.maxTotalQueueSize = maxTotalQueueSize;
+
+    // Threads are created on demand and released after a minute of inactivity.
+    this.executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), Util.threadFactory("OkHttp WebSocket Writer", false));
+    this.executor.allowCoreThreadTimeOut(true);
+    this.timer = new ScheduledThreadPoolExecutor(1,
+        Util.threadFactory("OkHttp WebSocket Timer", true));
+    this.timer.setKeepAliveTime(60L, TimeUnit.SECONDS);
+    this.timer.allowCoreThreadTimeOut(true);
+    this.timer.setRemoveOnCancelPolicy(true);
+  }
+
+  /** Returns the scheduler shared by clients that don't configure their own. */
+  static synchronized WebSocketScheduler defaultScheduler() {
+    if (defaultScheduler == null) defaultScheduler = new WebSocketScheduler();
+    return defaultScheduler;
+  }
+
+  /** Returns the maximum number of bytes that may be enqueued on a single web socket. */
+  public long maxQueueSize() {
+    return maxQueueSize;
+  }
+
+  /** Returns the maximum number of bytes that may be enqueued on all web sockets combined. */
+  public long maxTotalQueueSize() {
+    return maxTotalQueueSize;
+  }
+
+  /** Returns the number of bytes currently enqueued on all web sockets using this scheduler. */
+  public synchronized long totalQueueSize() {
+    return totalQueueSize;
+  }
+
+  /** Returns the executor that writes frames. Its tasks may block on socket writes. */
+  ExecutorService executor() {
+    return executor;
+  }
+
+  /** Returns the executor that times pings and close timeouts. Its tasks must not block. */
+  ScheduledExecutorService timer() {
+    return timer;
+  }
+
+  /**
+   * Attempts to reserve {@code byteCount} bytes of the total queue budget. If there isn't room this
+   * returns false and {@code onWritable} will be executed once room has been made.
+   */
+  synchronized boolean reserve(long byteCount, Runnable onWritable) {
+    if (totalQueueSize + byteCount > maxTotalQueueSize) {
+      if (!awaitingWritable.contains(onWritable)) awaitingWritable.add(onWritable);
+      return false;
+    }
+    totalQueueSize += byteCount;
+    return true;
+  }
+
+  /** Returns {@code byteCount} bytes to the total queue budget. */
+  void release(long byteCount) {
+    if (byteCount == 0L) return;
+
+    synchronized (this) {
+      totalQueueSize -= byteCount;
+      if (awaitingWritable.isEmpty() || totalQueueSize > maxTotalQueueSize / 2) return;
+    }
+
+    // Notify web sockets on the executor so their listeners don't run on this thread.
+    while (true) {
+      Runnable onWritable;
+      synchronized (this) {
+        onWritable = awaitingWritable.poll();
+      }
+      if (onWritable == null) return;
+      executor.execute(onWritable);
+    }
+  }
+}
@@ -18,6 +18,9 @@ package okhttp3.internal;
 import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import javax.net.ssl.SSLSocket;
 import okhttp3.Address;
 import okhttp3.Call;
@@ -28,10 +31,13 @@ import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.RoundTripStats;
+import okhttp3.WebSocketScheduler;
 import okhttp3.internal.cache.InternalCache;
 import okhttp3.internal.connection.RealConnection;
 import okhttp3.internal.connection.RouteDatabase;
 import okhttp3.internal.connection.StreamAllocation;
+import okhttp3.internal.connection.TlsSessionCache;
 
 /**
  * Escalate internal APIs in {@code okhttp3} so they can be used from OkHttp's implementation
@@ -66,8 +72,19 @@ public abstract class Internal {
 
   public abstract RouteDatabase routeDatabase(ConnectionPool connectionPool);
 
+  public abstract TlsSessionCache tlsSessionCache(ConnectionPool connectionPool);
+
+  /** Returns a factory for virtual threads if {@code connectionPool} uses them, or null. */
+  public abstract ThreadFactory virtualThreadFactory(ConnectionPool connectionPool, String name);
+
+  /** Returns true if idle HTTP/2 connections in {@code connectionPool} park their readers. */
+  public abstract boolean parkIdleReaders(ConnectionPool connectionPool);
+
   public abstract int code(Response.Builder responseBuilder);
 
+  public abstract RoundTripStats newRoundTripStats(
+      long[] samples, int sampleCount, int missedPings);
+
   public abstract void apply(ConnectionSpec tlsConfiguration, SSLSocket sslSocket,
       boolean isFallback);
 
@@ -77,4 +94,13 @@ public abstract class Internal {
   public abstract StreamAllocation streamAllocation(Call call);
 
   public abstract Call newWebSocketCall(OkHttpClient client, Request request);
+
+  public abstract ExecutorService executor(WebSocketScheduler scheduler);
+
+  public abstract ScheduledExecutorService timer(WebSocketScheduler scheduler);
+
+  public abstract boolean reserve(
+      WebSocketScheduler scheduler, long byteCount, Runnable onWritable);
+
+  public abstract void release(WebSocketScheduler scheduler, long byteCount);
 }
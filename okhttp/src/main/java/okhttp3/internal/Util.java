@@ -29,7 +29,10 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import okhttp3.HttpUrl;
@@ -198,6 +201,15 @@ public final class Util {
     };
   }
 
+  /**
+   * Returns an executor that runs each task on a new thread from {@code threadFactory}. Idle
+   * threads aren't kept for reuse, which suits virtual threads that are cheap to create.
+   */
+  public static ExecutorService threadPerTaskExecutor(ThreadFactory threadFactory) {
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0L, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), threadFactory);
+  }
+
   /**
    * Returns an array containing containing only elements found in {@code first}  and also in {@code
    * second}. The returned elements are in the same order as in {@code first}.
@@ -412,6 +424,31 @@ public final class Util {
     return -1;
   }
 
+  /**
+   * Returns the number of bytes used to encode {@code string} as UTF-8. Unpaired surrogates are
+   * counted as the single {@code '?'} byte they are replaced with when encoded.
+   */
+  public static long utf8Size(String string) {
+    long result = 0;
+    for (int i = 0, length = string.length(); i < length; i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        result++;
+      } else if (c < 0x800) {
+        result += 2;
+      } else if (c < 0xd800 || c > 0xdfff) {
+        result += 3;
+      } else if (c <= 0xdbff && i + 1 < length
+          && string.charAt(i + 1) >= 0xdc00 && string.charAt(i + 1) <= 0xdfff) {
+        result += 4;
+        i++;
+      } else {
+        result++;
+      }
+    }
+    return result;
+  }
+
   /** Returns true if {@code host} is not a host name and might be an IP address. */
   public static boolean verifyAsIpAddress(String host) {
     return VERIFY_AS_IP_ADDRESS.matcher(host).matches();
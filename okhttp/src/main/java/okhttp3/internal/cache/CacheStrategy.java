@@ -15,7 +15,6 @@
  */
 package okhttp3.internal.cache;
 
-import java.util.Date;
 import okhttp3.CacheControl;
 import okhttp3.Headers;
 import okhttp3.Request;
@@ -108,18 +107,18 @@ public final class CacheStrategy {
 
     /** The server's time when the cached response was served, if known. */
     // 响应中设置的"Date"属性对应的值
-    private Date servedDate;
+    private long servedDate = HttpDate.NO_DATE;
     private String servedDateString;
 
     /** The last modified date of the cached response, if known. */
-    private Date lastModified;
+    private long lastModified = HttpDate.NO_DATE;
     private String lastModifiedString;
 
     /**
      * The expiration date of the cached response, if known. If both this field and the max age are
      * set, the max age is preferred.
      */
-    private Date expires;
+    private long expires = HttpDate.NO_DATE;
 
     /**
      * Extension header set by OkHttp specifying the timestamp when the cached HTTP request was
@@ -159,12 +158,12 @@ public final class CacheStrategy {
           String fieldName = headers.name(i);
           String value = headers.value(i);
           if ("Date".equalsIgnoreCase(fieldName)) {// Date
-            servedDate = HttpDate.parse(value);
+            servedDate = HttpDate.parseMillis(value);
             servedDateString = value;
           } else if ("Expires".equalsIgnoreCase(fieldName)) {// Expires
-            expires = HttpDate.parse(value);
+            expires = HttpDate.parseMillis(value);
           } else if ("Last-Modified".equalsIgnoreCase(fieldName)) {// If-Modified-Since
-            lastModified = HttpDate.parse(value);
+            lastModified = HttpDate.parseMillis(value);
             lastModifiedString = value;
           } else if ("ETag".equalsIgnoreCase(fieldName)) {// If-None-Match
             etag = value;
@@ -272,10 +271,10 @@ public final class CacheStrategy {
       if (etag != null) {
         conditionName = "If-None-Match";
         conditionValue = etag;
-      } else if (lastModified != null) {
+      } else if (lastModified != HttpDate.NO_DATE) {
         conditionName = "If-Modified-Since";
         conditionValue = lastModifiedString;
-      } else if (servedDate != null) {
+      } else if (servedDate != HttpDate.NO_DATE) {
         conditionName = "If-Modified-Since";
         conditionValue = servedDateString;
       } else {
@@ -303,22 +302,22 @@ public final class CacheStrategy {
       CacheControl responseCaching = cacheResponse.cacheControl();
       if (responseCaching.maxAgeSeconds() != -1) {
         return SECONDS.toMillis(responseCaching.maxAgeSeconds());// 请求的最大缓存时间
-      } else if (expires != null) {
-        long servedMillis = servedDate != null
-            ? servedDate.getTime()
+      } else if (expires != HttpDate.NO_DATE) {
+        long servedMillis = servedDate != HttpDate.NO_DATE
+            ? servedDate
             : receivedResponseMillis;
-        long delta = expires.getTime() - servedMillis;// 响应过期时间间隔
+        long delta = expires - servedMillis;// 响应过期时间间隔
         return delta > 0 ? delta : 0;
-      } else if (lastModified != null
+      } else if (lastModified != HttpDate.NO_DATE
           && cacheResponse.request().url().query() == null) {
         // As recommended by the HTTP RFC and implemented in Firefox, the
         // max age of a document should be defaulted to 10% of the
         // document's age at the time it was served. Default expiration
         // dates aren't used for URIs containing a query.
-        long servedMillis = servedDate != null
-            ? servedDate.getTime()
+        long servedMillis = servedDate != HttpDate.NO_DATE
+            ? servedDate
             : sentRequestMillis;
-        long delta = servedMillis - lastModified.getTime();// 服务器返回的响应改动时间
+        long delta = servedMillis - lastModified;// 服务器返回的响应改动时间
         return delta > 0 ? (delta / 10) : 0;
       }
       return 0;
@@ -330,8 +329,8 @@ public final class CacheStrategy {
      * 根据返回响应的Date属性值，计算出响应缓存从响应返回开始到当前的时间
      */
     private long cacheResponseAge() {
-      long apparentReceivedAge = servedDate != null
-          ? Math.max(0, receivedResponseMillis - servedDate.getTime())
+      long apparentReceivedAge = servedDate != HttpDate.NO_DATE
+          ? Math.max(0, receivedResponseMillis - servedDate)
           : 0;
       long receivedAge = ageSeconds != -1
           ? Math.max(apparentReceivedAge, SECONDS.toMillis(ageSeconds))
@@ -346,7 +345,7 @@ public final class CacheStrategy {
      * cached response older than 24 hours, we are required to attach a warning.
      */
     private boolean isFreshnessLifetimeHeuristic() {
-      return cacheResponse.cacheControl().maxAgeSeconds() == -1 && expires == null;
+      return cacheResponse.cacheControl().maxAgeSeconds() == -1 && expires == HttpDate.NO_DATE;
     }
 
     /**
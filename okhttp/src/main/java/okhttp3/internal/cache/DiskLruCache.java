@@ -85,7 +85,7 @@ import static okhttp3.internal.platform.Platform.WARN;
  *
  * 硬盘缓存，lru、自动清理缓存、filesystem封装,方便缓存的获取和存储
  */
-public final class DiskLruCache implements Closeable, Flushable {
+public class DiskLruCache implements Closeable, Flushable {
   static final String JOURNAL_FILE = "journal";
   static final String JOURNAL_FILE_TEMP = "journal.tmp";
   static final String JOURNAL_FILE_BACKUP = "journal.bkp";
@@ -275,6 +275,33 @@ public final class DiskLruCache implements Closeable, Flushable {
     return new DiskLruCache(fileSystem, directory, appVersion, valueCount, maxSize, executor);
   }
 
+  /**
+   * Create a cache which will reside in {@code directory}, split into {@code shardCount}
+   * independent caches. Each shard has its own journal and an equal share of {@code maxSize}, so
+   * concurrent readers and editors of different keys don't contend. A shard count of 1 creates an
+   * ordinary cache.
+   *
+   * <p>The directory's contents are deleted if they were written with a different shard count.
+   */
+  public static DiskLruCache create(FileSystem fileSystem, File directory, int appVersion,
+      int valueCount, long maxSize, int shardCount) {
+    if (shardCount <= 0) {
+      throw new IllegalArgumentException("shardCount <= 0");
+    }
+    if (shardCount == 1) {
+      return create(fileSystem, directory, appVersion, valueCount, maxSize);
+    }
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize <= 0");
+    }
+    if (valueCount <= 0) {
+      throw new IllegalArgumentException("valueCount <= 0");
+    }
+
+    return new ShardedDiskLruCache(
+        fileSystem, directory, appVersion, valueCount, maxSize, shardCount);
+  }
+
   /**
    * 检查魔数he版本号后，while循环读取文件
    * @throws IOException
@@ -474,6 +501,20 @@ public final class DiskLruCache implements Closeable, Flushable {
     return snapshot;
   }
 
+  /**
+   * Returns true if the entry named {@code key} is readable and hasn't been committed since a
+   * snapshot with {@code sequenceNumber} was created. Unlike {@link #get} this doesn't open the
+   * entry's files or journal a read, though it does move the entry to the head of the LRU queue.
+   */
+  public synchronized boolean isCurrent(String key, long sequenceNumber) throws IOException {
+    initialize();
+
+    if (closed) return false;
+    validateKey(key);
+    Entry entry = lruEntries.get(key);
+    return entry != null && entry.readable && entry.sequenceNumber == sequenceNumber;
+  }
+
   /**
    * Returns an editor for the entry named {@code key}, or null if another edit is in progress.
    */
@@ -483,12 +524,15 @@ public final class DiskLruCache implements Closeable, Flushable {
 
   /**
    * 根据key获取对应的Editor，如果是新的，则新建一个Entry
+   *
+   * <p>Returns an editor for the entry named {@code key}, or null if another edit is in progress or
+   * if the entry has changed since a snapshot with {@code expectedSequenceNumber} was created.
    * @param key
    * @param expectedSequenceNumber
    * @return
    * @throws IOException
    */
-  synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
+  public synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
     initialize();// 初始化
 
     checkNotClosed();// 条目是否已经关闭
@@ -849,6 +893,11 @@ public final class DiskLruCache implements Closeable, Flushable {
       return key;
     }
 
+    /** Returns the sequence number to pass to {@link #edit(String, long)} to edit this entry. */
+    public long sequenceNumber() {
+      return sequenceNumber;
+    }
+
     /**
      * Returns an editor for this snapshot's entry, or null if either the entry has changed since
      * this snapshot was created or if another edit is in progress.
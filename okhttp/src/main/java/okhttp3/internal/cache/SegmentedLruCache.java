@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded in-memory cache that uses a segmented LRU policy. New values enter a probationary
+ * segment; values that are read while on probation move to a protected segment that holds up to 80%
+ * of the cache. Values evicted from the protected segment return to probation, and values evicted
+ * from probation are discarded. This keeps values that are read repeatedly from being flushed out
+ * by a scan of values that are read once.
+ *
+ * <p>This class is safe for concurrent use.
+ */
+public final class SegmentedLruCache<K, V> {
+  private final long maxSize;
+  private final long protectedMaxSize;
+
+  // Both maps are in least-recently used order. Guarded by this.
+  private final LinkedHashMap<K, Node<V>> probation = new LinkedHashMap<>(0, 0.75f, true);
+  private final LinkedHashMap<K, Node<V>> protectedSegment = new LinkedHashMap<>(0, 0.75f, true);
+  private long probationSize;
+  private long protectedSize;
+
+  public SegmentedLruCache(long maxSize) {
+    if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0: " + maxSize);
+    this.maxSize = maxSize;
+    this.protectedMaxSize = maxSize / 5 * 4;
+  }
+
+  /** Returns the value for {@code key}, or null if it isn't cached. */
+  public synchronized V get(K key) {
+    Node<V> node = protectedSegment.get(key);
+    if (node != null) return node.value;
+
+    node = probation.remove(key);
+    if (node == null) return null;
+
+    // Promote this value, demoting the protected segment's least recently used values to make room.
+    probationSize -= node.size;
+    protectedSegment.put(key, node);
+    protectedSize += node.size;
+    for (Iterator<Map.Entry<K, Node<V>>> i = protectedSegment.entrySet().iterator();
+        protectedSize > protectedMaxSize && i.hasNext(); ) {
+      Map.Entry<K, Node<V>> eldest = i.next();
+      if (eldest.getValue() == node) break;
+      i.remove();
+      protectedSize -= eldest.getValue().size;
+      probation.put(eldest.getKey(), eldest.getValue());
+      probationSize += eldest.getValue().size;
+    }
+    return node.value;
+  }
+
+  /**
+   * Adds {@code value} to the probationary segment, replacing any value for {@code key}. Values
+   * larger than the cache are not added.
+   */
+  public synchronized void put(K key, V value, long size) {
+    if (size < 0) throw new IllegalArgumentException("size < 0: " + size);
+    remove(key);
+    if (size > maxSize) return;
+
+    probation.put(key, new Node<>(value, size));
+    probationSize += size;
+    trimToSize();
+  }
+
+  /** Removes the value for {@code key}. Returns true if a value was removed. */
+  public synchronized boolean remove(K key) {
+    Node<V> node = probation.remove(key);
+    if (node != null) {
+      probationSize -= node.size;
+      return true;
+    }
+    node = protectedSegment.remove(key);
+    if (node != null) {
+      protectedSize -= node.size;
+      return true;
+    }
+    return false;
+  }
+
+  public synchronized void evictAll() {
+    probation.clear();
+    protectedSegment.clear();
+    probationSize = 0L;
+    protectedSize = 0L;
+  }
+
+  /** Returns the total size of the cached values. */
+  public synchronized long size() {
+    return probationSize + protectedSize;
+  }
+
+  public long maxSize() {
+    return maxSize;
+  }
+
+  private void trimToSize() {
+    while (probationSize + protectedSize > maxSize) {
+      Map<K, Node<V>> segment = !probation.isEmpty() ? probation : protectedSegment;
+      Iterator<Node<V>> i = segment.values().iterator();
+      Node<V> eldest = i.next();
+      i.remove();
+      if (segment == probation) {
+        probationSize -= eldest.size;
+      } else {
+        protectedSize -= eldest.size;
+      }
+    }
+  }
+
+  static final class Node<V> {
+    final V value;
+    final long size;
+
+    Node(V value, long size) {
+      this.value = value;
+      this.size = size;
+    }
+  }
+}
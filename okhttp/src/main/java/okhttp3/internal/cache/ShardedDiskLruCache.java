@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import okhttp3.internal.io.FileSystem;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * A disk cache that spreads its entries over several independent caches by key. Each shard has its
+ * own subdirectory, journal, lock, cleanup thread and an equal share of the maximum size, so edits
+ * and reads of keys in different shards don't wait on each other.
+ *
+ * <p>The shard count is recorded in the cache directory. If the directory holds a cache with a
+ * different layout, including an unsharded cache, its contents are deleted on initialization.
+ */
+final class ShardedDiskLruCache extends DiskLruCache {
+  static final String SHARDS_FILE = "shards";
+
+  private final DiskLruCache[] shards;
+  private final File shardsFile;
+  private long maxSize; // Guarded by this.
+
+  /** True once the directory's layout has been checked. */
+  private volatile boolean layoutChecked;
+
+  ShardedDiskLruCache(FileSystem fileSystem, File directory, int appVersion, int valueCount,
+      long maxSize, int shardCount) {
+    // This cache holds no entries of its own, so it needs no cleanup executor.
+    super(fileSystem, directory, appVersion, valueCount, maxSize, null);
+    this.shardsFile = new File(directory, SHARDS_FILE);
+    this.maxSize = maxSize;
+    this.shards = new DiskLruCache[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = DiskLruCache.create(fileSystem, new File(directory, "shard" + i), appVersion,
+          valueCount, shardMaxSize(maxSize, shardCount));
+    }
+  }
+
+  private static long shardMaxSize(long maxSize, int shardCount) {
+    return Math.max(1L, maxSize / shardCount);
+  }
+
+  private DiskLruCache shard(String key) throws IOException {
+    checkLayout();
+    return shards[(key.hashCode() & 0x7fffffff) % shards.length];
+  }
+
+  /** Deletes the directory's contents if they weren't written with this cache's shard count. */
+  private void checkLayout() throws IOException {
+    if (layoutChecked) return;
+    synchronized (this) {
+      if (layoutChecked) return;
+
+      String expected = Integer.toString(shards.length);
+      String actual = null;
+      if (fileSystem.exists(shardsFile)) {
+        BufferedSource source = Okio.buffer(fileSystem.source(shardsFile));
+        try {
+          actual = source.readUtf8LineStrict();
+        } catch (IOException ignored) {
+        } finally {
+          source.close();
+        }
+      }
+
+      if (!expected.equals(actual)) {
+        if (fileSystem.exists(directory)) fileSystem.deleteContents(directory);
+        BufferedSink sink = Okio.buffer(fileSystem.sink(shardsFile));
+        try {
+          sink.writeUtf8(expected).writeByte('\n');
+        } finally {
+          sink.close();
+        }
+      }
+
+      layoutChecked = true;
+    }
+  }
+
+  @Override public void initialize() throws IOException {
+    checkLayout();
+    for (DiskLruCache shard : shards) {
+      shard.initialize();
+    }
+  }
+
+  @Override public Snapshot get(String key) throws IOException {
+    return shard(key).get(key);
+  }
+
+  @Override public boolean isCurrent(String key, long sequenceNumber) throws IOException {
+    return shard(key).isCurrent(key, sequenceNumber);
+  }
+
+  @Override public Editor edit(String key) throws IOException {
+    return shard(key).edit(key);
+  }
+
+  @Override public Editor edit(String key, long expectedSequenceNumber) throws IOException {
+    return shard(key).edit(key, expectedSequenceNumber);
+  }
+
+  @Override public boolean remove(String key) throws IOException {
+    return shard(key).remove(key);
+  }
+
+  @Override public synchronized long getMaxSize() {
+    return maxSize;
+  }
+
+  @Override public synchronized void setMaxSize(long maxSize) {
+    this.maxSize = maxSize;
+    for (DiskLruCache shard : shards) {
+      shard.setMaxSize(shardMaxSize(maxSize, shards.length));
+    }
+  }
+
+  @Override public long size() throws IOException {
+    checkLayout();
+    long result = 0L;
+    for (DiskLruCache shard : shards) {
+      result += shard.size();
+    }
+    return result;
+  }
+
+  @Override public boolean isClosed() {
+    return shards[0].isClosed();
+  }
+
+  @Override public void flush() throws IOException {
+    for (DiskLruCache shard : shards) {
+      shard.flush();
+    }
+  }
+
+  @Override public void close() throws IOException {
+    for (DiskLruCache shard : shards) {
+      shard.close();
+    }
+  }
+
+  @Override public void delete() throws IOException {
+    close();
+    fileSystem.deleteContents(directory);
+    synchronized (this) {
+      layoutChecked = false;
+    }
+  }
+
+  @Override public void evictAll() throws IOException {
+    checkLayout();
+    for (DiskLruCache shard : shards) {
+      shard.evictAll();
+    }
+  }
+
+  @Override public Iterator<Snapshot> snapshots() throws IOException {
+    checkLayout();
+    return new Iterator<Snapshot>() {
+      int nextShard;
+      Iterator<Snapshot> current;
+
+      /** The iterator that returned the last snapshot. Null if removal is illegal. */
+      Iterator<Snapshot> removeFrom;
+
+      @Override public boolean hasNext() {
+        while (current == null || !current.hasNext()) {
+          if (nextShard == shards.length) return false;
+          try {
+            current = shards[nextShard++].snapshots();
+          } catch (IOException e) {
+            current = null; // Skip shards that can't be read.
+          }
+        }
+        return true;
+      }
+
+      @Override public Snapshot next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        removeFrom = current;
+        return current.next();
+      }
+
+      @Override public void remove() {
+        if (removeFrom == null) throw new IllegalStateException("remove() before next()");
+        removeFrom.remove();
+        removeFrom = null;
+      }
+    };
+  }
+}
@@ -38,7 +38,7 @@ import static okhttp3.internal.Util.closeQuietly;
  */
 // TODO(jwilson): what to do about timeouts? They could be different and unfortunately when any
 //     timeout is hit we like to tear down the whole stream.
-final class Relay {
+public final class Relay {
   private static final int SOURCE_UPSTREAM = 1;
   private static final int SOURCE_FILE = 2;
 
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.connection;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Route;
+import okhttp3.internal.NamedRunnable;
+import okhttp3.internal.Util;
+
+import static okhttp3.internal.Util.closeQuietly;
+
+/**
+ * Connects to one of several routes by racing them, in the style of <a
+ * href="https://tools.ietf.org/html/rfc8305">Happy Eyeballs</a>. Attempts are started one at a
+ * time, {@link #STAGGER_MILLIS} apart or as soon as the previous attempt fails. The first
+ * connection to complete its TCP and TLS handshakes wins and all others are canceled.
+ *
+ * <p>Failed routes are reported to the route selector as they fail. This way a blackholed address
+ * costs {@link #STAGGER_MILLIS} rather than a full connect timeout. Routes that neither won nor
+ * failed are returned to the route selector so they may be tried if the winner later fails.
+ *
+ * <p>Attempts run on a shared pool of at most {@link #MAX_THREADS} threads. While it's busy, no
+ * further attempts are started in parallel; if none are in flight, the next attempt runs on the
+ * calling thread, as it would without racing.
+ */
+final class RacingConnector {
+  /** How long to wait for an attempt before starting the next one in parallel. */
+  static final long STAGGER_MILLIS = 250;
+
+  /** The most connection attempts to run in the background across all races. */
+  static final int MAX_THREADS = 64;
+
+  /** Background threads make the connection attempts. Each is blocked by its handshakes. */
+  private static final Executor executor = new ThreadPoolExecutor(0 /* corePoolSize */,
+      MAX_THREADS /* maximumPoolSize */, 60L /* keepAliveTime */, TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(), Util.threadFactory("OkHttp RacingConnector", true));
+
+  private final ConnectionPool connectionPool;
+  private final RouteSelector routeSelector;
+  private final List<Route> routes;
+  private final int connectTimeout;
+  private final int readTimeout;
+  private final int writeTimeout;
+  private final int pingIntervalMillis;
+  private final boolean connectionRetryEnabled;
+  private final Call call;
+  private final EventListener eventListener;
+
+  /** Completed attempts. Only successes that were still wanted are enqueued. */
+  private final BlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+
+  // Guarded by this.
+  private final List<RealConnection> connections = new ArrayList<>();
+  private boolean finished;
+  private boolean canceled;
+
+  RacingConnector(ConnectionPool connectionPool, RouteSelector routeSelector, List<Route> routes,
+      int connectTimeout, int readTimeout, int writeTimeout, int pingIntervalMillis,
+      boolean connectionRetryEnabled, Call call, EventListener eventListener) {
+    this.connectionPool = connectionPool;
+    this.routeSelector = routeSelector;
+    this.routes = routes;
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+    this.writeTimeout = writeTimeout;
+    this.pingIntervalMillis = pingIntervalMillis;
+    this.connectionRetryEnabled = connectionRetryEnabled;
+    this.call = call;
+    this.eventListener = eventListener;
+  }
+
+  /**
+   * Returns the winning connection, connected but not yet pooled or acquired. Throws if every
+   * route failed or if the race was canceled.
+   */
+  RealConnection connect() throws IOException {
+    RealConnection winner = null;
+    RouteException failure = null;
+    List<Route> failedRoutes = new ArrayList<>();
+    try {
+      int started = 0;
+      int failed = 0;
+      long nextStartNanos = System.nanoTime();
+      while (true) {
+        synchronized (this) {
+          if (canceled) throw new IOException("Canceled");
+        }
+
+        boolean moreRoutes = started < routes.size();
+        if (moreRoutes && (started == failed || System.nanoTime() - nextStartNanos >= 0)) {
+          // If no attempt is in flight this one must start, even if it runs on this thread.
+          boolean attemptStarted = start(routes.get(started), started == failed);
+          nextStartNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STAGGER_MILLIS);
+          if (attemptStarted) {
+            started++;
+            continue;
+          }
+          // Every racing thread is busy. Wait on the attempts in flight before trying again.
+        }
+        if (started == failed) break; // Every route failed.
+
+        Attempt attempt = moreRoutes
+            ? completed.poll(nextStartNanos - System.nanoTime(), TimeUnit.NANOSECONDS)
+            : completed.take();
+        if (attempt == null) continue; // Time to start another attempt.
+
+        if (attempt.failure == null) {
+          winner = attempt.connection;
+          return winner;
+        }
+
+        failed++;
+        IOException e = attempt.failure.getLastConnectException();
+        failedRoutes.add(attempt.connection.route());
+        routeSelector.connectFailed(attempt.connection.route(), e);
+        if (failure == null) {
+          failure = attempt.failure;
+        } else {
+          failure.addConnectException(e);
+        }
+        nextStartNanos = System.nanoTime(); // Don't wait to replace a failed attempt.
+      }
+      throw failure;
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    } finally {
+      finish(winner);
+      postponeUnused(winner, failedRoutes);
+    }
+  }
+
+  /**
+   * Starts an attempt on {@code route}. Returns false if every racing thread is busy, unless {@code
+   * mustStart} is true, in which case the attempt runs on the calling thread instead.
+   */
+  private boolean start(Route route, boolean mustStart) {
+    RealConnection connection = new RealConnection(connectionPool, route);
+    AttemptRunnable attempt = new AttemptRunnable(connection);
+    synchronized (this) {
+      connections.add(connection);
+    }
+    try {
+      executor.execute(attempt);
+    } catch (RejectedExecutionException e) {
+      if (!mustStart) {
+        synchronized (this) {
+          connections.remove(connection);
+        }
+        return false;
+      }
+      attempt.run();
+    }
+    return true;
+  }
+
+  /** Returns the routes that neither won nor failed to the route selector. */
+  private void postponeUnused(RealConnection winner, List<Route> failedRoutes) {
+    List<Route> unused = new ArrayList<>();
+    for (Route route : routes) {
+      if (winner != null && route.equals(winner.route())) continue;
+      if (failedRoutes.contains(route)) continue;
+      unused.add(route);
+    }
+    routeSelector.postpone(unused);
+  }
+
+  /** Cancels every attempt except {@code winner}, and closes losers that already connected. */
+  private void finish(RealConnection winner) {
+    List<RealConnection> losers = new ArrayList<>();
+    synchronized (this) {
+      finished = true;
+      for (RealConnection connection : connections) {
+        if (connection != winner) losers.add(connection);
+      }
+      for (Attempt attempt; (attempt = completed.poll()) != null; ) {
+        if (attempt.failure == null) closeQuietly(attempt.connection.socket());
+      }
+    }
+    for (RealConnection connection : losers) {
+      connection.cancel();
+    }
+  }
+
+  /** Cancels all attempts, including one that may have already won. */
+  void cancel() {
+    List<RealConnection> toCancel;
+    synchronized (this) {
+      canceled = true;
+      toCancel = new ArrayList<>(connections);
+    }
+    for (RealConnection connection : toCancel) {
+      connection.cancel();
+      closeQuietly(connection.socket());
+    }
+  }
+
+  final class AttemptRunnable extends NamedRunnable {
+    private final RealConnection connection;
+
+    AttemptRunnable(RealConnection connection) {
+      super("OkHttp RacingConnector %s", connection.route().socketAddress());
+      this.connection = connection;
+    }
+
+    @Override protected void execute() {
+      RouteException failure = null;
+      try {
+        connection.connect(connectTimeout, readTimeout, writeTimeout, pingIntervalMillis,
+            connectionRetryEnabled, call, eventListener);
+      } catch (RouteException e) {
+        failure = e;
+      }
+
+      synchronized (RacingConnector.this) {
+        if (!finished) {
+          completed.add(new Attempt(connection, failure));
+          return;
+        }
+      }
+
+      // The race is already over. Release this connection.
+      if (failure == null) closeQuietly(connection.socket());
+    }
+  }
+
+  static final class Attempt {
+    final RealConnection connection;
+    /** Null if this attempt connected successfully. */
+    final RouteException failure;
+
+    Attempt(RealConnection connection, RouteException failure) {
+      this.connection = connection;
+      this.failure = failure;
+    }
+  }
+}
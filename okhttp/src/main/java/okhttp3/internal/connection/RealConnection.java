@@ -19,6 +19,7 @@ package okhttp3.internal.connection;
 import java.io.IOException;
 import java.lang.ref.Reference;
 import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.net.ProtocolException;
 import java.net.Proxy;
 import java.net.Socket;
@@ -29,21 +30,26 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import javax.net.SocketFactory;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import okhttp3.Address;
+import okhttp3.Call;
 import okhttp3.CertificatePinner;
 import okhttp3.Connection;
 import okhttp3.ConnectionPool;
 import okhttp3.ConnectionSpec;
+import okhttp3.EventListener;
 import okhttp3.Handshake;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.RoundTripStats;
 import okhttp3.Route;
+import okhttp3.internal.Internal;
 import okhttp3.internal.Util;
 import okhttp3.internal.Version;
 import okhttp3.internal.http.HttpCodec;
@@ -126,10 +132,14 @@ public final class RealConnection extends Http2Connection.Listener implements Co
    * @param connectTimeout
    * @param readTimeout
    * @param writeTimeout
+   * @param pingIntervalMillis HTTP/2 keepalive ping间隔，0表示不发送
    * @param connectionRetryEnabled
+   * @param call 触发连接的Call，预热连接时为null
+   * @param eventListener 接收TLS握手事件
    */
-  public void connect(
-      int connectTimeout, int readTimeout, int writeTimeout, boolean connectionRetryEnabled) {
+  public void connect(int connectTimeout, int readTimeout, int writeTimeout,
+      int pingIntervalMillis, boolean connectionRetryEnabled, Call call,
+      EventListener eventListener) {
     if (protocol != null) throw new IllegalStateException("already connected");
 
     RouteException routeException = null;
@@ -148,7 +158,9 @@ public final class RealConnection extends Http2Connection.Listener implements Co
       }
     }
 
+    InetSocketAddress socketAddress = route.socketAddress();
     while (true) {
+      eventListener.connectStart(call, socketAddress.getAddress(), socketAddress.getPort());
       try {
         if (route.requiresTunnel()) {
           // HTTPS
@@ -158,9 +170,13 @@ public final class RealConnection extends Http2Connection.Listener implements Co
           connectSocket(connectTimeout, readTimeout);
         }
         // 选择协议
-        establishProtocol(connectionSpecSelector);
+        establishProtocol(connectionSpecSelector, pingIntervalMillis, call, eventListener);
+        eventListener.connectEnd(call, socketAddress.getAddress(), socketAddress.getPort(),
+            protocol.toString(), null);
         break;
       } catch (IOException e) {
+        eventListener.connectEnd(call, socketAddress.getAddress(), socketAddress.getPort(), null,
+            e);
         closeQuietly(socket);
         closeQuietly(rawSocket);
         socket = null;
@@ -230,7 +246,7 @@ public final class RealConnection extends Http2Connection.Listener implements Co
     Address address = route.address();
 
     rawSocket = proxy.type() == Proxy.Type.DIRECT || proxy.type() == Proxy.Type.HTTP
-        ? address.socketFactory().createSocket() // HTTP
+        ? createSocket(address) // HTTP
         : new Socket(proxy); // HTTPS
 
     rawSocket.setSoTimeout(readTimeout);
@@ -246,12 +262,28 @@ public final class RealConnection extends Http2Connection.Listener implements Co
     sink = Okio.buffer(Okio.sink(rawSocket)); // 写缓冲区工具
   }
 
+  /**
+   * Returns a socket that can park its reader if this connection may be HTTP/2 and the pool parks
+   * idle readers. Sockets from a custom factory are used as-is.
+   */
+  private Socket createSocket(Address address) throws IOException {
+    if (address.sslSocketFactory() != null
+        && address.protocols().contains(Protocol.HTTP_2)
+        && address.socketFactory() == SocketFactory.getDefault()
+        && Internal.instance.parkIdleReaders(connectionPool)) {
+      return SelectableSocket.create();
+    }
+    return address.socketFactory().createSocket();
+  }
+
   /**
    * 连接HTTP1，或者HTTP2增加协议
    * @param connectionSpecSelector
+   * @param pingIntervalMillis
    * @throws IOException
    */
-  private void establishProtocol(ConnectionSpecSelector connectionSpecSelector) throws IOException {
+  private void establishProtocol(ConnectionSpecSelector connectionSpecSelector,
+      int pingIntervalMillis, Call call, EventListener eventListener) throws IOException {
     // HTTP1
     if (route.address().sslSocketFactory() == null) {
       protocol = Protocol.HTTP_1_1;
@@ -260,7 +292,7 @@ public final class RealConnection extends Http2Connection.Listener implements Co
     }
 
     // 如果是HTTPS，则进行TLS连接配置、验证、握手
-    connectTls(connectionSpecSelector);
+    connectTls(connectionSpecSelector, call, eventListener);
 
     // HTTP2
 
@@ -269,6 +301,12 @@ public final class RealConnection extends Http2Connection.Listener implements Co
       http2Connection = new Http2Connection.Builder(true)
           .socket(socket, route.address().url().host(), source, sink)
           .listener(this)
+          .pingIntervalMillis(pingIntervalMillis)
+          .readerThreadFactory(Internal.instance.virtualThreadFactory(
+              connectionPool, "OkHttp Http2Connection"))
+          .selectableSocket(rawSocket instanceof SelectableSocket
+              ? (SelectableSocket) rawSocket
+              : null)
           .build();
       http2Connection.start();// 完成握手后，开始连接发送Hello包
     }
@@ -279,11 +317,16 @@ public final class RealConnection extends Http2Connection.Listener implements Co
    * @param connectionSpecSelector
    * @throws IOException
    */
-  private void connectTls(ConnectionSpecSelector connectionSpecSelector) throws IOException {
+  private void connectTls(ConnectionSpecSelector connectionSpecSelector, Call call,
+      EventListener eventListener) throws IOException {
     Address address = route.address();
     SSLSocketFactory sslSocketFactory = address.sslSocketFactory();
+    TlsSessionCache tlsSessionCache = Internal.instance.tlsSessionCache(connectionPool);
     boolean success = false;
     SSLSocket sslSocket = null;
+    boolean handshakeCompleted = false;
+    long handshakeStartNanos = -1L;
+    long handshakeStartMillis = -1L;
     try {
       // Create the wrapper over the connected socket.
       // 创建一个SSL的socket
@@ -300,7 +343,12 @@ public final class RealConnection extends Http2Connection.Listener implements Co
 
       // Force handshake. This can throw!
       // client Hello
+      eventListener.secureConnectStart(call);
+      handshakeStartNanos = System.nanoTime();
+      handshakeStartMillis = System.currentTimeMillis();
       sslSocket.startHandshake();
+      long handshakeNanos = System.nanoTime() - handshakeStartNanos;
+      handshakeCompleted = true;
       Handshake unverifiedHandshake = Handshake.get(sslSocket.getSession());// 获取会话，包含server发送的证书
 
       // Verify that the socket's certificates are acceptable for the target host.
@@ -323,6 +371,9 @@ public final class RealConnection extends Http2Connection.Listener implements Co
       String maybeProtocol = connectionSpec.supportsTlsExtensions()
           ? Platform.get().getSelectedProtocol(sslSocket)
           : null;
+      // 记录会话，判断是否复用了之前的TLS会话
+      boolean sessionResumed = tlsSessionCache.sessionEstablished(
+          address, sslSocket.getSession(), handshakeStartMillis);
       socket = sslSocket;
       source = Okio.buffer(Okio.source(socket)); // 读缓冲区
       sink = Okio.buffer(Okio.sink(socket));// 写缓冲区
@@ -331,6 +382,13 @@ public final class RealConnection extends Http2Connection.Listener implements Co
           ? Protocol.get(maybeProtocol)
           : Protocol.HTTP_1_1;
       success = true; // HTTPS 连接建立成功
+      eventListener.secureConnectEnd(call, handshake, sessionResumed, handshakeNanos, null);
+    } catch (IOException e) {
+      long handshakeNanos = handshakeStartNanos != -1L
+          ? System.nanoTime() - handshakeStartNanos
+          : 0L;
+      eventListener.secureConnectEnd(call, null, false, handshakeNanos, e);
+      throw e;
     } catch (AssertionError e) {
       if (Util.isAndroidGetsocknameError(e)) throw new IOException(e);
       throw e;
@@ -340,6 +398,8 @@ public final class RealConnection extends Http2Connection.Listener implements Co
         Platform.get().afterHandshake(sslSocket);
       }
       if (!success) {
+        // Don't resume a session whose certificates we rejected.
+        if (handshakeCompleted) tlsSessionCache.sessionRejected(address, sslSocket.getSession());
         closeQuietly(sslSocket);
       }
     }
@@ -430,7 +490,8 @@ public final class RealConnection extends Http2Connection.Listener implements Co
   public boolean isEligible(Address address) {
     return allocations.size() < allocationLimit
         && address.equals(route().address())
-        && !noNewStreams;
+        && !noNewStreams
+        && (http2Connection == null || !http2Connection.isDegraded());
   }
 
   /**
@@ -452,7 +513,7 @@ public final class RealConnection extends Http2Connection.Listener implements Co
   public RealWebSocket.Streams newWebSocketStreams(final StreamAllocation streamAllocation) {
     return new RealWebSocket.Streams(true, source, sink) {
       @Override public void close() throws IOException {
-        streamAllocation.streamFinished(true, streamAllocation.codec());
+        streamAllocation.streamFinished(true, streamAllocation.codec(), null);
       }
     };
   }
@@ -477,9 +538,9 @@ public final class RealConnection extends Http2Connection.Listener implements Co
       return false;
     }
 
-    // 如果连接没有结束，则返回true
+    // 如果连接没有结束，并且没有错过keepalive ping，则返回true
     if (http2Connection != null) {
-      return !http2Connection.isShutdown();
+      return !http2Connection.isShutdown() && !http2Connection.isDegraded();
     }
 
     // 如果请求不为get方法
@@ -517,6 +578,14 @@ public final class RealConnection extends Http2Connection.Listener implements Co
     }
   }
 
+  /**
+   * Returns the ping round trip times of this HTTP/2 connection, or null if this connection isn't
+   * multiplexed.
+   */
+  public RoundTripStats roundTripStats() {
+    return http2Connection != null ? http2Connection.roundTripStats() : null;
+  }
+
   @Override public Handshake handshake() {
     return handshake;
   }
@@ -26,6 +26,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
 import okhttp3.Address;
+import okhttp3.Call;
+import okhttp3.EventListener;
 import okhttp3.HttpUrl;
 import okhttp3.Route;
 import okhttp3.internal.Util;
@@ -38,6 +40,8 @@ import okhttp3.internal.Util;
 public final class RouteSelector {
   private final Address address;
   private final RouteDatabase routeDatabase;
+  private final Call call;
+  private final EventListener eventListener;
 
   /* The most recently attempted route. */
   // 最近使用的路由配置
@@ -56,8 +60,16 @@ public final class RouteSelector {
   private final List<Route> postponedRoutes = new ArrayList<>();
 
   public RouteSelector(Address address, RouteDatabase routeDatabase) {
+    this(address, routeDatabase, null, EventListener.NULL_EVENT_LISTENER);
+  }
+
+  /** Reports DNS lookups for {@code call}, which may be null, to {@code eventListener}. */
+  public RouteSelector(Address address, RouteDatabase routeDatabase, Call call,
+      EventListener eventListener) {
     this.address = address;
     this.routeDatabase = routeDatabase;
+    this.call = call;
+    this.eventListener = eventListener;
 
     // 重置代理
     resetNextProxy(address.url(), address.proxy());
@@ -96,6 +108,76 @@ public final class RouteSelector {
     return route;
   }
 
+  /**
+   * Returns all of the remaining routes through the current proxy, or through the next proxy if the
+   * current one is exhausted. Use this to attempt several routes concurrently. The routes alternate
+   * between address families, starting with the family of the first address DNS returned.
+   * Previously failed routes are returned last, after all proxies have been exhausted.
+   */
+  public List<Route> nextRoutes() throws IOException {
+    if (!hasNextInetSocketAddress()) {
+      if (!hasNextProxy()) {
+        if (!hasNextPostponed()) {
+          throw new NoSuchElementException();
+        }
+        List<Route> result = new ArrayList<>(postponedRoutes);
+        postponedRoutes.clear();
+        return result;
+      }
+      lastProxy = nextProxy();
+    }
+
+    List<Route> routes = new ArrayList<>();
+    while (hasNextInetSocketAddress()) {
+      lastInetSocketAddress = nextInetSocketAddress();
+      Route route = new Route(address, lastProxy, lastInetSocketAddress);
+      if (routeDatabase.shouldPostpone(route)) {
+        postponedRoutes.add(route);
+      } else {
+        routes.add(route);
+      }
+    }
+
+    if (routes.isEmpty()) {
+      return nextRoutes(); // Every route through this proxy failed recently. Try the next proxy.
+    }
+    return interleaveAddressFamilies(routes);
+  }
+
+  /**
+   * Returns routes that were taken from {@link #nextRoutes} but not used, so that they're still
+   * tried if the connection that was made instead fails. Like previously failed routes, they're
+   * returned after the routes of all remaining proxies.
+   */
+  public void postpone(List<Route> routes) {
+    postponedRoutes.addAll(routes);
+  }
+
+  /** Returns {@code routes} reordered to alternate between IPv6 and IPv4 addresses. */
+  static List<Route> interleaveAddressFamilies(List<Route> routes) {
+    List<Route> first = new ArrayList<>();
+    List<Route> second = new ArrayList<>();
+    Class<?> firstFamily = null;
+    for (int i = 0, size = routes.size(); i < size; i++) {
+      Route route = routes.get(i);
+      InetAddress inetAddress = route.socketAddress().getAddress();
+      Class<?> family = inetAddress != null ? inetAddress.getClass() : null;
+      if (i == 0) firstFamily = family;
+      if (family == firstFamily) {
+        first.add(route);
+      } else {
+        second.add(route);
+      }
+    }
+
+    List<Route> result = new ArrayList<>(routes.size());
+    for (int i = 0; i < first.size() || i < second.size(); i++) {
+      if (i < first.size()) result.add(first.get(i));
+      if (i < second.size()) result.add(second.get(i));
+    }
+    return result;
+  }
+
   /**
    * Clients should invoke this method when they encounter a connectivity failure on a connection
    * returned by this route selector.
@@ -175,7 +257,15 @@ public final class RouteSelector {
       inetSocketAddresses.add(InetSocketAddress.createUnresolved(socketHost, socketPort));
     } else {
       // Try each address for best behavior in mixed IPv4/IPv6 environments.
-      List<InetAddress> addresses = address.dns().lookup(socketHost);
+      eventListener.dnsStart(call, socketHost);
+      List<InetAddress> addresses;
+      try {
+        addresses = address.dns().lookup(socketHost);
+      } catch (IOException | RuntimeException e) {
+        eventListener.dnsEnd(call, socketHost, null, e);
+        throw e;
+      }
+      eventListener.dnsEnd(call, socketHost, addresses, null);
       for (int i = 0, size = addresses.size(); i < size; i++) {
         InetAddress inetAddress = addresses.get(i);
         inetSocketAddresses.add(new InetSocketAddress(inetAddress, socketPort));
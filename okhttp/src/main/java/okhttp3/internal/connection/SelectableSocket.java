@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A blocking socket whose reader can stop reading while it waits for data, releasing its thread.
+ * The reader calls {@link #park} when it has nothing to do, and the socket's shared {@link
+ * SocketSelector} runs the reader's callback when the socket becomes readable again.
+ *
+ * <p>While parked the underlying channel is in non-blocking mode. Writes through this socket's
+ * streams, including those made by an {@link javax.net.ssl.SSLSocket} layered over it, go straight
+ * to the channel and leave the reader parked; the peer's reply makes the socket readable. If the
+ * channel can't take all of a write, or if this socket is read while parked, the channel is first
+ * returned to blocking mode and the callback is run so the reader resumes. Closing a parked socket
+ * also runs the callback; the reader then fails with a closed socket.
+ */
+public final class SelectableSocket extends Socket {
+  final SocketChannel channel;
+  private final Socket delegate;
+  private final SocketSelector selector;
+
+  // Guarded by this.
+  private InputStream inputStream;
+  private OutputStream outputStream;
+  private boolean parked;
+  private boolean unparkRequested;
+  private SelectionKey key;
+  private Runnable onReadable;
+  private int ioCount;
+  private boolean closed;
+
+  private SelectableSocket(SocketChannel channel, SocketSelector selector) {
+    this.channel = channel;
+    this.delegate = channel.socket();
+    this.selector = selector;
+  }
+
+  /** Returns a new unconnected socket that parks on the shared selector. */
+  public static SelectableSocket create() throws IOException {
+    return new SelectableSocket(SocketChannel.open(), SocketSelector.get());
+  }
+
+  /**
+   * Stops blocking reads on this socket until it is readable, and then runs {@code onReadable} on
+   * the selector thread. The callback must not block. Returns false if the socket couldn't be
+   * parked because it is closed or in use; the caller should continue to read.
+   */
+  public synchronized boolean park(Runnable onReadable) throws IOException {
+    if (closed || parked || ioCount > 0) return false;
+    channel.configureBlocking(false);
+    this.parked = true;
+    this.onReadable = onReadable;
+    // Queue the registration before releasing the lock so it runs before any unpark it races.
+    selector.register(this);
+    return true;
+  }
+
+  /** Called on the selector thread when this socket's key is registered. */
+  void registered(SelectionKey key) {
+    synchronized (this) {
+      if (parked) {
+        this.key = key;
+        return;
+      }
+    }
+    key.cancel(); // Closed before the key was registered.
+  }
+
+  /** Called on the selector thread to cancel this socket's key before unparking it. */
+  synchronized void cancelKey() {
+    if (key != null) key.cancel();
+  }
+
+  /**
+   * Called on the selector thread once this socket's key has been cancelled and deregistered.
+   * Returns the channel to blocking mode and runs the park callback.
+   */
+  void unparked() {
+    Runnable callback;
+    synchronized (this) {
+      if (!parked) return;
+      parked = false;
+      unparkRequested = false;
+      key = null;
+      callback = onReadable;
+      onReadable = null;
+      try {
+        if (!closed) channel.configureBlocking(true);
+      } catch (IOException ignored) {
+        // The channel was closed. The next read or write will fail.
+      }
+      notifyAll();
+    }
+    callback.run();
+  }
+
+  /** Unparks this socket if necessary and marks the start of a read or write. */
+  private void beginIo() throws IOException {
+    synchronized (this) {
+      if (closed) throw new SocketException("Socket closed");
+      if (parked) {
+        if (!unparkRequested) {
+          unparkRequested = true;
+          selector.requestUnpark(this);
+        }
+        try {
+          while (parked) {
+            wait();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+        if (closed) throw new SocketException("Socket closed");
+      }
+      ioCount++;
+    }
+  }
+
+  private synchronized void endIo() {
+    ioCount--;
+  }
+
+  /**
+   * Writes as much of {@code buffer} as the channel will take without blocking if this socket is
+   * parked. Returns false if it isn't parked.
+   */
+  private boolean writeIfParked(ByteBuffer buffer) throws IOException {
+    synchronized (this) {
+      if (!parked) return false;
+    }
+    // If the selector unparks this socket concurrently, this write blocks until it completes.
+    while (buffer.hasRemaining() && channel.write(buffer) > 0) {
+    }
+    return true;
+  }
+
+  @Override public synchronized InputStream getInputStream() throws IOException {
+    if (inputStream == null) inputStream = new GuardedInputStream(delegate.getInputStream());
+    return inputStream;
+  }
+
+  @Override public synchronized OutputStream getOutputStream() throws IOException {
+    if (outputStream == null) outputStream = new GuardedOutputStream(delegate.getOutputStream());
+    return outputStream;
+  }
+
+  @Override public void close() throws IOException {
+    Runnable callback = null;
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+      if (parked) {
+        // Closing the channel cancels the key. Resume the reader so it sees the closed socket.
+        parked = false;
+        key = null;
+        callback = onReadable;
+        onReadable = null;
+        notifyAll();
+      }
+    }
+    try {
+      delegate.close();
+    } finally {
+      if (callback != null) {
+        selector.requestUnpark(this); // Deregister the key so the channel is released.
+        callback.run();
+      }
+    }
+  }
+
+  /** Returns null. Reads and writes must go through this socket's streams. */
+  @Override public SocketChannel getChannel() {
+    return null;
+  }
+
+  @Override public void connect(SocketAddress endpoint) throws IOException {
+    delegate.connect(endpoint);
+  }
+
+  @Override public void connect(SocketAddress endpoint, int timeout) throws IOException {
+    delegate.connect(endpoint, timeout);
+  }
+
+  @Override public void bind(SocketAddress bindpoint) throws IOException {
+    delegate.bind(bindpoint);
+  }
+
+  @Override public InetAddress getInetAddress() {
+    return delegate.getInetAddress();
+  }
+
+  @Override public InetAddress getLocalAddress() {
+    return delegate.getLocalAddress();
+  }
+
+  @Override public int getPort() {
+    return delegate.getPort();
+  }
+
+  @Override public int getLocalPort() {
+    return delegate.getLocalPort();
+  }
+
+  @Override public SocketAddress getRemoteSocketAddress() {
+    return delegate.getRemoteSocketAddress();
+  }
+
+  @Override public SocketAddress getLocalSocketAddress() {
+    return delegate.getLocalSocketAddress();
+  }
+
+  @Override public void setTcpNoDelay(boolean on) throws SocketException {
+    delegate.setTcpNoDelay(on);
+  }
+
+  @Override public boolean getTcpNoDelay() throws SocketException {
+    return delegate.getTcpNoDelay();
+  }
+
+  @Override public void setSoLinger(boolean on, int linger) throws SocketException {
+    delegate.setSoLinger(on, linger);
+  }
+
+  @Override public int getSoLinger() throws SocketException {
+    return delegate.getSoLinger();
+  }
+
+  @Override public void sendUrgentData(int data) throws IOException {
+    delegate.sendUrgentData(data);
+  }
+
+  @Override public void setOOBInline(boolean on) throws SocketException {
+    delegate.setOOBInline(on);
+  }
+
+  @Override public boolean getOOBInline() throws SocketException {
+    return delegate.getOOBInline();
+  }
+
+  @Override public void setSoTimeout(int timeout) throws SocketException {
+    delegate.setSoTimeout(timeout);
+  }
+
+  @Override public int getSoTimeout() throws SocketException {
+    return delegate.getSoTimeout();
+  }
+
+  @Override public void setSendBufferSize(int size) throws SocketException {
+    delegate.setSendBufferSize(size);
+  }
+
+  @Override public int getSendBufferSize() throws SocketException {
+    return delegate.getSendBufferSize();
+  }
+
+  @Override public void setReceiveBufferSize(int size) throws SocketException {
+    delegate.setReceiveBufferSize(size);
+  }
+
+  @Override public int getReceiveBufferSize() throws SocketException {
+    return delegate.getReceiveBufferSize();
+  }
+
+  @Override public void setKeepAlive(boolean on) throws SocketException {
+    delegate.setKeepAlive(on);
+  }
+
+  @Override public boolean getKeepAlive() throws SocketException {
+    return delegate.getKeepAlive();
+  }
+
+  @Override public void setTrafficClass(int tc) throws SocketException {
+    delegate.setTrafficClass(tc);
+  }
+
+  @Override public int getTrafficClass() throws SocketException {
+    return delegate.getTrafficClass();
+  }
+
+  @Override public void setReuseAddress(boolean on) throws SocketException {
+    delegate.setReuseAddress(on);
+  }
+
+  @Override public boolean getReuseAddress() throws SocketException {
+    return delegate.getReuseAddress();
+  }
+
+  @Override public void shutdownInput() throws IOException {
+    delegate.shutdownInput();
+  }
+
+  @Override public void shutdownOutput() throws IOException {
+    delegate.shutdownOutput();
+  }
+
+  @Override public boolean isConnected() {
+    return delegate.isConnected();
+  }
+
+  @Override public boolean isBound() {
+    return delegate.isBound();
+  }
+
+  @Override public boolean isClosed() {
+    return delegate.isClosed();
+  }
+
+  @Override public boolean isInputShutdown() {
+    return delegate.isInputShutdown();
+  }
+
+  @Override public boolean isOutputShutdown() {
+    return delegate.isOutputShutdown();
+  }
+
+  @Override public void setPerformancePreferences(int connectionTime, int latency, int bandwidth) {
+    delegate.setPerformancePreferences(connectionTime, latency, bandwidth);
+  }
+
+  @Override public String toString() {
+    return delegate.toString();
+  }
+
+  final class GuardedInputStream extends InputStream {
+    private final InputStream in;
+
+    GuardedInputStream(InputStream in) {
+      this.in = in;
+    }
+
+    @Override public int read() throws IOException {
+      beginIo();
+      try {
+        return in.read();
+      } finally {
+        endIo();
+      }
+    }
+
+    @Override public int read(byte[] b, int off, int len) throws IOException {
+      beginIo();
+      try {
+        return in.read(b, off, len);
+      } finally {
+        endIo();
+      }
+    }
+
+    @Override public int available() throws IOException {
+      beginIo();
+      try {
+        return in.available();
+      } finally {
+        endIo();
+      }
+    }
+
+    @Override public void close() throws IOException {
+      SelectableSocket.this.close();
+    }
+  }
+
+  final class GuardedOutputStream extends OutputStream {
+    private final OutputStream out;
+
+    GuardedOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+      if (writeIfParked(buffer) && !buffer.hasRemaining()) return;
+
+      beginIo(); // The channel is full. Wait for it in blocking mode.
+      try {
+        out.write(b, buffer.position(), buffer.remaining());
+      } finally {
+        endIo();
+      }
+    }
+
+    @Override public void flush() throws IOException {
+      synchronized (SelectableSocket.this) {
+        if (parked) return; // Writes to a parked socket aren't buffered.
+      }
+      beginIo();
+      try {
+        out.flush();
+      } finally {
+        endIo();
+      }
+    }
+
+    @Override public void close() throws IOException {
+      SelectableSocket.this.close();
+    }
+  }
+}
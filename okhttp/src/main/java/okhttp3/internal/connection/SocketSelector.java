@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.connection;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import okhttp3.internal.Util;
+import okhttp3.internal.platform.Platform;
+
+import static okhttp3.internal.platform.Platform.WARN;
+
+/**
+ * Watches {@linkplain SelectableSocket#park parked} sockets for readability on a single shared
+ * thread. When a parked socket becomes readable, or when another thread needs to use it, the
+ * socket is returned to blocking mode and its callback is run on the selector thread.
+ *
+ * <p>Registrations and cancellations are made on the selector thread so they never wait on a
+ * blocked {@link Selector#select}.
+ */
+final class SocketSelector implements Runnable {
+  private static SocketSelector instance;
+
+  private final Selector selector;
+
+  /** Registrations and unparks to make on the selector thread. Guarded by this. */
+  private final Deque<Runnable> tasks = new ArrayDeque<>();
+
+  private SocketSelector(Selector selector) {
+    this.selector = selector;
+  }
+
+  /** Returns the shared selector, starting its thread if necessary. */
+  static synchronized SocketSelector get() throws IOException {
+    if (instance == null) {
+      instance = new SocketSelector(Selector.open());
+      Util.threadFactory("OkHttp SocketSelector", true).newThread(instance).start();
+    }
+    return instance;
+  }
+
+  /** Watches {@code socket}, which must already be in non-blocking mode, until it's readable. */
+  void register(final SelectableSocket socket) {
+    execute(new Runnable() {
+      @Override public void run() {
+        SelectionKey key;
+        try {
+          key = socket.channel.register(selector, SelectionKey.OP_READ, socket);
+        } catch (IOException | RuntimeException e) {
+          // The channel is closed or was already unparked. Let the socket's owner find that out.
+          unpark(socket);
+          return;
+        }
+        socket.registered(key);
+      }
+    });
+  }
+
+  /** Stops watching {@code socket} and returns it to blocking mode. */
+  void requestUnpark(final SelectableSocket socket) {
+    execute(new Runnable() {
+      @Override public void run() {
+        socket.cancelKey();
+        unpark(socket);
+      }
+    });
+  }
+
+  private void execute(Runnable task) {
+    synchronized (this) {
+      tasks.add(task);
+    }
+    selector.wakeup();
+  }
+
+  @Override public void run() {
+    List<SelectableSocket> readable = new ArrayList<>();
+    while (true) {
+      try {
+        runTasks();
+        selector.select();
+
+        for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext(); ) {
+          SelectionKey key = i.next();
+          i.remove();
+          if (!key.isValid()) continue;
+          key.cancel();
+          readable.add((SelectableSocket) key.attachment());
+        }
+
+        if (!readable.isEmpty()) {
+          selector.selectNow(); // Deregister the cancelled keys so their channels may block.
+          for (SelectableSocket socket : readable) {
+            unparked(socket);
+          }
+          readable.clear();
+        }
+      } catch (IOException | RuntimeException e) {
+        // Keep selecting: the other parked sockets depend on this thread to resume them.
+        Platform.get().log(WARN, "OkHttp SocketSelector failed to select", e);
+      }
+    }
+  }
+
+  private void runTasks() {
+    while (true) {
+      Runnable task;
+      synchronized (this) {
+        task = tasks.poll();
+      }
+      if (task == null) return;
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        Platform.get().log(WARN, "OkHttp SocketSelector task failed", e);
+      }
+    }
+  }
+
+  /** Deregisters any cancelled key of {@code socket} and returns it to blocking mode. */
+  private void unpark(SelectableSocket socket) {
+    try {
+      selector.selectNow();
+    } catch (IOException e) {
+      Platform.get().log(WARN, "OkHttp SocketSelector failed to select", e);
+    }
+    unparked(socket);
+  }
+
+  /** Resumes {@code socket}'s reader. A failing callback must not strand the other sockets. */
+  private void unparked(SelectableSocket socket) {
+    try {
+      socket.unparked();
+    } catch (RuntimeException e) {
+      Platform.get().log(WARN, "OkHttp SocketSelector failed to resume " + socket, e);
+    }
+  }
+}
@@ -19,8 +19,11 @@ import java.io.IOException;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
 import java.net.Socket;
+import java.util.List;
 import okhttp3.Address;
+import okhttp3.Call;
 import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
 import okhttp3.OkHttpClient;
 import okhttp3.Route;
 import okhttp3.internal.Internal;
@@ -78,6 +81,8 @@ public final class StreamAllocation {
   private Route route; // 路由
   private final ConnectionPool connectionPool; // 连接池
   private final Object callStackTrace; // 捕获异常
+  public final Call call;
+  public final EventListener eventListener;
 
   // State guarded by connectionPool.
   private final RouteSelector routeSelector; // 路由选择
@@ -87,10 +92,16 @@ public final class StreamAllocation {
   private boolean canceled; // 取消连接
   private HttpCodec codec;  // 编码 Http1Codec、Http2Codec 两种选择
 
-  public StreamAllocation(ConnectionPool connectionPool, Address address, Object callStackTrace) {
+  /** Non-null while racing routes to build a new connection. */
+  private RacingConnector racingConnector;
+
+  public StreamAllocation(ConnectionPool connectionPool, Address address, Call call,
+      EventListener eventListener, Object callStackTrace) {
     this.connectionPool = connectionPool;
     this.address = address;
-    this.routeSelector = new RouteSelector(address, routeDatabase());
+    this.call = call;
+    this.eventListener = eventListener;
+    this.routeSelector = new RouteSelector(address, routeDatabase(), call, eventListener);
     this.callStackTrace = callStackTrace;
   }
 
@@ -98,12 +109,16 @@ public final class StreamAllocation {
     int connectTimeout = client.connectTimeoutMillis();
     int readTimeout = client.readTimeoutMillis();
     int writeTimeout = client.writeTimeoutMillis();
+    int pingIntervalMillis = client.pingIntervalMillis();
     boolean connectionRetryEnabled = client.retryOnConnectionFailure();
+    boolean fastFallback = client.fastFallback();
 
     try {
       // 获取可用的网络连接
       RealConnection resultConnection = findHealthyConnection(connectTimeout, readTimeout,
-          writeTimeout, connectionRetryEnabled, doExtensiveHealthChecks);
+          writeTimeout, pingIntervalMillis, connectionRetryEnabled, fastFallback,
+          doExtensiveHealthChecks);
+      eventListener.connectionAcquired(call, resultConnection);
       // 获取HTTP编码
       HttpCodec resultCodec = resultConnection.newCodec(client, this);
 
@@ -121,12 +136,12 @@ public final class StreamAllocation {
    * until a healthy connection is found.
    */
   private RealConnection findHealthyConnection(int connectTimeout, int readTimeout,
-      int writeTimeout, boolean connectionRetryEnabled, boolean doExtensiveHealthChecks)
-      throws IOException {
+      int writeTimeout, int pingIntervalMillis, boolean connectionRetryEnabled,
+      boolean fastFallback, boolean doExtensiveHealthChecks) throws IOException {
     while (true) {
       // 获取候选连接
       RealConnection candidate = findConnection(connectTimeout, readTimeout, writeTimeout,
-          connectionRetryEnabled);
+          pingIntervalMillis, connectionRetryEnabled, fastFallback);
 
       // If this is a brand new connection, we can skip the extensive health checks.
       synchronized (connectionPool) {// 增加锁保护
@@ -148,12 +163,14 @@ public final class StreamAllocation {
 
   /**
    * Returns a connection to host a new stream. This prefers the existing connection if it exists,
-   * then the pool, finally building a new connection.
+   * then the pool, finally building a new connection. With {@code fastFallback} a new connection is
+   * built by racing all of the routes through a proxy.
    *
    * 获取可用的候选连接
    */
   private RealConnection findConnection(int connectTimeout, int readTimeout, int writeTimeout,
-      boolean connectionRetryEnabled) throws IOException {
+      int pingIntervalMillis, boolean connectionRetryEnabled, boolean fastFallback)
+      throws IOException {
     Route selectedRoute;
     synchronized (connectionPool) {
       if (released) throw new IllegalStateException("released");
@@ -179,24 +196,41 @@ public final class StreamAllocation {
 
     // 获取一个路由
     // If we need a route, make one. This is a blocking operation.
+    List<Route> racingRoutes = null;
     if (selectedRoute == null) {
-      selectedRoute = routeSelector.next();
+      if (fastFallback) {
+        List<Route> routes = routeSelector.nextRoutes();
+        if (routes.size() == 1) {
+          selectedRoute = routes.get(0);
+        } else {
+          racingRoutes = routes;
+        }
+      } else {
+        selectedRoute = routeSelector.next();
+      }
     }
 
-    // Create a connection and assign it to this allocation immediately. This makes it possible for
-    // an asynchronous cancel() to interrupt the handshake we're about to do.
     RealConnection result;
-    synchronized (connectionPool) {
-      route = selectedRoute;
-      refusedStreamCount = 0;
-      result = new RealConnection(connectionPool, selectedRoute);// 创建一个连接
-      acquire(result);// 把当前stream增加到connect，并把局部变量result的引用交给全局变量connect
-      if (canceled) throw new IOException("Canceled");
-    }
+    if (racingRoutes != null) {
+      // Race TCP + TLS handshakes on each route. This is a blocking operation.
+      result = raceConnect(racingRoutes, connectTimeout, readTimeout, writeTimeout,
+          pingIntervalMillis, connectionRetryEnabled);
+    } else {
+      // Create a connection and assign it to this allocation immediately. This makes it possible
+      // for an asynchronous cancel() to interrupt the handshake we're about to do.
+      synchronized (connectionPool) {
+        route = selectedRoute;
+        refusedStreamCount = 0;
+        result = new RealConnection(connectionPool, selectedRoute);// 创建一个连接
+        acquire(result);// 把当前stream增加到connect，并把局部变量result的引用交给全局变量connect
+        if (canceled) throw new IOException("Canceled");
+      }
 
-    // Do TCP + TLS handshakes. This is a blocking operation.
-    // 创建隧道，选择协议，完成握手
-    result.connect(connectTimeout, readTimeout, writeTimeout, connectionRetryEnabled);
+      // Do TCP + TLS handshakes. This is a blocking operation.
+      // 创建隧道，选择协议，完成握手
+      result.connect(connectTimeout, readTimeout, writeTimeout, pingIntervalMillis,
+          connectionRetryEnabled, call, eventListener);
+    }
     routeDatabase().connected(result.route());
 
     Socket socket = null;
@@ -217,8 +251,46 @@ public final class StreamAllocation {
     return result;
   }
 
+  /**
+   * Connects to the fastest of {@code routes} and assigns the winner to this allocation. Failed
+   * routes are reported to the route selector by the racing connector, and routes that neither won
+   * nor failed are returned to it.
+   */
+  private RealConnection raceConnect(List<Route> routes, int connectTimeout, int readTimeout,
+      int writeTimeout, int pingIntervalMillis, boolean connectionRetryEnabled)
+      throws IOException {
+    RacingConnector connector = new RacingConnector(connectionPool, routeSelector, routes,
+        connectTimeout, readTimeout, writeTimeout, pingIntervalMillis, connectionRetryEnabled, call,
+        eventListener);
+    synchronized (connectionPool) {
+      if (canceled) throw new IOException("Canceled");
+      racingConnector = connector; // Make it possible for cancel() to interrupt the race.
+    }
+
+    RealConnection result;
+    try {
+      result = connector.connect();
+    } finally {
+      synchronized (connectionPool) {
+        racingConnector = null;
+      }
+    }
+
+    synchronized (connectionPool) {
+      route = result.route();
+      refusedStreamCount = 0;
+      acquire(result);
+      if (canceled) throw new IOException("Canceled");
+    }
+    return result;
+  }
+
   // 主动关闭stream
-  public void streamFinished(boolean noNewStreams, HttpCodec codec) {
+  /**
+   * Releases the stream of {@code codec}. {@code e} is the exception that ended its response body,
+   * or null if the body was read completely or closed early.
+   */
+  public void streamFinished(boolean noNewStreams, HttpCodec codec, IOException e) {
     Socket socket;
     synchronized (connectionPool) {
       if (codec == null || codec != this.codec) {
@@ -230,6 +302,7 @@ public final class StreamAllocation {
       socket = deallocate(noNewStreams, false, true);
     }
     closeQuietly(socket);
+    eventListener.responseBodyEnd(call, e);
   }
 
 
@@ -307,15 +380,19 @@ public final class StreamAllocation {
   public void cancel() {
     HttpCodec codecToCancel;
     RealConnection connectionToCancel;
+    RacingConnector connectorToCancel;
     synchronized (connectionPool) {
       canceled = true;
       codecToCancel = codec;
       connectionToCancel = connection;
+      connectorToCancel = racingConnector;
     }
     if (codecToCancel != null) {
       codecToCancel.cancel();
     } else if (connectionToCancel != null) {
       connectionToCancel.cancel();
+    } else if (connectorToCancel != null) {
+      connectorToCancel.cancel();
     }
   }
 
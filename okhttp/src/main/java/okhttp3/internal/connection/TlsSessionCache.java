@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.connection;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.net.ssl.SSLSession;
+import okhttp3.Address;
+import okio.ByteString;
+
+/**
+ * Remembers the TLS session most recently negotiated with each address. The TLS provider resumes
+ * sessions by the peer host and port that {@link RealConnection} passes when it creates each
+ * {@link javax.net.ssl.SSLSocket}; this cache identifies when that happened and drops sessions
+ * that shouldn't be resumed.
+ *
+ * <p>A TLS 1.2 session keeps its ID when it is resumed. A TLS 1.3 session doesn't: each resumption
+ * with a pre-shared key gets a new ID, but keeps the creation time of the session it resumes. A
+ * session is therefore taken as resumed if it has the previous session's ID, or if it was created
+ * before its handshake started.
+ *
+ * <p>Each connection pool has its own cache, since connections to the same address made through
+ * different pools may use different TLS configurations.
+ */
+public final class TlsSessionCache {
+  static final int MAX_SIZE = 256;
+
+  /** Session IDs by address, in least-recently used order. Guarded by this. */
+  private final Map<Address, ByteString> sessionIds = new LinkedHashMap<Address, ByteString>(
+      0, 0.75f, true) {
+    @Override protected boolean removeEldestEntry(Map.Entry<Address, ByteString> eldest) {
+      return size() > MAX_SIZE;
+    }
+  };
+
+  /**
+   * Records that a handshake with {@code address}, started at {@code handshakeStartMillis} in wall
+   * clock time, negotiated {@code session}. Returns true if that session was resumed from a
+   * previous handshake.
+   */
+  public boolean sessionEstablished(Address address, SSLSession session,
+      long handshakeStartMillis) {
+    boolean createdEarlier = session.getCreationTime() < handshakeStartMillis;
+    byte[] id = session.getId();
+    ByteString sessionId = id != null && id.length > 0 ? ByteString.of(id) : null;
+
+    synchronized (this) {
+      ByteString previous = sessionIds.get(address);
+      if (sessionId == null) {
+        sessionIds.remove(address);
+        return createdEarlier;
+      }
+      sessionIds.put(address, sessionId);
+      return createdEarlier || sessionId.equals(previous);
+    }
+  }
+
+  /**
+   * Forgets the session negotiated with {@code address} and prevents {@code session} from being
+   * resumed. Call this when a handshake is rejected after it completes, such as by a hostname
+   * verifier or certificate pinner.
+   */
+  public void sessionRejected(Address address, SSLSession session) {
+    synchronized (this) {
+      sessionIds.remove(address);
+    }
+    if (session != null) session.invalidate();
+  }
+}
@@ -18,8 +18,10 @@ package okhttp3.internal.http;
 
 import java.io.IOException;
 import java.util.List;
+import okhttp3.Call;
 import okhttp3.Cookie;
 import okhttp3.CookieJar;
+import okhttp3.EventListener;
 import okhttp3.Headers;
 import okhttp3.Interceptor;
 import okhttp3.MediaType;
@@ -27,9 +29,14 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.internal.Version;
+import okhttp3.internal.connection.StreamAllocation;
+import okio.Buffer;
+import okio.ForwardingSource;
 import okio.GzipSource;
 import okio.Okio;
+import okio.Source;
 
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static okhttp3.internal.Util.hostHeader;
 
 /**
@@ -108,10 +115,22 @@ public final class BridgeInterceptor implements Interceptor {
     Response.Builder responseBuilder = networkResponse.newBuilder()
         .request(userRequest);// 用户请求
 
+    ByteCounter byteCounter = null;
+    StreamAllocation streamAllocation = ((RealInterceptorChain) chain).streamAllocation();
+    if (streamAllocation != null
+        && streamAllocation.eventListener != EventListener.NULL_EVENT_LISTENER
+        && isFromNetwork(networkResponse)
+        && HttpHeaders.hasBody(networkResponse)) {
+      byteCounter = new ByteCounter(streamAllocation.call, streamAllocation.eventListener);
+    }
+
     if (transparentGzip
         && "gzip".equalsIgnoreCase(networkResponse.header("Content-Encoding"))
         && HttpHeaders.hasBody(networkResponse)) {
-      GzipSource responseBody = new GzipSource(networkResponse.body().source());// 解压body
+      Source source = networkResponse.body().source();
+      if (byteCounter != null) source = byteCounter.countEncoded(source);
+      Source responseBody = new GzipSource(source);// 解压body
+      if (byteCounter != null) responseBody = byteCounter.countDecoded(responseBody);
       Headers strippedHeaders = networkResponse.headers().newBuilder()
           .removeAll("Content-Encoding")
           .removeAll("Content-Length")
@@ -119,11 +138,23 @@ public final class BridgeInterceptor implements Interceptor {
       responseBuilder.headers(strippedHeaders);
       // 从缓冲区中的body source和header整理为一个响应body对象
       responseBuilder.body(new RealResponseBody(strippedHeaders, Okio.buffer(responseBody)));
+    } else if (byteCounter != null) {
+      Source responseBody = byteCounter.countDecoded(
+          byteCounter.countEncoded(networkResponse.body().source()));
+      responseBuilder.body(new RealResponseBody(networkResponse.headers(),
+          Okio.buffer(responseBody)));
     }
 
     return responseBuilder.build();
   }
 
+  /** Returns true if the body of {@code response} is read from the network, not the cache. */
+  private static boolean isFromNetwork(Response response) {
+    Response networkResponse = response.networkResponse();
+    return networkResponse != null
+        && (response.cacheResponse() == null || networkResponse.code() != HTTP_NOT_MODIFIED);
+  }
+
   /**
    * 整理cookie的格式
    */
@@ -139,4 +170,59 @@ public final class BridgeInterceptor implements Interceptor {
     }
     return cookieHeader.toString();
   }
+
+  /**
+   * Counts the bytes of a response body as they are read from the network and after they are
+   * decoded, and reports both once the decoded body is exhausted or closed.
+   */
+  static final class ByteCounter {
+    private final Call call;
+    private final EventListener eventListener;
+    private long byteCount;
+    private long decodedByteCount;
+    private boolean reported;
+
+    ByteCounter(Call call, EventListener eventListener) {
+      this.call = call;
+      this.eventListener = eventListener;
+    }
+
+    Source countEncoded(Source source) {
+      return new ForwardingSource(source) {
+        @Override public long read(Buffer sink, long byteCount) throws IOException {
+          long read = super.read(sink, byteCount);
+          if (read != -1L) ByteCounter.this.byteCount += read;
+          return read;
+        }
+      };
+    }
+
+    Source countDecoded(Source source) {
+      return new ForwardingSource(source) {
+        @Override public long read(Buffer sink, long byteCount) throws IOException {
+          long read = super.read(sink, byteCount);
+          if (read != -1L) {
+            decodedByteCount += read;
+          } else {
+            report();
+          }
+          return read;
+        }
+
+        @Override public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            report();
+          }
+        }
+      };
+    }
+
+    private void report() {
+      if (reported) return;
+      reported = true;
+      eventListener.responseBodyBytes(call, byteCount, decodedByteCount);
+    }
+  }
 }
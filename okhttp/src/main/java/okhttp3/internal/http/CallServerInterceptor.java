@@ -17,12 +17,17 @@ package okhttp3.internal.http;
 
 import java.io.IOException;
 import java.net.ProtocolException;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Headers;
 import okhttp3.Interceptor;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.internal.Util;
 import okhttp3.internal.connection.StreamAllocation;
+import okio.Buffer;
 import okio.BufferedSink;
+import okio.ForwardingSink;
 import okio.Okio;
 import okio.Sink;
 
@@ -38,9 +43,21 @@ public final class CallServerInterceptor implements Interceptor {
     HttpCodec httpCodec = ((RealInterceptorChain) chain).httpStream();
     StreamAllocation streamAllocation = ((RealInterceptorChain) chain).streamAllocation();
     Request request = chain.request();
+    Call call = streamAllocation.call;
+    EventListener eventListener = streamAllocation.eventListener;
 
     long sentRequestMillis = System.currentTimeMillis();// 发送前标记时间点
-    httpCodec.writeRequestHeaders(request);// 请求头设置HTTP编码
+    eventListener.requestHeadersStart(call);
+    try {
+      httpCodec.writeRequestHeaders(request);// 请求头设置HTTP编码
+    } catch (IOException e) {
+      eventListener.requestHeadersEnd(call, e);
+      throw e;
+    }
+    eventListener.requestHeadersEnd(call, null);
+    eventListener.requestHeaderBytes(call, headerByteCount(
+        RequestLine.get(request, streamAllocation.connection().route().proxy().type()),
+        request.headers()));
 
     Response.Builder responseBuilder = null; // 初始化响应
     if (HttpMethod.permitsRequestBody(request.method()) && request.body() != null) { // 校验请求体及其方法是否可以携带请求体
@@ -51,23 +68,33 @@ public final class CallServerInterceptor implements Interceptor {
       // 接收到Server返回的100-continue应答以后, 表示一切正常，应该继续发送请求
       if ("100-continue".equalsIgnoreCase(request.header("Expect"))) {
         httpCodec.flushRequest();
-        responseBuilder = httpCodec.readResponseHeaders(true);
+        responseBuilder = readContinueHeaders(httpCodec, call, eventListener);
       }
 
       // Write the request body, unless an "Expect: 100-continue" expectation failed.
       // 配置请求体
       if (responseBuilder == null) {
-        Sink requestBodyOut = httpCodec.createRequestBody(request, request.body().contentLength());
-        BufferedSink bufferedRequestBody = Okio.buffer(requestBodyOut);// 新建缓冲区
-        request.body().writeTo(bufferedRequestBody);// 缓存区的请求体写入请求，即发送请求
-        bufferedRequestBody.close();// 关闭请求体缓冲区
+        eventListener.requestBodyStart(call);
+        CountingSink requestBodyOut;
+        try {
+          requestBodyOut = new CountingSink(
+              httpCodec.createRequestBody(request, request.body().contentLength()));
+          BufferedSink bufferedRequestBody = Okio.buffer(requestBodyOut);// 新建缓冲区
+          request.body().writeTo(bufferedRequestBody);// 缓存区的请求体写入请求，即发送请求
+          bufferedRequestBody.close();// 关闭请求体缓冲区
+        } catch (IOException e) {
+          eventListener.requestBodyEnd(call, e);
+          throw e;
+        }
+        eventListener.requestBodyEnd(call, null);
+        eventListener.requestBodyBytes(call, requestBodyOut.byteCount);
       }
     }
 
     httpCodec.finishRequest();// 去完成请求，之后将关闭连接
 
     if (responseBuilder == null) {
-      responseBuilder = httpCodec.readResponseHeaders(false);// HTTP解码响应
+      responseBuilder = readResponseHeaders(httpCodec, call, eventListener);// HTTP解码响应
     }
 
     // 构建响应
@@ -79,6 +106,10 @@ public final class CallServerInterceptor implements Interceptor {
         .build();
 
     int code = response.code(); // 响应码
+    eventListener.responseHeaderBytes(call, headerByteCount(
+        new StatusLine(response.protocol(), code, response.message()).toString(),
+        response.headers()));
+    eventListener.responseBodyStart(call);
     if (forWebSocket && code == 101) { // 101 server通知client更换交互协议
       // Connection is upgrading, but we need to ensure interceptors see a non-null response body.
       response = response.newBuilder()
@@ -104,4 +135,63 @@ public final class CallServerInterceptor implements Interceptor {
     // 返回响应给ConnectInterceptor
     return response;
   }
+
+  private static Response.Builder readResponseHeaders(HttpCodec httpCodec, Call call,
+      EventListener eventListener) throws IOException {
+    eventListener.responseHeadersStart(call);
+    Response.Builder result;
+    try {
+      result = httpCodec.readResponseHeaders(false);
+    } catch (IOException e) {
+      eventListener.responseHeadersEnd(call, e);
+      throw e;
+    }
+    eventListener.responseHeadersEnd(call, null);
+    return result;
+  }
+
+  /**
+   * Reads the reply to an "Expect: 100-continue" request, returning null if it is the interim
+   * "100 Continue" response. Response header events are only reported for a final response, so
+   * listeners see a single pair of them per call. Because it isn't known to be final until it has
+   * been read, its start and end events are reported back to back.
+   */
+  private static Response.Builder readContinueHeaders(HttpCodec httpCodec, Call call,
+      EventListener eventListener) throws IOException {
+    Response.Builder result;
+    try {
+      result = httpCodec.readResponseHeaders(true);
+    } catch (IOException e) {
+      eventListener.responseHeadersStart(call);
+      eventListener.responseHeadersEnd(call, e);
+      throw e;
+    }
+    if (result != null) {
+      eventListener.responseHeadersStart(call);
+      eventListener.responseHeadersEnd(call, null);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the size of {@code startLine} and {@code headers} encoded as HTTP/1.1, including the
+   * blank line that ends the headers.
+   */
+  private static long headerByteCount(String startLine, Headers headers) {
+    return Util.utf8Size(startLine) + 2 + headers.byteCount() + 2;
+  }
+
+  /** Counts the bytes written to the request body. */
+  static final class CountingSink extends ForwardingSink {
+    long byteCount;
+
+    CountingSink(Sink delegate) {
+      super(delegate);
+    }
+
+    @Override public void write(Buffer source, long byteCount) throws IOException {
+      super.write(source, byteCount);
+      this.byteCount += byteCount;
+    }
+  }
 }
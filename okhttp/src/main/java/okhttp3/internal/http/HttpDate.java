@@ -32,6 +32,22 @@ public final class HttpDate {
   /** The last four-digit year: "Fri, 31 Dec 9999 23:59:59 GMT". */
   public static final long MAX_DATE = 253402300799999L;
 
+  /** Returned by {@link #parseMillis} for values that couldn't be parsed. */
+  public static final long NO_DATE = Long.MIN_VALUE;
+
+  /** The length of a standard date like "Sun, 06 Nov 1994 08:49:37 GMT". */
+  private static final int STANDARD_DATE_LENGTH = 29;
+
+  private static final String[] DAY_NAMES = {"Thu", "Fri", "Sat", "Sun", "Mon", "Tue", "Wed"};
+  private static final String[] MONTH_NAMES = {
+      "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+  /**
+   * The most recently formatted date, truncated to the second. Responses and cookies that are
+   * formatted together usually share a second.
+   */
+  private static volatile FormattedDate lastFormatted = new FormattedDate(-1L, "");
+
   /**
    * Most websites serve cookies in the blessed format. Eagerly create the parser to ensure such
    * cookies are on the fast path.
@@ -75,6 +91,102 @@ public final class HttpDate {
 
   /** Returns the date for {@code value}. Returns null if the value couldn't be parsed. */
   public static Date parse(String value) {
+    long millis = parseStandard(value);
+    if (millis != NO_DATE) return new Date(millis);
+    return parseLenient(value);
+  }
+
+  /**
+   * Returns the date for {@code value} in milliseconds since the epoch. Returns {@link #NO_DATE}
+   * if the value couldn't be parsed. Dates in the standard format are parsed without allocating.
+   */
+  public static long parseMillis(String value) {
+    long millis = parseStandard(value);
+    if (millis != NO_DATE) return millis;
+    Date result = parseLenient(value);
+    return result != null ? result.getTime() : NO_DATE;
+  }
+
+  /**
+   * Parses {@code value} if it is exactly a standard date like "Sun, 06 Nov 1994 08:49:37 GMT" in
+   * a year from 1970 to 9999. Returns {@link #NO_DATE} for anything else, including dates whose day
+   * name doesn't match, so that the lenient parser decides those.
+   */
+  private static long parseStandard(String value) {
+    if (value.length() != STANDARD_DATE_LENGTH
+        || value.charAt(3) != ',' || value.charAt(4) != ' ' || value.charAt(7) != ' '
+        || value.charAt(11) != ' ' || value.charAt(16) != ' ' || value.charAt(19) != ':'
+        || value.charAt(22) != ':' || value.charAt(25) != ' '
+        || !value.regionMatches(26, "GMT", 0, 3)) {
+      return NO_DATE;
+    }
+
+    int day = parseDigits(value, 5, 7);
+    int month = indexOf(MONTH_NAMES, value, 8);
+    int year = parseDigits(value, 12, 16);
+    int hour = parseDigits(value, 17, 19);
+    int minute = parseDigits(value, 20, 22);
+    int second = parseDigits(value, 23, 25);
+    if (month == -1 || year < 1970 || day < 1 || day > daysInMonth(year, month)
+        || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+      return NO_DATE;
+    }
+
+    long epochDay = epochDay(year, month, day);
+    if (indexOf(DAY_NAMES, value, 0) != epochDay % 7) return NO_DATE;
+
+    return ((epochDay * 24L + hour) * 60L + minute) * 60_000L + second * 1000L;
+  }
+
+  /** Returns the decimal value of {@code value[start..end)}, or -1 if it isn't all digits. */
+  private static int parseDigits(String value, int start, int end) {
+    int result = 0;
+    for (int i = start; i < end; i++) {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9') return -1;
+      result = result * 10 + (c - '0');
+    }
+    return result;
+  }
+
+  /** Returns the index of the three-letter name at {@code offset}, or -1 if there is none. */
+  private static int indexOf(String[] names, String value, int offset) {
+    for (int i = 0; i < names.length; i++) {
+      if (value.regionMatches(offset, names[i], 0, 3)) return i;
+    }
+    return -1;
+  }
+
+  private static int daysInMonth(int year, int month) {
+    switch (month) {
+      case 1:
+        boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        return leap ? 29 : 28;
+      case 3:
+      case 5:
+      case 8:
+      case 10:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  /**
+   * Returns the number of days from 1970-01-01 to the given date. {@code month} is 0-based. This
+   * is Howard Hinnant's {@code days_from_civil}, restricted to years after 1970.
+   */
+  private static long epochDay(int year, int month, int day) {
+    int y = month < 2 ? year - 1 : year;
+    int era = y / 400;
+    int yearOfEra = y - era * 400;
+    int monthFromMarch = month < 2 ? month + 10 : month - 2;
+    int dayOfYear = (153 * monthFromMarch + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097L + dayOfEra - 719468L;
+  }
+
+  private static Date parseLenient(String value) {
     if (value.length() == 0) {
       return null;
     }
@@ -113,7 +225,71 @@ public final class HttpDate {
 
   /** Returns the string for {@code value}. */
   public static String format(Date value) {
-    return STANDARD_DATE_FORMAT.get().format(value);
+    return formatMillis(value.getTime());
+  }
+
+  /** Returns the string for {@code millis}, milliseconds since the epoch. */
+  public static String formatMillis(long millis) {
+    if (millis < 0L || millis > MAX_DATE) {
+      return STANDARD_DATE_FORMAT.get().format(new Date(millis));
+    }
+
+    long epochSecond = millis / 1000L;
+    FormattedDate last = lastFormatted;
+    if (last.epochSecond == epochSecond) return last.value;
+
+    long epochDay = epochSecond / 86400L;
+    int secondOfDay = (int) (epochSecond % 86400L);
+
+    // Convert the epoch day to a civil date. This is Howard Hinnant's civil_from_days.
+    long z = epochDay + 719468L;
+    long era = z / 146097L;
+    int dayOfEra = (int) (z - era * 146097L);
+    int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    int monthFromMarch = (5 * dayOfYear + 2) / 153;
+    int day = dayOfYear - (153 * monthFromMarch + 2) / 5 + 1;
+    int month = monthFromMarch < 10 ? monthFromMarch + 2 : monthFromMarch - 10;
+    int year = (int) (yearOfEra + era * 400L) + (month < 2 ? 1 : 0);
+
+    char[] chars = new char[STANDARD_DATE_LENGTH];
+    DAY_NAMES[(int) (epochDay % 7)].getChars(0, 3, chars, 0);
+    chars[3] = ',';
+    chars[4] = ' ';
+    writeDigits(chars, 5, 2, day);
+    chars[7] = ' ';
+    MONTH_NAMES[month].getChars(0, 3, chars, 8);
+    chars[11] = ' ';
+    writeDigits(chars, 12, 4, year);
+    chars[16] = ' ';
+    writeDigits(chars, 17, 2, secondOfDay / 3600);
+    chars[19] = ':';
+    writeDigits(chars, 20, 2, secondOfDay / 60 % 60);
+    chars[22] = ':';
+    writeDigits(chars, 23, 2, secondOfDay % 60);
+    chars[25] = ' ';
+    "GMT".getChars(0, 3, chars, 26);
+
+    String result = new String(chars);
+    lastFormatted = new FormattedDate(epochSecond, result);
+    return result;
+  }
+
+  private static void writeDigits(char[] chars, int offset, int count, int value) {
+    for (int i = offset + count - 1; i >= offset; i--) {
+      chars[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+
+  private static final class FormattedDate {
+    final long epochSecond;
+    final String value;
+
+    FormattedDate(long epochSecond, String value) {
+      this.epochSecond = epochSecond;
+      this.value = value;
+    }
   }
 
   private HttpDate() {
@@ -17,6 +17,7 @@ package okhttp3.internal.http;
 
 import java.io.IOException;
 import java.util.List;
+import okhttp3.Call;
 import okhttp3.Connection;
 import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
@@ -38,16 +39,18 @@ public final class RealInterceptorChain implements Interceptor.Chain {
   private final Connection connection;
   private final int index;
   private final Request request;
+  private final Call call;
   private int calls;
 
   public RealInterceptorChain(List<Interceptor> interceptors, StreamAllocation streamAllocation,
-      HttpCodec httpCodec, Connection connection, int index, Request request) {
+      HttpCodec httpCodec, Connection connection, int index, Request request, Call call) {
     this.interceptors = interceptors;
     this.connection = connection;
     this.streamAllocation = streamAllocation;// stream分配
     this.httpCodec = httpCodec;// 编码解码方式
     this.index = index;// 位置计数
     this.request = request;
+    this.call = call;
   }
 
   @Override public Connection connection() {
@@ -66,6 +69,11 @@ public final class RealInterceptorChain implements Interceptor.Chain {
     return request;
   }
 
+  /** Returns the call that this chain belongs to. */
+  public Call call() {
+    return call;
+  }
+
   @Override public Response proceed(Request request) throws IOException {
     return proceed(request, streamAllocation, httpCodec, connection);
   }
@@ -91,7 +99,7 @@ public final class RealInterceptorChain implements Interceptor.Chain {
     // Call the next interceptor in the chain.
     // 调用下一个拦截器
     RealInterceptorChain next = new RealInterceptorChain(
-        interceptors, streamAllocation, httpCodec, connection, index + 1, request);
+        interceptors, streamAllocation, httpCodec, connection, index + 1, request, call);
     Interceptor interceptor = interceptors.get(index);// 获取拦截器
     Response response = interceptor.intercept(next);// intercept方法执行
 
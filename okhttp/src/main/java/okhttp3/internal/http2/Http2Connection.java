@@ -27,12 +27,19 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import okhttp3.Protocol;
+import okhttp3.RoundTripStats;
+import okhttp3.internal.Internal;
 import okhttp3.internal.NamedRunnable;
 import okhttp3.internal.Util;
+import okhttp3.internal.connection.SelectableSocket;
 import okhttp3.internal.platform.Platform;
 import okio.Buffer;
 import okio.BufferedSink;
@@ -70,6 +77,26 @@ public final class Http2Connection implements Closeable {
       Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
       Util.threadFactory("OkHttp Http2Connection", true));
 
+  /**
+   * Shared by all connections to time their keepalive pings. Its tasks don't do I/O; they hand the
+   * ping write off to {@link #executor} so a slow socket can't delay other connections' pings.
+   */
+  private static final ScheduledExecutorService pingScheduler = new ScheduledThreadPoolExecutor(1,
+      Util.threadFactory("OkHttp Http2Connection Pinger", true));
+
+  /**
+   * A connection that misses this many consecutive keepalive pings is degraded: it keeps its
+   * existing streams but won't get new ones, and the pool evicts it once it's idle. A single late
+   * pong is tolerated.
+   */
+  static final int DEGRADED_MISSED_PINGS = 2;
+
+  /** A connection that misses this many consecutive keepalive pings is presumed dead and closed. */
+  static final int MAX_MISSED_PINGS = 3;
+
+  /** The number of recent ping round trip times to compute percentiles over. */
+  static final int ROUND_TRIP_SAMPLES = 64;
+
   /** True if this peer initiated the connection. */
   final boolean client;
 
@@ -93,6 +120,19 @@ public final class Http2Connection implements Closeable {
   final PushObserver pushObserver;
   private int nextPingId;
 
+  /** Interval between keepalive pings, or 0 to not send them. */
+  final int pingIntervalMillis;
+  private ScheduledFuture<?> pingFuture;
+
+  /** The most recent keepalive ping. Guarded by this. */
+  private Ping keepAlivePing;
+  /** Guarded by this. */
+  private int missedPings;
+
+  /** A ring of the most recent ping round trip times, in nanoseconds. Guarded by this. */
+  private final long[] roundTripTimes = new long[ROUND_TRIP_SAMPLES];
+  private int roundTripCount;
+
   /**
    * The total number of bytes consumed by the application, but not yet acknowledged by sending a
    * {@code WINDOW_UPDATE} frame on this connection.
@@ -106,6 +146,9 @@ public final class Http2Connection implements Closeable {
   // Visible for testing
   long bytesLeftInWriteWindow;
 
+  /** Orders streams that are blocked waiting for {@link #bytesLeftInWriteWindow}. */
+  final WriteScheduler writeScheduler = new WriteScheduler();
+
   /** Settings we communicate to the peer. */
   Settings okHttpSettings = new Settings();
 
@@ -122,10 +165,19 @@ public final class Http2Connection implements Closeable {
   // Visible for testing
   final ReaderRunnable readerRunnable;
 
+  /** Creates the reader thread, or null to use a new platform thread. */
+  private final ThreadFactory readerThreadFactory;
+
+  /** The socket to park the reader on while this connection is idle, or null to never park. */
+  private final SelectableSocket selectableSocket;
+
   Http2Connection(Builder builder) {
     pushObserver = builder.pushObserver;
     client = builder.client;
     listener = builder.listener;
+    pingIntervalMillis = builder.pingIntervalMillis;
+    readerThreadFactory = builder.readerThreadFactory;
+    selectableSocket = builder.selectableSocket;
     // http://tools.ietf.org/html/draft-ietf-httpbis-http2-17#section-5.1.1
     nextStreamId = builder.client ? 1 : 2;
     if (builder.client) {
@@ -193,7 +245,7 @@ public final class Http2Connection implements Closeable {
   public Http2Stream pushStream(int associatedStreamId, List<Header> requestHeaders, boolean out)
       throws IOException {
     if (client) throw new IllegalStateException("Client cannot push requests.");
-    return newStream(associatedStreamId, requestHeaders, out);
+    return newStream(associatedStreamId, requestHeaders, out, WriteScheduler.DEFAULT_WEIGHT);
   }
 
   /**
@@ -203,7 +255,19 @@ public final class Http2Connection implements Closeable {
    * 生成一个新的本地stream
    */
   public Http2Stream newStream(List<Header> requestHeaders, boolean out) throws IOException {
-    return newStream(0, requestHeaders, out);
+    return newStream(0, requestHeaders, out, WriteScheduler.DEFAULT_WEIGHT);
+  }
+
+  /**
+   * Returns a new locally-initiated stream whose writes share this connection's write window with
+   * other streams in proportion to {@code weight}, from 1 to 256.
+   */
+  public Http2Stream newStream(List<Header> requestHeaders, boolean out, int weight)
+      throws IOException {
+    if (weight < WriteScheduler.MIN_WEIGHT || weight > WriteScheduler.MAX_WEIGHT) {
+      throw new IllegalArgumentException("weight < 1 || weight > 256: " + weight);
+    }
+    return newStream(0, requestHeaders, out, weight);
   }
 
   /**
@@ -211,11 +275,12 @@ public final class Http2Connection implements Closeable {
    * @param associatedStreamId stream id
    * @param requestHeaders 请求header
    * @param out 请求body
+   * @param weight 写窗口的分配权重
    * @return
    * @throws IOException
    */
-  private Http2Stream newStream(
-      int associatedStreamId, List<Header> requestHeaders, boolean out) throws IOException {
+  private Http2Stream newStream(int associatedStreamId, List<Header> requestHeaders, boolean out,
+      int weight) throws IOException {
     boolean outFinished = !out;
     boolean inFinished = false;
     boolean flushHeaders;
@@ -230,6 +295,7 @@ public final class Http2Connection implements Closeable {
         streamId = nextStreamId;
         nextStreamId += 2;
         stream = new Http2Stream(streamId, this, outFinished, inFinished, requestHeaders);
+        stream.weight = weight;
         flushHeaders = !out || bytesLeftInWriteWindow == 0L || stream.bytesLeftInWriteWindow == 0L;
         if (stream.isOpen()) { // stream是否可以输入输出
           streams.put(streamId, stream);
@@ -274,6 +340,9 @@ public final class Http2Connection implements Closeable {
    *
    * <p>Zero {@code byteCount} writes are not subject to flow control and will not block. The only
    * use case for zero {@code byteCount} is closing a flushed output stream.
+   *
+   * <p>When several streams are blocked on the connection's write window, they are granted it one
+   * frame at a time in the order chosen by {@link #writeScheduler}.
    */
   public void writeData(int streamId, boolean outFinished, Buffer buffer, long byteCount)
       throws IOException {
@@ -285,22 +354,37 @@ public final class Http2Connection implements Closeable {
     while (byteCount > 0) {
       int toWrite;
       synchronized (Http2Connection.this) {
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) writeScheduler.enqueue(stream);
+        boolean ready = false;
         try {
-          while (bytesLeftInWriteWindow <= 0) {
+          while (bytesLeftInWriteWindow <= 0
+              || (stream != null && !writeScheduler.isNext(stream))) {
             // Before blocking, confirm that the stream we're writing is still open. It's possible
             // that the stream has since been closed (such as if this write timed out.)
             if (!streams.containsKey(streamId)) {
               throw new IOException("stream closed");
             }
-            Http2Connection.this.wait(); // Wait until we receive a WINDOW_UPDATE.
+            Http2Connection.this.wait(); // Wait until we receive a WINDOW_UPDATE or our turn.
           }
+          ready = true;
         } catch (InterruptedException e) {
           throw new InterruptedIOException();
+        } finally {
+          if (stream != null && !ready) {
+            // We're leaving without a grant. Let the next stream in line have a look.
+            writeScheduler.dequeue(stream);
+            Http2Connection.this.notifyAll();
+          }
         }
 
         toWrite = (int) Math.min(byteCount, bytesLeftInWriteWindow);
         toWrite = Math.min(toWrite, writer.maxDataLength());
         bytesLeftInWriteWindow -= toWrite;
+        if (stream != null) {
+          writeScheduler.granted(stream, toWrite);
+          if (writeScheduler.hasWaiters()) Http2Connection.this.notifyAll();
+        }
       }
 
       byteCount -= toWrite;
@@ -387,6 +471,58 @@ public final class Http2Connection implements Closeable {
     return pings != null ? pings.remove(id) : null;
   }
 
+  synchronized void recordRoundTrip(Ping ping, long roundTripNanos) {
+    roundTripTimes[roundTripCount % roundTripTimes.length] = roundTripNanos;
+    roundTripCount++;
+    if (ping == keepAlivePing) missedPings = 0; // The peer is responsive again, if late.
+  }
+
+  /** Returns the round trip times of pings on this connection, including keepalive pings. */
+  public synchronized RoundTripStats roundTripStats() {
+    return Internal.instance.newRoundTripStats(roundTripTimes, roundTripCount, missedPings);
+  }
+
+  /**
+   * Returns true if the peer hasn't answered several consecutive keepalive pings within the ping
+   * interval. Degraded connections should not be used for new streams.
+   */
+  public synchronized boolean isDegraded() {
+    return missedPings >= DEGRADED_MISSED_PINGS;
+  }
+
+  /**
+   * Sends a keepalive ping, first checking that the previous one was answered. This runs on the
+   * ping scheduler and must not block.
+   */
+  void keepAlive() {
+    final boolean failConnection;
+    synchronized (this) {
+      if (shutdown) return;
+      if (keepAlivePing != null && !keepAlivePing.isDone()) {
+        missedPings++;
+      } else {
+        missedPings = 0;
+      }
+      failConnection = missedPings >= MAX_MISSED_PINGS;
+    }
+
+    executor.execute(new NamedRunnable("OkHttp %s keepalive", hostname) {
+      @Override public void execute() {
+        try {
+          if (failConnection) {
+            close(ErrorCode.PROTOCOL_ERROR, ErrorCode.PROTOCOL_ERROR);
+            return;
+          }
+          Ping ping = ping();
+          synchronized (Http2Connection.this) {
+            keepAlivePing = ping;
+          }
+        } catch (IOException ignored) {
+        }
+      }
+    });
+  }
+
   // 输出连接
   public void flush() throws IOException {
     writer.flush();
@@ -423,6 +559,13 @@ public final class Http2Connection implements Closeable {
 
   void close(ErrorCode connectionCode, ErrorCode streamCode) throws IOException {
     assert (!Thread.holdsLock(this));
+    ScheduledFuture<?> pingFuture;
+    synchronized (this) {
+      pingFuture = this.pingFuture;
+      this.pingFuture = null;
+    }
+    if (pingFuture != null) pingFuture.cancel(false);
+
     IOException thrown = null;
     try {
       shutdown(connectionCode);
@@ -498,7 +641,25 @@ public final class Http2Connection implements Closeable {
         writer.windowUpdate(0, windowSize - Settings.DEFAULT_INITIAL_WINDOW_SIZE);
       }
     }
-    new Thread(readerRunnable).start(); // Not a daemon thread.
+    startReader();
+
+    if (pingIntervalMillis != 0) {
+      ScheduledFuture<?> future = pingScheduler.scheduleAtFixedRate(new Runnable() {
+        @Override public void run() {
+          keepAlive();
+        }
+      }, pingIntervalMillis, pingIntervalMillis, TimeUnit.MILLISECONDS);
+      synchronized (this) {
+        pingFuture = future;
+      }
+    }
+  }
+
+  void startReader() {
+    Thread readerThread = readerThreadFactory != null
+        ? readerThreadFactory.newThread(readerRunnable)
+        : new Thread(readerRunnable); // Not a daemon thread.
+    readerThread.start();
   }
 
   /** Merges {@code settings} into this peer's settings and sends them to the remote peer. */
@@ -526,6 +687,9 @@ public final class Http2Connection implements Closeable {
     Listener listener = Listener.REFUSE_INCOMING_STREAMS;
     PushObserver pushObserver = PushObserver.CANCEL;
     boolean client;
+    int pingIntervalMillis;
+    ThreadFactory readerThreadFactory;
+    SelectableSocket selectableSocket;
 
     /**
      * @param client true if this peer initiated the connection; false if this peer accepted the
@@ -559,6 +723,35 @@ public final class Http2Connection implements Closeable {
       return this;
     }
 
+    /**
+     * Sends a keepalive ping every {@code pingIntervalMillis}, or never if it is 0. The round trip
+     * times of these pings are reported by {@link Http2Connection#roundTripStats()}.
+     */
+    public Builder pingIntervalMillis(int pingIntervalMillis) {
+      this.pingIntervalMillis = pingIntervalMillis;
+      return this;
+    }
+
+    /**
+     * Creates the thread that reads frames from the peer with {@code readerThreadFactory}. By
+     * default the reader runs on a new non-daemon thread.
+     */
+    public Builder readerThreadFactory(ThreadFactory readerThreadFactory) {
+      this.readerThreadFactory = readerThreadFactory;
+      return this;
+    }
+
+    /**
+     * Parks the reader on {@code selectableSocket} while the connection has no streams and no
+     * unread input, so that idle connections don't each hold a thread. The reader resumes on a new
+     * thread when the peer sends data. {@code selectableSocket} must be the connection's socket or
+     * the socket that it is layered over.
+     */
+    public Builder selectableSocket(SelectableSocket selectableSocket) {
+      this.selectableSocket = selectableSocket;
+      return this;
+    }
+
     public Http2Connection build() throws IOException {
       return new Http2Connection(this);
     }
@@ -571,6 +764,16 @@ public final class Http2Connection implements Closeable {
   class ReaderRunnable extends NamedRunnable implements Http2Reader.Handler {
     final Http2Reader reader;
 
+    /** True once the preface has been read. Only a parked reader resumes after that. */
+    private boolean prefaceRead;
+
+    /** Starts a new reader thread when a parked reader's socket is readable. */
+    private final Runnable resume = new Runnable() {
+      @Override public void run() {
+        startReader();
+      }
+    };
+
     ReaderRunnable(Http2Reader reader) {
       super("OkHttp %s", hostname);
       this.reader = reader;
@@ -579,9 +782,17 @@ public final class Http2Connection implements Closeable {
     @Override protected void execute() {
       ErrorCode connectionErrorCode = ErrorCode.INTERNAL_ERROR;
       ErrorCode streamErrorCode = ErrorCode.INTERNAL_ERROR;
+      boolean parked = false;
       try {
-        reader.readConnectionPreface(this);
-        while (reader.nextFrame(false, this)) {
+        boolean open = true;
+        if (!prefaceRead) {
+          reader.readConnectionPreface(this);
+          prefaceRead = true;
+        } else {
+          open = reader.nextFrame(false, this); // Resumed after parking. Read before parking again.
+        }
+        while (open && !(parked = parkIfIdle())) {
+          open = reader.nextFrame(false, this);
         }
         connectionErrorCode = ErrorCode.NO_ERROR;
         streamErrorCode = ErrorCode.CANCEL;
@@ -589,14 +800,30 @@ public final class Http2Connection implements Closeable {
         connectionErrorCode = ErrorCode.PROTOCOL_ERROR;
         streamErrorCode = ErrorCode.PROTOCOL_ERROR;
       } finally {
-        try {
-          close(connectionErrorCode, streamErrorCode);
-        } catch (IOException ignored) {
+        if (!parked) {
+          try {
+            close(connectionErrorCode, streamErrorCode);
+          } catch (IOException ignored) {
+          }
+          Util.closeQuietly(reader);
         }
-        Util.closeQuietly(reader);
       }
     }
 
+    /**
+     * Parks this reader if the connection has no streams and nothing to read. Returns true if this
+     * thread should stop reading; the reader resumes on another thread when there's input.
+     */
+    private boolean parkIfIdle() throws IOException {
+      if (selectableSocket == null || reader.hasBufferedBytes()) return false;
+      synchronized (Http2Connection.this) {
+        if (shutdown || !streams.isEmpty()) return false;
+      }
+      // Bytes that an SSLSocket has already decrypted won't make the raw socket readable.
+      if (socket.getInputStream().available() > 0) return false;
+      return selectableSocket.park(resume);
+    }
+
     @Override public void data(boolean inFinished, int streamId, BufferedSource source, int length)
         throws IOException {
       if (pushedStream(streamId)) {
@@ -727,6 +954,7 @@ public final class Http2Connection implements Closeable {
         Ping ping = removePing(payload1);
         if (ping != null) {
           ping.receive();
+          recordRoundTrip(ping, ping.roundTripTimeNow());
         }
       } else {
         // Send a reply to a client ping if this is a server and vice versa.
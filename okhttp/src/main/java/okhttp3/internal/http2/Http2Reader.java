@@ -90,6 +90,11 @@ final class Http2Reader implements Closeable {
     }
   }
 
+  /** Returns true if bytes have been read from the peer but not yet consumed as frames. */
+  boolean hasBufferedBytes() {
+    return source.buffer().size() > 0;
+  }
+
   public boolean nextFrame(boolean requireSettings, Handler handler) throws IOException {
     try {
       source.require(9); // Frame header size
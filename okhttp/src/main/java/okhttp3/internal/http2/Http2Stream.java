@@ -51,6 +51,13 @@ public final class Http2Stream {
   final int id;
   final Http2Connection connection;
 
+  /** This stream's share of the connection's write window. Guarded by connection. */
+  int weight = WriteScheduler.DEFAULT_WEIGHT;
+
+  /** Virtual times used by {@link WriteScheduler} to order writes. Guarded by connection. */
+  long virtualStartTime;
+  long virtualFinishTime;
+
   /** Request headers. Immutable and non null. */
   private final List<Header> requestHeaders;
 
@@ -46,6 +46,17 @@ final class Ping {
     latch.countDown();
   }
 
+  /** Returns the round trip time of a ping that has been received. */
+  long roundTripTimeNow() {
+    if (received == -1) throw new IllegalStateException();
+    return received - sent;
+  }
+
+  /** Returns true if this ping has been answered or canceled. */
+  boolean isDone() {
+    return latch.getCount() == 0;
+  }
+
   /**
    * Returns the round trip time for this ping in nanoseconds, waiting for the response to arrive if
    * necessary. Returns -1 if the response was canceled.
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.http2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which of the streams competing for a connection's write window goes next. Each stream
+ * accrues virtual time in proportion to the bytes it writes divided by its weight, and the waiting
+ * stream with the least virtual time is granted the next DATA frame. This is weighted fair
+ * queueing at frame granularity: a stream with weight 32 gets twice the bandwidth of a stream with
+ * weight 16 while both are busy, and an idle stream that wakes up goes straight to the front.
+ *
+ * <p>Instances are guarded by their {@link Http2Connection}.
+ */
+final class WriteScheduler {
+  static final int MIN_WEIGHT = 1;
+  static final int MAX_WEIGHT = 256;
+  static final int DEFAULT_WEIGHT = 16;
+
+  /** Streams whose writers are blocked in {@link Http2Connection#writeData}. */
+  private final List<Http2Stream> waiting = new ArrayList<>();
+
+  /** The virtual start time of the most recently granted write. */
+  private long virtualTime;
+
+  /** Starts a write on {@code stream}. Streams that were idle don't get credit for idle time. */
+  void enqueue(Http2Stream stream) {
+    stream.virtualStartTime = Math.max(stream.virtualFinishTime, virtualTime);
+    waiting.add(stream);
+  }
+
+  /** Abandons a write on {@code stream} without granting it any bytes. */
+  void dequeue(Http2Stream stream) {
+    waiting.remove(stream);
+  }
+
+  /** Returns true if {@code stream} has the least virtual time of all waiting streams. */
+  boolean isNext(Http2Stream stream) {
+    for (int i = 0, size = waiting.size(); i < size; i++) {
+      Http2Stream other = waiting.get(i);
+      if (other.virtualStartTime < stream.virtualStartTime
+          || (other.virtualStartTime == stream.virtualStartTime && other.id < stream.id)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Completes a write on {@code stream} that was granted {@code byteCount} bytes. */
+  void granted(Http2Stream stream, long byteCount) {
+    waiting.remove(stream);
+    virtualTime = stream.virtualStartTime;
+    stream.virtualFinishTime = stream.virtualStartTime + byteCount * MAX_WEIGHT / stream.weight;
+  }
+
+  boolean hasWaiters() {
+    return !waiting.isEmpty();
+  }
+}
@@ -18,10 +18,12 @@ package okhttp3.internal.platform;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.SSLSocket;
@@ -68,6 +70,10 @@ import okio.Buffer;
  * <h3>Android Cleartext Permit Detection</h3>
  *
  * <p>Supported on Android 6.0+ via {@code NetworkSecurityPolicy}.
+ *
+ * <h3>Virtual Threads</h3>
+ *
+ * <p>Supported on OpenJDK 21+ via {@code Thread.ofVirtual()}.
  */
 public class Platform {
   private static final Platform PLATFORM = findPlatform();
@@ -167,6 +173,40 @@ public class Platform {
     return new BasicCertificateChainCleaner(TrustRootIndex.get(trustManager));
   }
 
+  /**
+   * Returns a factory that creates virtual threads named {@code name}, or null if this runtime
+   * doesn't have virtual threads that can block safely in OkHttp.
+   *
+   * <p>Virtual threads need JDK 24 or newer here. On JDK 21 through 23 a virtual thread that blocks
+   * in a {@code synchronized} block or in {@link Object#wait} pins its carrier thread, and OkHttp
+   * waits that way for HTTP/2 stream data and flow-control windows. With more such calls than
+   * carrier threads, every carrier is pinned and the client deadlocks.
+   */
+  public ThreadFactory virtualThreadFactory(String name) {
+    if (javaFeatureVersion() < 24) return null;
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException
+        | InvocationTargetException e) {
+      return null;
+    }
+  }
+
+  /** Returns the runtime's major Java version, like 8 for "1.8" or 21 for "21". */
+  static int javaFeatureVersion() {
+    String version = System.getProperty("java.specification.version", "1.0");
+    if (version.startsWith("1.")) version = version.substring(2);
+    int dot = version.indexOf('.');
+    try {
+      return Integer.parseInt(dot != -1 ? version.substring(0, dot) : version);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
   /** Attempt to match the host runtime to a capable Platform implementation. */
   private static Platform findPlatform() {
     Platform android = AndroidPlatform.buildIfSupported();
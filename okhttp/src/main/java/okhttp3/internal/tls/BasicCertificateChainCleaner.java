@@ -20,10 +20,12 @@ import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import javax.net.ssl.SSLPeerUnverifiedException;
+import okhttp3.internal.cache.SegmentedLruCache;
 
 /**
  * A certificate chain cleaner that uses a set of trusted root certificates to build the trusted
@@ -31,6 +33,9 @@ import javax.net.ssl.SSLPeerUnverifiedException;
  * prefer other mechanisms where they exist, such as with
  * {@code okhttp3.internal.platform.AndroidPlatform.AndroidCertificateChainCleaner}.
  *
+ * <p>Cleaned chains are remembered so that servers that present the same chain on every connection
+ * don't have their signatures verified again.
+ *
  * <p>This class includes code from <a href="https://conscrypt.org/">Conscrypt's</a> {@code
  * TrustManagerImpl} and {@code TrustedCertificateIndex}.
  */
@@ -38,8 +43,15 @@ public final class BasicCertificateChainCleaner extends CertificateChainCleaner
   /** The maximum number of signers in a chain. We use 9 for consistency with OpenSSL. */
   private static final int MAX_SIGNERS = 9;
 
+  /** The maximum number of cleaned chains to remember. */
+  private static final int MAX_CACHED_CHAINS = 64;
+
   private final TrustRootIndex trustRootIndex;
 
+  /** Cleaned chains, keyed by the chain they were cleaned from. */
+  private final SegmentedLruCache<List<Certificate>, List<Certificate>> cleanedChains
+      = new SegmentedLruCache<>(MAX_CACHED_CHAINS);
+
   public BasicCertificateChainCleaner(TrustRootIndex trustRootIndex) {
     this.trustRootIndex = trustRootIndex;
   }
@@ -53,6 +65,19 @@ public final class BasicCertificateChainCleaner extends CertificateChainCleaner
    */
   @Override public List<Certificate> clean(List<Certificate> chain, String hostname)
       throws SSLPeerUnverifiedException {
+    // Certificates compare by their encoded form, so this key matches the same chain on any
+    // connection. The cleaned chain doesn't depend on the hostname.
+    List<Certificate> key = Collections.unmodifiableList(new ArrayList<>(chain));
+    List<Certificate> result = cleanedChains.get(key);
+    if (result == null) {
+      result = Collections.unmodifiableList(cleanChain(chain));
+      cleanedChains.put(key, result, 1L);
+    }
+    return result;
+  }
+
+  private List<Certificate> cleanChain(List<Certificate> chain)
+      throws SSLPeerUnverifiedException {
     Deque<Certificate> queue = new ArrayDeque<>(chain);
     List<Certificate> result = new ArrayList<>();
     result.add(queue.removeFirst());
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.ws;
+
+/**
+ * Counts the work done by a web socket's permessage-deflate extension. Outgoing messages are
+ * counted by the writer thread and incoming messages by the reader thread; any thread may read the
+ * counts.
+ *
+ * <p>This is internal: it's only reachable through {@link RealWebSocket#compressionStats()}, not
+ * through the public {@link okhttp3.WebSocket} interface.
+ */
+public final class CompressionStats {
+  private volatile long messagesDeflated;
+  private volatile long bytesBeforeDeflate;
+  private volatile long bytesAfterDeflate;
+  private volatile long deflateNanos;
+
+  private volatile long messagesInflated;
+  private volatile long bytesBeforeInflate;
+  private volatile long bytesAfterInflate;
+  private volatile long inflateNanos;
+
+  void deflated(long inflatedSize, long deflatedSize, long nanos) {
+    messagesDeflated++;
+    bytesBeforeDeflate += inflatedSize;
+    bytesAfterDeflate += deflatedSize;
+    deflateNanos += nanos;
+  }
+
+  void inflated(long deflatedSize, long inflatedSize, long nanos) {
+    messagesInflated++;
+    bytesBeforeInflate += deflatedSize;
+    bytesAfterInflate += inflatedSize;
+    inflateNanos += nanos;
+  }
+
+  /** Returns the number of outgoing messages that were compressed. */
+  public long messagesDeflated() {
+    return messagesDeflated;
+  }
+
+  /** Returns the size of compressed outgoing messages divided by their original size. */
+  public double deflateRatio() {
+    long before = bytesBeforeDeflate;
+    return before != 0 ? (double) bytesAfterDeflate / before : 1.0;
+  }
+
+  /** Returns the total time spent compressing outgoing messages, in nanoseconds. */
+  public long deflateNanos() {
+    return deflateNanos;
+  }
+
+  /** Returns the number of incoming messages that were decompressed. */
+  public long messagesInflated() {
+    return messagesInflated;
+  }
+
+  /** Returns the size of compressed incoming messages divided by their decompressed size. */
+  public double inflateRatio() {
+    long after = bytesAfterInflate;
+    return after != 0 ? (double) bytesBeforeInflate / after : 1.0;
+  }
+
+  /** Returns the total time spent decompressing incoming messages, in nanoseconds. */
+  public long inflateNanos() {
+    return inflateNanos;
+  }
+
+  @Override public String toString() {
+    return "CompressionStats{deflated=" + messagesDeflated
+        + ", deflateRatio=" + deflateRatio()
+        + ", deflateNanos=" + deflateNanos
+        + ", inflated=" + messagesInflated
+        + ", inflateRatio=" + inflateRatio()
+        + ", inflateNanos=" + inflateNanos
+        + '}';
+  }
+}
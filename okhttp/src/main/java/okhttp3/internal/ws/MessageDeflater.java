@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.ws;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.zip.Deflater;
+import okio.Buffer;
+import okio.ByteString;
+import okio.DeflaterSink;
+
+/**
+ * Compresses web socket messages for permessage-deflate. Each message is deflated and sync flushed,
+ * and the trailing empty block {@code 00 00 ff ff} is removed as required by RFC 7692.
+ *
+ * <p>Deflaters are expensive to create and hold about 256 KiB of native memory each, so they're
+ * borrowed from a small shared pool. Without context takeover a deflater is only held while a
+ * message is being compressed.
+ *
+ * <p>This class is not thread safe. It is used only by a web socket's writer thread.
+ */
+final class MessageDeflater implements Closeable {
+  private static final ByteString EMPTY_DEFLATE_BLOCK = ByteString.decodeHex("000000ffff");
+  private static final int MAX_POOLED_DEFLATERS = 16;
+
+  /** Idle deflaters, reset and ready to use. Guarded by itself. */
+  private static final ArrayDeque<Deflater> pool = new ArrayDeque<>();
+
+  private final boolean noContextTakeover;
+  private final CompressionStats stats;
+  private final Buffer deflatedBytes = new Buffer();
+  private Deflater deflater;
+  private DeflaterSink deflaterSink;
+
+  MessageDeflater(boolean noContextTakeover, CompressionStats stats) {
+    this.noContextTakeover = noContextTakeover;
+    this.stats = stats;
+  }
+
+  /** Replaces the contents of {@code buffer} with its compressed form. */
+  void deflate(Buffer buffer) throws IOException {
+    if (deflatedBytes.size() != 0) throw new IllegalStateException();
+    long startNanos = System.nanoTime();
+    long inflatedSize = buffer.size();
+
+    if (deflater == null) {
+      deflater = take();
+      deflaterSink = new DeflaterSink(deflatedBytes, deflater);
+    }
+    deflaterSink.write(buffer, buffer.size());
+    deflaterSink.flush();
+
+    // Drop the empty stored block that ends a sync flush. The peer will append it before inflating.
+    long size = deflatedBytes.size();
+    if (size >= EMPTY_DEFLATE_BLOCK.size()
+        && deflatedBytes.rangeEquals(size - EMPTY_DEFLATE_BLOCK.size(), EMPTY_DEFLATE_BLOCK)) {
+      buffer.write(deflatedBytes, size - 4);
+      deflatedBytes.clear();
+    } else {
+      deflatedBytes.writeByte(0x00);
+      buffer.writeAll(deflatedBytes);
+    }
+
+    if (noContextTakeover) release();
+    stats.deflated(inflatedSize, buffer.size(), System.nanoTime() - startNanos);
+  }
+
+  /** Returns this deflater's native resources to the pool. */
+  @Override public void close() {
+    release();
+  }
+
+  private void release() {
+    if (deflater == null) return;
+    recycle(deflater);
+    deflater = null;
+    deflaterSink = null;
+  }
+
+  private static Deflater take() {
+    synchronized (pool) {
+      Deflater result = pool.poll();
+      if (result != null) return result;
+    }
+    return new Deflater(Deflater.DEFAULT_COMPRESSION, true /* omit zlib header */);
+  }
+
+  private static void recycle(Deflater deflater) {
+    deflater.reset();
+    synchronized (pool) {
+      if (pool.size() < MAX_POOLED_DEFLATERS) {
+        pool.push(deflater);
+        return;
+      }
+    }
+    deflater.end();
+  }
+}
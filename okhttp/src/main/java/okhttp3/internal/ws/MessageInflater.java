@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.ws;
+
+import java.io.Closeable;
+import java.net.ProtocolException;
+import java.util.ArrayDeque;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import okio.Buffer;
+
+/**
+ * Decompresses web socket messages for permessage-deflate. The empty block {@code 00 00 ff ff}
+ * that the peer removed is appended to each message before it is inflated.
+ *
+ * <p>Inflaters are borrowed from a small shared pool. Without context takeover an inflater is only
+ * held while a message is being decompressed.
+ *
+ * <p>A few kilobytes of deflate data can inflate to gigabytes, so messages that inflate to more
+ * than {@code maxMessageSize} bytes fail with {@link MessageTooBigException}.
+ *
+ * <p>This class is not thread safe. It is used only by a web socket's reader thread.
+ */
+final class MessageInflater implements Closeable {
+  private static final int OCTETS_TO_ADD_BEFORE_INFLATION = 0x0000ffff;
+  private static final int MAX_POOLED_INFLATERS = 16;
+
+  /** Idle inflaters, reset and ready to use. Guarded by itself. */
+  private static final ArrayDeque<Inflater> pool = new ArrayDeque<>();
+
+  private final boolean noContextTakeover;
+  private final long maxMessageSize;
+  private final CompressionStats stats;
+  private final byte[] chunk = new byte[8192];
+  private Inflater inflater;
+
+  MessageInflater(boolean noContextTakeover, long maxMessageSize, CompressionStats stats) {
+    this.noContextTakeover = noContextTakeover;
+    this.maxMessageSize = maxMessageSize;
+    this.stats = stats;
+  }
+
+  /** Replaces the contents of {@code buffer} with its decompressed form. */
+  void inflate(Buffer buffer) throws ProtocolException {
+    long startNanos = System.nanoTime();
+    long deflatedSize = buffer.size();
+    buffer.writeInt(OCTETS_TO_ADD_BEFORE_INFLATION);
+
+    if (inflater == null) inflater = take();
+    inflater.setInput(buffer.readByteArray());
+    try {
+      while (true) {
+        int count = inflater.inflate(chunk);
+        if (count > 0) {
+          buffer.write(chunk, 0, count);
+          if (buffer.size() > maxMessageSize) {
+            throw new MessageTooBigException(
+                "Message inflated to more than " + maxMessageSize + " bytes");
+          }
+        } else if (inflater.needsInput() || inflater.finished()) {
+          break;
+        } else {
+          throw new ProtocolException("Inflater needs a preset dictionary");
+        }
+      }
+    } catch (DataFormatException e) {
+      ProtocolException protocolException = new ProtocolException("Malformed deflate data");
+      protocolException.initCause(e);
+      throw protocolException;
+    }
+
+    if (noContextTakeover) release();
+    stats.inflated(deflatedSize, buffer.size(), System.nanoTime() - startNanos);
+  }
+
+  /** Returns this inflater's native resources to the pool. */
+  @Override public void close() {
+    release();
+  }
+
+  private void release() {
+    if (inflater == null) return;
+    recycle(inflater);
+    inflater = null;
+  }
+
+  private static Inflater take() {
+    synchronized (pool) {
+      Inflater result = pool.poll();
+      if (result != null) return result;
+    }
+    return new Inflater(true /* omit zlib header */);
+  }
+
+  private static void recycle(Inflater inflater) {
+    inflater.reset();
+    synchronized (pool) {
+      if (pool.size() < MAX_POOLED_INFLATERS) {
+        pool.push(inflater);
+        return;
+      }
+    }
+    inflater.end();
+  }
+
+  /** Thrown when a message inflates to more than the maximum message size. */
+  static final class MessageTooBigException extends ProtocolException {
+    MessageTooBigException(String message) {
+      super(message);
+    }
+  }
+}
@@ -22,10 +22,9 @@ import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.OkHttpClient;
@@ -34,18 +33,18 @@ import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.WebSocket;
 import okhttp3.WebSocketListener;
+import okhttp3.WebSocketScheduler;
 import okhttp3.internal.Internal;
-import okhttp3.internal.Util;
 import okhttp3.internal.connection.StreamAllocation;
 import okio.BufferedSink;
 import okio.BufferedSource;
 import okio.ByteString;
-import okio.Okio;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static okhttp3.internal.Util.closeQuietly;
-import static okhttp3.internal.ws.WebSocketProtocol.CLOSE_CLIENT_GOING_AWAY;
 import static okhttp3.internal.ws.WebSocketProtocol.CLOSE_MESSAGE_MAX;
+import static okhttp3.internal.ws.WebSocketProtocol.CLOSE_MESSAGE_TOO_BIG;
+import static okhttp3.internal.ws.WebSocketProtocol.CLOSE_UNSUPPORTED_EXTENSION;
 import static okhttp3.internal.ws.WebSocketProtocol.OPCODE_BINARY;
 import static okhttp3.internal.ws.WebSocketProtocol.OPCODE_TEXT;
 import static okhttp3.internal.ws.WebSocketProtocol.validateCloseCode;
@@ -53,18 +52,18 @@ import static okhttp3.internal.ws.WebSocketProtocol.validateCloseCode;
 public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCallback {
   private static final List<Protocol> ONLY_HTTP1 = Collections.singletonList(Protocol.HTTP_1_1);
 
-  /**
-   * The maximum number of bytes to enqueue. Rather than enqueueing beyond this limit we tear down
-   * the web socket! It's possible that we're writing faster than the peer can read.
-   */
-  private static final long MAX_QUEUE_SIZE = 16 * 1024 * 1024; // 16 MiB.
-
   /**
    * The maximum amount of time after the client calls {@link #close} to wait for a graceful
    * shutdown. If the server doesn't respond the websocket will be canceled.
    */
   private static final long CANCEL_AFTER_CLOSE_MILLIS = 60 * 1000;
 
+  /**
+   * The largest compressed message we'll inflate, in bytes. The peer is told 1009 (message too big)
+   * and the web socket fails if a message inflates to more than this.
+   */
+  static final long MAX_INFLATED_MESSAGE_SIZE = 16 * 1024 * 1024;
+
   /** The application's original request unadulterated by web socket headers. */
   private final Request originalRequest;
 
@@ -72,22 +71,60 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
   private final Random random;
   private final String key;
 
+  /** Writes frames for this and other web sockets, and limits how many bytes they may enqueue. */
+  private final WebSocketScheduler scheduler;
+
   /** Non-null for client web sockets. These can be canceled. */
   private Call call;
 
   /** This runnable processes the outgoing queues. Call {@link #runWriter()} to after enqueueing. */
   private final Runnable writerRunnable;
 
+  /** This runnable notifies the listener when the scheduler's total queue has room again. */
+  private final Runnable writableRunnable;
+
   /** Null until this web socket is connected. Only accessed by the reader thread. */
   private WebSocketReader reader;
 
+  /**
+   * The extensions accepted by the server, or null if none were offered. Set before the reader and
+   * writer are created.
+   */
+  private WebSocketExtensions extensions;
+
+  /** Non-null if permessage-deflate was negotiated. Only used by the writer thread. */
+  private MessageDeflater messageDeflater;
+
+  /** Non-null if permessage-deflate was negotiated. Only used by the reader thread. */
+  private MessageInflater messageInflater;
+
+  private final CompressionStats compressionStats = new CompressionStats();
+
   // All mutable web socket state is guarded by this.
 
   /** Null until this web socket is connected. Note that messages may be enqueued before that. */
   private WebSocketWriter writer;
 
-  /** Null until this web socket is connected. Used for writes, pings, and close timeouts. */
-  private ScheduledExecutorService executor;
+  /**
+   * Null until this web socket is connected. Used for writes and pings. This is shared with other
+   * web sockets so it is never shut down.
+   */
+  private ExecutorService executor;
+
+  /** Null until this web socket is connected. Times pings and close timeouts. Also shared. */
+  private ScheduledExecutorService timer;
+
+  /** True if a ping is enqueued on {@link #executor} but not yet written. */
+  private boolean pingScheduled;
+
+  /** True if {@link #writerRunnable} is enqueued or running. At most one writer runs at a time. */
+  private boolean writerScheduled;
+
+  /** True if no further frames will be written. */
+  private boolean writerShutdown;
+
+  /** Null unless pings are enabled. This should be canceled when the writer is shut down. */
+  private ScheduledFuture<?> pingFuture;
 
   /**
    * The streams held by this web socket. This is non-null until all incoming messages have been
@@ -105,6 +142,9 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
   /** The total size in bytes of enqueued but not yet transmitted messages. */
   private long queueSize;
 
+  /** True if a message was refused for lack of queue space and the listener should be notified. */
+  private boolean awaitingWritable;
+
   /** True if we've enqueued a close frame. No further message frames will be enqueued. */
   private boolean enqueuedClose;
 
@@ -129,13 +169,15 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
   /** For testing. */
   int pongCount;
 
-  public RealWebSocket(Request request, WebSocketListener listener, Random random) {
+  public RealWebSocket(Request request, WebSocketListener listener, Random random,
+      WebSocketScheduler scheduler) {
     if (!"GET".equals(request.method())) {
       throw new IllegalArgumentException("Request must be GET: " + request.method());
     }
     this.originalRequest = request;
     this.listener = listener;
     this.random = random;
+    this.scheduler = scheduler;
 
     byte[] nonce = new byte[16];
     random.nextBytes(nonce);
@@ -148,9 +190,15 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
           }
         } catch (IOException e) {
           failWebSocket(e, null);
+          closeWriter();
         }
       }
     };
+    this.writableRunnable = new Runnable() {
+      @Override public void run() {
+        notifyWritable();
+      }
+    };
   }
 
   @Override public Request request() {
@@ -161,6 +209,11 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
     return queueSize;
   }
 
+  /** Returns the work done compressing and decompressing messages with permessage-deflate. */
+  public CompressionStats compressionStats() {
+    return compressionStats;
+  }
+
   @Override public void cancel() {
     call.cancel();
   }
@@ -170,12 +223,17 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
         .protocols(ONLY_HTTP1)
         .build();
     final int pingIntervalMillis = client.pingIntervalMillis();
-    final Request request = originalRequest.newBuilder()
+    final boolean offeredCompression = client.webSocketCompression();
+    Request.Builder requestBuilder = originalRequest.newBuilder()
         .header("Upgrade", "websocket")
         .header("Connection", "Upgrade")
         .header("Sec-WebSocket-Key", key)
-        .header("Sec-WebSocket-Version", "13")
-        .build();
+        .header("Sec-WebSocket-Version", "13");
+    if (offeredCompression) {
+      requestBuilder.header(WebSocketExtensions.HEADER_WEB_SOCKET_EXTENSION,
+          WebSocketExtensions.offer(client.webSocketContextTakeover()));
+    }
+    final Request request = requestBuilder.build();
     call = Internal.instance.newWebSocketCall(client, request);
     call.enqueue(new Callback() {
       @Override public void onResponse(Call call, Response response) {
@@ -187,6 +245,24 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
           return;
         }
 
+        // Apply the extensions. If they're unacceptable, initiate a graceful shutdown.
+        WebSocketExtensions extensions = WebSocketExtensions.parse(response.headers());
+        if (!offeredCompression && extensions.perMessageDeflate) {
+          extensions = new WebSocketExtensions(true, -1, false, -1, false, true);
+        }
+        long discardedSize = 0L;
+        synchronized (RealWebSocket.this) {
+          RealWebSocket.this.extensions = extensions;
+          if (!extensions.isValid()) {
+            messageAndCloseQueue.clear(); // Don't transmit any messages.
+            discardedSize = queueSize;
+            queueSize = 0L;
+            close(CLOSE_UNSUPPORTED_EXTENSION,
+                "unexpected Sec-WebSocket-Extensions in response header");
+          }
+        }
+        Internal.instance.release(scheduler, discardedSize);
+
         // Promote the HTTP streams into web socket streams.
         StreamAllocation streamAllocation = Internal.instance.streamAllocation(call);
         streamAllocation.noNewStreams(); // Prevent connection pooling!
@@ -195,8 +271,7 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
         // Process all web socket messages.
         try {
           listener.onOpen(RealWebSocket.this, response);
-          String name = "OkHttp WebSocket " + request.url().redact();
-          initReaderAndWriter(name, pingIntervalMillis, streams);
+          initReaderAndWriter(pingIntervalMillis, streams);
           streamAllocation.connection().socket().setSoTimeout(0);
           loopReader();
         } catch (Exception e) {
@@ -237,14 +312,28 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
     }
   }
 
-  public void initReaderAndWriter(
-      String name, long pingIntervalMillis, Streams streams) throws IOException {
+  public void initReaderAndWriter(long pingIntervalMillis, Streams streams) throws IOException {
+    WebSocketExtensions extensions;
+    synchronized (this) {
+      extensions = this.extensions;
+    }
+    if (extensions != null && extensions.perMessageDeflate && extensions.isValid()) {
+      // Our outgoing messages use the client's parameters if we're the client, and vice versa.
+      messageDeflater = new MessageDeflater(streams.client
+          ? extensions.clientNoContextTakeover
+          : extensions.serverNoContextTakeover, compressionStats);
+      messageInflater = new MessageInflater(streams.client
+          ? extensions.serverNoContextTakeover
+          : extensions.clientNoContextTakeover, MAX_INFLATED_MESSAGE_SIZE, compressionStats);
+    }
+
     synchronized (this) {
       this.streams = streams;
-      this.writer = new WebSocketWriter(streams.client, streams.sink, random);
-      this.executor = new ScheduledThreadPoolExecutor(1, Util.threadFactory(name, false));
+      this.writer = new WebSocketWriter(streams.client, streams.sink, random, messageDeflater);
+      this.executor = Internal.instance.executor(scheduler);
+      this.timer = Internal.instance.timer(scheduler);
       if (pingIntervalMillis != 0) {
-        executor.scheduleAtFixedRate(
+        pingFuture = timer.scheduleAtFixedRate(
             new PingRunnable(), pingIntervalMillis, pingIntervalMillis, MILLISECONDS);
       }
       if (!messageAndCloseQueue.isEmpty()) {
@@ -252,14 +341,21 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
       }
     }
 
-    reader = new WebSocketReader(streams.client, streams.source, this);
+    reader = new WebSocketReader(streams.client, streams.source, this, messageInflater);
   }
 
   /** Receive frames until there are no more. Invoked only by the reader thread. */
   public void loopReader() throws IOException {
-    while (receivedCloseCode == -1) {
-      // This method call results in one or more onRead* methods being called on this thread.
-      reader.processNextFrame();
+    try {
+      while (receivedCloseCode == -1) {
+        // This method call results in one or more onRead* methods being called on this thread.
+        reader.processNextFrame();
+      }
+    } catch (MessageInflater.MessageTooBigException e) {
+      writeCloseNow(CLOSE_MESSAGE_TOO_BIG, e.getMessage());
+      throw e;
+    } finally {
+      if (messageInflater != null) messageInflater.close();
     }
   }
 
@@ -272,27 +368,39 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
       reader.processNextFrame();
       return receivedCloseCode == -1;
     } catch (Exception e) {
+      if (e instanceof MessageInflater.MessageTooBigException) {
+        writeCloseNow(CLOSE_MESSAGE_TOO_BIG, e.getMessage());
+      }
       failWebSocket(e, null);
       return false;
     }
   }
 
   /**
-   * For testing: wait until the web socket's executor has terminated.
+   * Writes a close frame immediately, bypassing the message queue, so the peer learns why this web
+   * socket is about to fail. Invoked only by the reader thread.
    */
-  void awaitTermination(int timeout, TimeUnit timeUnit) throws InterruptedException {
-    executor.awaitTermination(timeout, timeUnit);
+  private void writeCloseNow(int code, String reason) {
+    WebSocketWriter writer;
+    synchronized (this) {
+      if (failed || enqueuedClose) return;
+      enqueuedClose = true;
+      writer = this.writer;
+    }
+    try {
+      writer.writeClose(code, ByteString.encodeUtf8(reason));
+    } catch (IOException ignored) {
+    }
   }
 
   /**
-   * For testing: force this web socket to release its threads.
+   * For testing: force this web socket to release its scheduled tasks.
    */
-  void tearDown() throws InterruptedException {
+  synchronized void tearDown() {
     if (cancelFuture != null) {
       cancelFuture.cancel(false);
     }
-    executor.shutdown();
-    executor.awaitTermination(10, TimeUnit.SECONDS);
+    shutdownWriter();
   }
 
   synchronized int pingCount() {
@@ -337,7 +445,7 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
         toClose = this.streams;
         this.streams = null;
         if (cancelFuture != null) cancelFuture.cancel(false);
-        this.executor.shutdown();
+        shutdownWriter();
       }
     }
 
@@ -368,9 +476,10 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
     // Don't send new frames after we've failed or enqueued a close frame.
     if (failed || enqueuedClose) return false;
 
-    // If this frame overflows the buffer, reject it and close the web socket.
-    if (queueSize + data.size() > MAX_QUEUE_SIZE) {
-      close(CLOSE_CLIENT_GOING_AWAY, null);
+    // If this frame overflows the buffer, reject it. The listener is notified once there's room.
+    if (queueSize + data.size() > scheduler.maxQueueSize()
+        || !Internal.instance.reserve(scheduler, data.size(), writableRunnable)) {
+      awaitingWritable = true;
       return false;
     }
 
@@ -419,11 +528,40 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
   private void runWriter() {
     assert (Thread.holdsLock(this));
 
-    if (executor != null) {
+    if (executor != null && !writerScheduled && !writerShutdown) {
+      writerScheduled = true;
       executor.execute(writerRunnable);
     }
   }
 
+  /** Prevents further frames from being written. */
+  private void shutdownWriter() {
+    assert (Thread.holdsLock(this));
+
+    writerShutdown = true;
+    if (pingFuture != null) pingFuture.cancel(false);
+  }
+
+  /** Releases the writer after a failure. Invoked only by the writer thread. */
+  private synchronized void closeWriter() {
+    writerScheduled = false;
+    shutdownWriter();
+    if (messageDeflater != null) messageDeflater.close();
+  }
+
+  /**
+   * Notifies the listener if a message was refused and there's now room in this web socket's queue.
+   * If the scheduler's total queue is still full the next refused message will wait for it.
+   */
+  void notifyWritable() {
+    synchronized (this) {
+      if (!awaitingWritable || failed || enqueuedClose) return;
+      if (queueSize > scheduler.maxQueueSize() / 2) return; // The writer will notify us.
+      awaitingWritable = false;
+    }
+    listener.onWritable(this);
+  }
+
   /**
    * Attempts to remove a single frame from a queue and send it. This prefers to write urgent pongs
    * before less urgent messages and close frames. For example it's possible that a caller will
@@ -435,7 +573,8 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
    * should immediately invoke this method again until it returns false.
    *
    * <p>This method may only be invoked by the writer thread. There may be only thread invoking this
-   * method at a time.
+   * method at a time. When this returns false the writer is no longer running and {@link
+   * #runWriter} must be called to start it again.
    */
   boolean writeOneFrame() throws IOException {
     WebSocketWriter writer;
@@ -447,6 +586,7 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
 
     synchronized (RealWebSocket.this) {
       if (failed) {
+        closeWriter();
         return false; // Failed web socket.
       }
 
@@ -460,13 +600,14 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
           if (receivedCloseCode != -1) {
             streamsToClose = this.streams;
             this.streams = null;
-            this.executor.shutdown();
+            shutdownWriter();
           } else {
             // When we request a graceful close also schedule a cancel of the websocket.
-            cancelFuture = executor.schedule(new CancelRunnable(),
+            cancelFuture = timer.schedule(new CancelRunnable(),
                 ((Close) messageOrClose).cancelAfterCloseMillis, MILLISECONDS);
           }
         } else if (messageOrClose == null) {
+          writerScheduled = false;
           return false; // The queue is exhausted.
         }
       }
@@ -478,17 +619,23 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
 
       } else if (messageOrClose instanceof Message) {
         ByteString data = ((Message) messageOrClose).data;
-        BufferedSink sink = Okio.buffer(writer.newMessageSink(
-            ((Message) messageOrClose).formatOpcode, data.size()));
-        sink.write(data);
-        sink.close();
+        writer.writeMessageFrame(((Message) messageOrClose).formatOpcode, data);
+        long releasedSize;
         synchronized (this) {
           queueSize -= data.size();
+          releasedSize = failed ? 0L : data.size(); // If we failed, failWebSocket() released it.
         }
+        Internal.instance.release(scheduler, releasedSize);
+        notifyWritable();
 
       } else if (messageOrClose instanceof Close) {
         Close close = (Close) messageOrClose;
-        writer.writeClose(close.code, close.reason);
+        try {
+          writer.writeClose(close.code, close.reason);
+        } finally {
+          // No more messages will be written.
+          if (messageDeflater != null) messageDeflater.close();
+        }
 
         // We closed the writer: now both reader and writer are closed.
         if (streamsToClose != null) {
@@ -505,19 +652,34 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
     }
   }
 
+  /**
+   * Runs on the timer and hands the ping to a writer thread, since the write may block. A ping that
+   * hasn't been written yet isn't followed by another.
+   */
   private final class PingRunnable implements Runnable {
+    private final Runnable writePing = new Runnable() {
+      @Override public void run() {
+        writePingFrame();
+      }
+    };
+
     PingRunnable() {
     }
 
     @Override public void run() {
-      writePingFrame();
+      synchronized (RealWebSocket.this) {
+        if (pingScheduled || failed || writerShutdown) return;
+        pingScheduled = true;
+      }
+      executor.execute(writePing);
     }
   }
 
   void writePingFrame() {
     WebSocketWriter writer;
     synchronized (this) {
-      if (failed) return;
+      pingScheduled = false;
+      if (failed || writerShutdown) return;
       writer = this.writer;
     }
 
@@ -530,14 +692,18 @@ public final class RealWebSocket implements WebSocket, WebSocketReader.FrameCall
 
   public void failWebSocket(Exception e, Response response) {
     Streams streamsToClose;
+    long releasedSize;
     synchronized (this) {
       if (failed) return; // Already failed.
       failed = true;
       streamsToClose = this.streams;
       this.streams = null;
       if (cancelFuture != null) cancelFuture.cancel(false);
-      if (executor != null) executor.shutdown();
+      if (pingFuture != null) pingFuture.cancel(false);
+      releasedSize = queueSize; // Enqueued messages won't be written.
+      runWriter(); // The writer releases its resources once it observes the failure.
     }
+    Internal.instance.release(scheduler, releasedSize);
 
     try {
       listener.onFailure(this, e, response);
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.ws;
+
+import java.util.Locale;
+import okhttp3.Headers;
+
+/**
+ * The web socket extensions accepted by a server in its {@code Sec-WebSocket-Extensions} response
+ * header. The only extension OkHttp offers is <a href="https://tools.ietf.org/html/rfc7692">RFC
+ * 7692</a> permessage-deflate, so this only models its parameters.
+ */
+final class WebSocketExtensions {
+  static final String HEADER_WEB_SOCKET_EXTENSION = "Sec-WebSocket-Extensions";
+  static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+  /** True if the agreed upon extensions includes permessage-deflate. */
+  final boolean perMessageDeflate;
+
+  /** The client's LZ77 window size as a power of 2, or -1 if unconstrained. */
+  final int clientMaxWindowBits;
+
+  /** True if the client must reset its compression context after each message. */
+  final boolean clientNoContextTakeover;
+
+  /** The server's LZ77 window size as a power of 2, or -1 if unconstrained. */
+  final int serverMaxWindowBits;
+
+  /** True if the server resets its compression context after each message. */
+  final boolean serverNoContextTakeover;
+
+  /** True if the header contained an extension or parameter that we didn't offer. */
+  final boolean unknownValues;
+
+  WebSocketExtensions(boolean perMessageDeflate, int clientMaxWindowBits,
+      boolean clientNoContextTakeover, int serverMaxWindowBits, boolean serverNoContextTakeover,
+      boolean unknownValues) {
+    this.perMessageDeflate = perMessageDeflate;
+    this.clientMaxWindowBits = clientMaxWindowBits;
+    this.clientNoContextTakeover = clientNoContextTakeover;
+    this.serverMaxWindowBits = serverMaxWindowBits;
+    this.serverNoContextTakeover = serverNoContextTakeover;
+    this.unknownValues = unknownValues;
+  }
+
+  /** Returns the request header value that offers permessage-deflate. */
+  static String offer(boolean contextTakeover) {
+    return contextTakeover
+        ? PERMESSAGE_DEFLATE
+        : PERMESSAGE_DEFLATE + "; client_no_context_takeover; server_no_context_takeover";
+  }
+
+  /**
+   * Returns true if we can honor these extensions. Java's {@link java.util.zip.Deflater} always
+   * uses a 32 KiB window, so we can't accept a smaller {@code client_max_window_bits}; we never
+   * offer it so a server must not send it.
+   */
+  boolean isValid() {
+    if (unknownValues) return false;
+    if (clientMaxWindowBits != -1) return false;
+    if (serverMaxWindowBits != -1 && (serverMaxWindowBits < 8 || serverMaxWindowBits > 15)) {
+      return false;
+    }
+    return true;
+  }
+
+  static WebSocketExtensions parse(Headers responseHeaders) {
+    boolean compressionEnabled = false;
+    int clientMaxWindowBits = -1;
+    boolean clientNoContextTakeover = false;
+    int serverMaxWindowBits = -1;
+    boolean serverNoContextTakeover = false;
+    boolean unexpectedValues = false;
+
+    for (String header : responseHeaders.values(HEADER_WEB_SOCKET_EXTENSION)) {
+      for (String extension : header.split(",")) {
+        String[] parameters = extension.split(";");
+        String name = parameters[0].trim();
+        if (!name.equalsIgnoreCase(PERMESSAGE_DEFLATE) || compressionEnabled) {
+          unexpectedValues = true; // Unexpected extension, or permessage-deflate repeated.
+          continue;
+        }
+        compressionEnabled = true;
+
+        for (int i = 1; i < parameters.length; i++) {
+          String parameter = parameters[i].trim();
+          int equals = parameter.indexOf('=');
+          String key = (equals != -1 ? parameter.substring(0, equals) : parameter)
+              .trim().toLowerCase(Locale.US);
+          String value = equals != -1 ? unquote(parameter.substring(equals + 1).trim()) : null;
+
+          if (key.equals("client_max_window_bits")) {
+            if (clientMaxWindowBits != -1) unexpectedValues = true;
+            clientMaxWindowBits = parseWindowBits(value);
+            if (clientMaxWindowBits == -1) unexpectedValues = true;
+          } else if (key.equals("client_no_context_takeover")) {
+            if (clientNoContextTakeover || value != null) unexpectedValues = true;
+            clientNoContextTakeover = true;
+          } else if (key.equals("server_max_window_bits")) {
+            if (serverMaxWindowBits != -1) unexpectedValues = true;
+            serverMaxWindowBits = parseWindowBits(value);
+            if (serverMaxWindowBits == -1) unexpectedValues = true;
+          } else if (key.equals("server_no_context_takeover")) {
+            if (serverNoContextTakeover || value != null) unexpectedValues = true;
+            serverNoContextTakeover = true;
+          } else {
+            unexpectedValues = true;
+          }
+        }
+      }
+    }
+
+    return new WebSocketExtensions(compressionEnabled, clientMaxWindowBits,
+        clientNoContextTakeover, serverMaxWindowBits, serverNoContextTakeover, unexpectedValues);
+  }
+
+  private static String unquote(String value) {
+    if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+      return value.substring(1, value.length() - 1);
+    }
+    return value;
+  }
+
+  private static int parseWindowBits(String value) {
+    if (value == null) return -1;
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
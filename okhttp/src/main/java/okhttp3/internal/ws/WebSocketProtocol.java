@@ -17,6 +17,7 @@ package okhttp3.internal.ws;
 
 import java.io.IOException;
 import java.net.ProtocolException;
+import okio.Buffer;
 import okio.ByteString;
 
 public final class WebSocketProtocol {
@@ -96,13 +97,49 @@ public final class WebSocketProtocol {
   static final int CLOSE_NO_STATUS_CODE = 1005;
   /** Used when a non-{@link ProtocolException} {@link IOException} was thrown by the reader. */
   static final int CLOSE_ABNORMAL_TERMINATION = 1006;
+  /** Used when an incoming message inflates to more than we're willing to buffer. */
+  static final int CLOSE_MESSAGE_TOO_BIG = 1009;
+  /** Used when the server accepted web socket extensions that we can't honor. */
+  static final int CLOSE_UNSUPPORTED_EXTENSION = 1010;
 
-  static void toggleMask(byte[] buffer, long byteCount, byte[] key, long frameBytesRead) {
-    int keyLength = key.length;
-    for (int i = 0; i < byteCount; i++, frameBytesRead++) {
-      int keyIndex = (int) (frameBytesRead % keyLength);
-      buffer[i] = (byte) (buffer[i] ^ key[keyIndex]);
-    }
+  /**
+   * XORs every byte from the cursor's current position to the end of its buffer with the 4-byte
+   * {@code key}, in place. The first byte is masked with {@code key[keyIndex % 4]}. Returns the key
+   * index following the last masked byte, which is the {@code keyIndex} to continue a frame with.
+   *
+   * <p>Bytes are masked 8 at a time within each segment, with the key rotated to line up with the
+   * first byte of the segment. This keeps the inner loop free of modulo arithmetic.
+   */
+  static long toggleMask(Buffer.UnsafeCursor cursor, byte[] key, long keyIndex) {
+    if (cursor.data == null) return keyIndex;
+    do {
+      byte[] data = cursor.data;
+      int start = cursor.start;
+      int end = cursor.end;
+      int rotation = (int) (keyIndex & 3);
+      byte k0 = key[rotation];
+      byte k1 = key[(rotation + 1) & 3];
+      byte k2 = key[(rotation + 2) & 3];
+      byte k3 = key[(rotation + 3) & 3];
+
+      int i = start;
+      for (int wordEnd = end - 7; i < wordEnd; i += 8) {
+        data[i] ^= k0;
+        data[i + 1] ^= k1;
+        data[i + 2] ^= k2;
+        data[i + 3] ^= k3;
+        data[i + 4] ^= k0;
+        data[i + 5] ^= k1;
+        data[i + 6] ^= k2;
+        data[i + 7] ^= k3;
+      }
+      for (int k = 0; i < end; i++, k++) {
+        data[i] ^= key[(rotation + k) & 3];
+      }
+
+      keyIndex += end - start;
+    } while (cursor.next() != -1);
+    return keyIndex;
   }
 
   static String closeCodeExceptionMessage(int code) {
@@ -71,16 +71,27 @@ final class WebSocketReader {
   boolean isFinalFrame;
   boolean isControlFrame;
   boolean isMasked;
+  /** True if the message being read had RSV1 set on its first frame. */
+  boolean readingCompressedMessage;
 
   final byte[] maskKey = new byte[4];
-  final byte[] maskBuffer = new byte[8192];
+  final Buffer.UnsafeCursor maskCursor = new Buffer.UnsafeCursor();
+
+  /** Non-null if permessage-deflate was negotiated. */
+  final MessageInflater messageInflater;
 
   WebSocketReader(boolean isClient, BufferedSource source, FrameCallback frameCallback) {
+    this(isClient, source, frameCallback, null);
+  }
+
+  WebSocketReader(boolean isClient, BufferedSource source, FrameCallback frameCallback,
+      MessageInflater messageInflater) {
     if (source == null) throw new NullPointerException("source == null");
     if (frameCallback == null) throw new NullPointerException("frameCallback == null");
     this.isClient = isClient;
     this.source = source;
     this.frameCallback = frameCallback;
+    this.messageInflater = messageInflater;
   }
 
   /**
@@ -127,7 +138,16 @@ final class WebSocketReader {
     boolean reservedFlag1 = (b0 & B0_FLAG_RSV1) != 0;
     boolean reservedFlag2 = (b0 & B0_FLAG_RSV2) != 0;
     boolean reservedFlag3 = (b0 & B0_FLAG_RSV3) != 0;
-    if (reservedFlag1 || reservedFlag2 || reservedFlag3) {
+    if (reservedFlag1) {
+      // RSV1 marks a compressed message, and may only be set on its first frame.
+      if (messageInflater == null || isControlFrame || opcode == OPCODE_CONTINUATION) {
+        throw new ProtocolException("Unexpected rsv1 flag");
+      }
+      readingCompressedMessage = true;
+    } else if (!isControlFrame && opcode != OPCODE_CONTINUATION) {
+      readingCompressedMessage = false;
+    }
+    if (reservedFlag2 || reservedFlag3) {
       // Reserved flags are for extensions which we currently do not support.
       throw new ProtocolException("Reserved flags are unsupported.");
     }
@@ -168,18 +188,11 @@ final class WebSocketReader {
   private void readControlFrame() throws IOException {
     Buffer buffer = new Buffer();
     if (frameBytesRead < frameLength) {
-      if (isClient) {
-        source.readFully(buffer, frameLength);
-      } else {
-        while (frameBytesRead < frameLength) {
-          int toRead = (int) Math.min(frameLength - frameBytesRead, maskBuffer.length);
-          int read = source.read(maskBuffer, 0, toRead);
-          if (read == -1) throw new EOFException();
-          toggleMask(maskBuffer, read, maskKey, frameBytesRead);
-          buffer.write(maskBuffer, 0, read);
-          frameBytesRead += read;
-        }
+      source.readFully(buffer, frameLength);
+      if (!isClient) {
+        unmask(buffer, 0, frameBytesRead);
       }
+      frameBytesRead = frameLength;
     }
 
     switch (opcode) {
@@ -217,6 +230,9 @@ final class WebSocketReader {
 
     Buffer message = new Buffer();
     readMessage(message);
+    if (readingCompressedMessage) {
+      messageInflater.inflate(message);
+    }
 
     if (opcode == OPCODE_TEXT) {
       frameCallback.onReadMessage(message.readUtf8());
@@ -259,19 +275,28 @@ final class WebSocketReader {
 
       long toRead = frameLength - frameBytesRead;
 
-      long read;
+      long sinkSizeBefore = sink.size();
+      long read = source.read(sink, toRead);
+      if (read == -1) throw new EOFException();
       if (isMasked) {
-        toRead = Math.min(toRead, maskBuffer.length);
-        read = source.read(maskBuffer, 0, (int) toRead);
-        if (read == -1) throw new EOFException();
-        toggleMask(maskBuffer, read, maskKey, frameBytesRead);
-        sink.write(maskBuffer, 0, (int) read);
-      } else {
-        read = source.read(sink, toRead);
-        if (read == -1) throw new EOFException();
+        unmask(sink, sinkSizeBefore, frameBytesRead);
       }
 
       frameBytesRead += read;
     }
   }
+
+  /**
+   * Unmasks {@code buffer} in place from {@code offset} to its end. The first byte is at {@code
+   * frameOffset} within the current frame, which selects where in the mask key to start.
+   */
+  private void unmask(Buffer buffer, long offset, long frameOffset) {
+    buffer.readAndWriteUnsafe(maskCursor);
+    try {
+      maskCursor.seek(offset);
+      toggleMask(maskCursor, maskKey, frameOffset);
+    } finally {
+      maskCursor.close();
+    }
+  }
 }
@@ -24,6 +24,7 @@ import okio.Sink;
 import okio.Timeout;
 
 import static okhttp3.internal.ws.WebSocketProtocol.B0_FLAG_FIN;
+import static okhttp3.internal.ws.WebSocketProtocol.B0_FLAG_RSV1;
 import static okhttp3.internal.ws.WebSocketProtocol.B1_FLAG_MASK;
 import static okhttp3.internal.ws.WebSocketProtocol.OPCODE_CONTINUATION;
 import static okhttp3.internal.ws.WebSocketProtocol.OPCODE_CONTROL_CLOSE;
@@ -45,6 +46,9 @@ import static okhttp3.internal.ws.WebSocketProtocol.validateCloseCode;
  * the wire with frames from the "main" sending thread.
  */
 final class WebSocketWriter {
+  /** Messages smaller than this aren't worth compressing. */
+  static final long MINIMUM_DEFLATE_SIZE = 1024;
+
   final boolean isClient;
   final Random random;
 
@@ -59,18 +63,28 @@ final class WebSocketWriter {
   boolean activeWriter;
 
   final byte[] maskKey;
-  final byte[] maskBuffer;
+  final Buffer.UnsafeCursor maskCursor;
+
+  /** Non-null if permessage-deflate was negotiated. */
+  final MessageDeflater messageDeflater;
+  final Buffer messageBuffer = new Buffer();
 
   WebSocketWriter(boolean isClient, BufferedSink sink, Random random) {
+    this(isClient, sink, random, null);
+  }
+
+  WebSocketWriter(boolean isClient, BufferedSink sink, Random random,
+      MessageDeflater messageDeflater) {
     if (sink == null) throw new NullPointerException("sink == null");
     if (random == null) throw new NullPointerException("random == null");
     this.isClient = isClient;
     this.sink = sink;
     this.random = random;
+    this.messageDeflater = messageDeflater;
 
     // Masks are only a concern for client writers.
     maskKey = isClient ? new byte[4] : null;
-    maskBuffer = isClient ? new byte[8192] : null;
+    maskCursor = isClient ? new Buffer.UnsafeCursor() : null;
   }
 
   /** Send a ping with the supplied {@code payload}. */
@@ -139,9 +153,10 @@ final class WebSocketWriter {
       random.nextBytes(maskKey);
       sink.write(maskKey);
 
-      byte[] bytes = payload.toByteArray();
-      toggleMask(bytes, bytes.length, maskKey, 0);
-      sink.write(bytes);
+      Buffer sinkBuffer = sink.buffer();
+      long payloadStart = sinkBuffer.size();
+      sinkBuffer.write(payload);
+      maskInPlace(sinkBuffer, payloadStart);
     } else {
       sink.writeByte(b1);
       sink.write(payload);
@@ -169,6 +184,24 @@ final class WebSocketWriter {
     return frameSink;
   }
 
+  /**
+   * Writes {@code data} as a single frame, compressing it first if permessage-deflate was
+   * negotiated and the message is large enough to benefit.
+   */
+  void writeMessageFrame(int formatOpcode, ByteString data) throws IOException {
+    synchronized (this) {
+      if (writerClosed) throw new IOException("closed");
+
+      messageBuffer.write(data);
+      int b0 = formatOpcode | B0_FLAG_FIN;
+      if (messageDeflater != null && data.size() >= MINIMUM_DEFLATE_SIZE) {
+        messageDeflater.deflate(messageBuffer);
+        b0 |= B0_FLAG_RSV1;
+      }
+      writeFrameSynchronized(b0, messageBuffer, messageBuffer.size());
+    }
+  }
+
   void writeMessageFrameSynchronized(int formatOpcode, long byteCount, boolean isFirstFrame,
       boolean isFinal) throws IOException {
     assert Thread.holdsLock(this);
@@ -179,6 +212,13 @@ final class WebSocketWriter {
     if (isFinal) {
       b0 |= B0_FLAG_FIN;
     }
+    writeFrameSynchronized(b0, buffer, byteCount);
+  }
+
+  /** Writes a frame header for {@code b0} followed by {@code byteCount} bytes of {@code payload}. */
+  private void writeFrameSynchronized(int b0, Buffer payload, long byteCount) throws IOException {
+    assert Thread.holdsLock(this);
+
     sink.writeByte(b0);
 
     int b1 = 0;
@@ -202,21 +242,29 @@ final class WebSocketWriter {
       random.nextBytes(maskKey);
       sink.write(maskKey);
 
-      for (long written = 0; written < byteCount; ) {
-        int toRead = (int) Math.min(byteCount, maskBuffer.length);
-        int read = buffer.read(maskBuffer, 0, toRead);
-        if (read == -1) throw new AssertionError();
-        toggleMask(maskBuffer, read, maskKey, written);
-        sink.write(maskBuffer, 0, read);
-        written += read;
-      }
+      // Move the payload's segments to the sink and mask them there, without copying.
+      Buffer sinkBuffer = sink.buffer();
+      long payloadStart = sinkBuffer.size();
+      sinkBuffer.write(payload, byteCount);
+      maskInPlace(sinkBuffer, payloadStart);
     } else {
-      sink.write(buffer, byteCount);
+      sink.write(payload, byteCount);
     }
 
     sink.emit();
   }
 
+  /** Masks the bytes of {@code sinkBuffer} from {@code payloadStart} to its end. */
+  private void maskInPlace(Buffer sinkBuffer, long payloadStart) {
+    sinkBuffer.readAndWriteUnsafe(maskCursor);
+    try {
+      maskCursor.seek(payloadStart);
+      toggleMask(maskCursor, maskKey, 0);
+    } finally {
+      maskCursor.close();
+    }
+  }
+
   final class FrameSink implements Sink {
     int formatOpcode;
     long contentLength;
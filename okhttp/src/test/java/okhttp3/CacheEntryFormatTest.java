@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.Collections;
+import java.util.List;
+import okhttp3.internal.cache.CacheRequest;
+import okhttp3.internal.cache.DiskLruCache;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class CacheEntryFormatTest {
+  /** A self-signed certificate for example.com, base64-encoded DER. */
+  private static final String CERTIFICATE_BASE64 = ""
+      + "MIIBgjCCASmgAwIBAgIUEc77a7IrmftGdVJPfdkI7ld6YjEwCgYIKoZIzj0EAwIw"
+      + "FjEUMBIGA1UEAwwLZXhhbXBsZS5jb20wIBcNMjYxMDE5MjAyMDM4WhgPMjEyNjA5"
+      + "MjUyMDIwMzhaMBYxFDASBgNVBAMMC2V4YW1wbGUuY29tMFkwEwYHKoZIzj0CAQYI"
+      + "KoZIzj0DAQcDQgAEwHgSenaQqV6FBUSheRy7en/LQwQfyIEvPmuH62EMUafiV6oQ"
+      + "Kj1VzJM0LJKO0nAnroJ0wKpLqK5LHdHLZnX5bqNTMFEwHQYDVR0OBBYEFPOnpGxH"
+      + "yz6SWmyrQ8K82pFi6nPWMB8GA1UdIwQYMBaAFPOnpGxHyz6SWmyrQ8K82pFi6nPW"
+      + "MA8GA1UdEwEB/wQFMAMBAf8wCgYIKoZIzj0EAwIDRwAwRAIgekcnj0rbSOZsGwvu"
+      + "kB4qRwotU/AVv2GJbzfsdHVxpDUCIEnm9EOggAbwncQOs/4m2EdBX440wJ21qFym"
+      + "5guXD5dt";
+
+  private final Request request = new Request.Builder()
+      .url("https://example.com/a")
+      .header("Accept", "text/plain")
+      .build();
+
+  private File directory;
+  private Cache cache;
+
+  @Before public void setUp() throws Exception {
+    directory = File.createTempFile("CacheEntryFormatTest", "");
+    if (!directory.delete()) throw new IOException("failed to delete " + directory);
+    cache = new Cache(directory, Integer.MAX_VALUE);
+  }
+
+  @After public void tearDown() throws Exception {
+    cache.delete();
+  }
+
+  @Test public void binaryRoundTrip() throws Exception {
+    Certificate certificate = certificate();
+    Response response = new Response.Builder()
+        .request(request)
+        .protocol(Protocol.HTTP_2)
+        .code(200)
+        .message("OK")
+        .header("Vary", "Accept")
+        .header("Content-Type", "text/plain")
+        .handshake(Handshake.get(TlsVersion.TLS_1_2,
+            CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256,
+            Collections.singletonList(certificate), Collections.<Certificate>emptyList()))
+        .sentRequestAtMillis(5L)
+        .receivedResponseAtMillis(7L)
+        .networkResponse(networkResponse(request))
+        .build();
+    put(response, "hello");
+
+    ByteString metadata = readMetadata();
+    assertEquals(Cache.ENTRY_MAGIC, new Buffer().write(metadata).readInt());
+
+    Response cached = cache.get(request);
+    assertEquals("hello", cached.body().string());
+    assertEquals(Protocol.HTTP_2, cached.protocol());
+    assertEquals(200, cached.code());
+    assertEquals("OK", cached.message());
+    assertEquals("text/plain", cached.header("Content-Type"));
+    assertEquals("text/plain", cached.request().header("Accept"));
+    assertEquals(5L, cached.sentRequestAtMillis());
+    assertEquals(7L, cached.receivedResponseAtMillis());
+
+    Handshake handshake = cached.handshake();
+    assertEquals(TlsVersion.TLS_1_2, handshake.tlsVersion());
+    assertEquals(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256, handshake.cipherSuite());
+    assertEquals(Collections.<Certificate>emptyList(), handshake.localCertificates());
+
+    // Certificates stay encoded until they're inspected.
+    List<Certificate> peerCertificates = handshake.peerCertificates();
+    assertTrue(peerCertificates instanceof Cache.EncodedCertificateList);
+    assertEquals(1, peerCertificates.size());
+    assertEquals(ByteString.of(certificate.getEncoded()),
+        ((Cache.EncodedCertificateList) peerCertificates).encoded.get(0));
+    assertEquals(certificate, peerCertificates.get(0));
+
+    // Writing a cached entry again reuses its encoded certificates.
+    cached.body().close();
+    put(cached.newBuilder().networkResponse(networkResponse(cached.request())).build(), "hello");
+    assertEquals(metadata, readMetadata());
+  }
+
+  @Test public void legacyTextEntryIsMigrated() throws Exception {
+    DiskLruCache.Editor editor = cache.cache.edit(Cache.key(request.url()));
+    BufferedSink metadata = Okio.buffer(editor.newSink(0));
+    metadata.writeUtf8("https://example.com/a\n"
+        + "GET\n"
+        + "1\n"
+        + "Accept: text/plain\n"
+        + "HTTP/1.1 200 OK\n"
+        + "4\n"
+        + "Vary: Accept\n"
+        + "Content-Type: text/plain\n"
+        + "OkHttp-Sent-Millis: 5\n"
+        + "OkHttp-Received-Millis: 7\n"
+        + "\n"
+        + "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256\n"
+        + "1\n"
+        + CERTIFICATE_BASE64 + "\n"
+        + "0\n"
+        + "TLSv1.2\n");
+    metadata.close();
+    BufferedSink body = Okio.buffer(editor.newSink(1));
+    body.writeUtf8("legacy");
+    body.close();
+    editor.commit();
+
+    Response legacy = cache.get(request);
+    assertEquals("legacy", legacy.body().string());
+    assertEquals(Cache.ENTRY_MAGIC, new Buffer().write(readMetadata()).readInt());
+
+    Response migrated = cache.get(request);
+    assertEquals("legacy", migrated.body().string());
+    assertEquals(Protocol.HTTP_1_1, migrated.protocol());
+    assertEquals("text/plain", migrated.header("Content-Type"));
+    assertNull(migrated.header("OkHttp-Sent-Millis"));
+    assertEquals(5L, migrated.sentRequestAtMillis());
+    assertEquals(7L, migrated.receivedResponseAtMillis());
+    assertEquals(TlsVersion.TLS_1_2, migrated.handshake().tlsVersion());
+    assertEquals(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256,
+        migrated.handshake().cipherSuite());
+    assertEquals(Collections.singletonList(certificate()),
+        migrated.handshake().peerCertificates());
+  }
+
+  @Test public void checksumMismatchIsAMiss() throws Exception {
+    Response response = new Response.Builder()
+        .request(request)
+        .protocol(Protocol.HTTP_1_1)
+        .code(200)
+        .message("OK")
+        .networkResponse(networkResponse(request))
+        .build();
+    put(response, "hello");
+
+    // Change the status message, which follows the 16 byte header, from "OK" to "OJ". Without the
+    // checksum this would still parse.
+    ByteString original = readMetadata();
+    int messageIndex = (int) new Buffer().write(original).indexOf(ByteString.encodeUtf8("OK"), 16);
+    byte[] metadata = original.toByteArray();
+    metadata[messageIndex + 1] = 'J';
+    DiskLruCache.Editor editor = cache.cache.edit(Cache.key(request.url()));
+    BufferedSink sink = Okio.buffer(editor.newSink(0));
+    sink.write(metadata);
+    sink.close();
+    editor.commit();
+
+    assertNull(cache.get(request));
+  }
+
+  private void put(Response response, String body) throws IOException {
+    CacheRequest cacheRequest = cache.put(response);
+    BufferedSink sink = Okio.buffer(cacheRequest.body());
+    sink.writeUtf8(body);
+    sink.close();
+  }
+
+  private static Response networkResponse(Request request) {
+    return new Response.Builder()
+        .request(request)
+        .protocol(Protocol.HTTP_1_1)
+        .code(200)
+        .message("OK")
+        .build();
+  }
+
+  private ByteString readMetadata() throws IOException {
+    DiskLruCache.Snapshot snapshot = cache.cache.get(Cache.key(request.url()));
+    BufferedSource source = Okio.buffer(snapshot.getSource(0));
+    try {
+      return source.readByteString();
+    } finally {
+      snapshot.close();
+    }
+  }
+
+  private static Certificate certificate() throws Exception {
+    Buffer der = new Buffer().write(ByteString.decodeBase64(CERTIFICATE_BASE64));
+    return CertificateFactory.getInstance("X.509").generateCertificate(der.inputStream());
+  }
+}
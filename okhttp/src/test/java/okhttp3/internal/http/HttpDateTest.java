@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.http;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public final class HttpDateTest {
+  @Test public void parseStandardFormats() throws Exception {
+    assertEquals(0L, HttpDate.parse("Thu, 01 Jan 1970 00:00:00 GMT").getTime());
+    assertEquals(1402057830000L, HttpDate.parse("Fri, 06 Jun 2014 12:30:30 GMT").getTime());
+    assertEquals(1402057830000L, HttpDate.parseMillis("Fri, 06 Jun 2014 12:30:30 GMT"));
+  }
+
+  @Test public void parseNonStandardFormats() throws Exception {
+    assertEquals(1402057830000L, HttpDate.parse("Friday, 06-Jun-14 12:30:30 GMT").getTime());
+    assertEquals(1402057830000L, HttpDate.parse("Fri Jun 6 12:30:30 2014").getTime());
+  }
+
+  @Test public void timeFieldsMustBeDigits() throws Exception {
+    assertNull(HttpDate.parse("Sun, 06 Nov 1994 0x:49:37 GMT"));
+    assertNull(HttpDate.parse("Sun, 06 Nov 1994 08:4x:37 GMT"));
+    assertNull(HttpDate.parse("Sun, 06 Nov 1994 08:49:3x GMT"));
+    assertEquals(HttpDate.NO_DATE, HttpDate.parseMillis("Sun, 06 Nov 1994 0x:49:37 GMT"));
+  }
+}
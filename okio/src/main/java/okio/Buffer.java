@@ -15,6 +15,7 @@
  */
 package okio;
 
+import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -1672,6 +1673,116 @@ public final class Buffer implements BufferedSource, BufferedSink, Cloneable {
     return snapshot().toString();
   }
 
+  /**
+   * Returns a cursor that can read and modify this buffer's bytes in place. Callers must {@linkplain
+   * UnsafeCursor#close close} the cursor before using this buffer again.
+   */
+  public UnsafeCursor readAndWriteUnsafe() {
+    return readAndWriteUnsafe(new UnsafeCursor());
+  }
+
+  /** Attaches {@code unsafeCursor} to this buffer so it can read and modify its bytes in place. */
+  public UnsafeCursor readAndWriteUnsafe(UnsafeCursor unsafeCursor) {
+    if (unsafeCursor.buffer != null) {
+      throw new IllegalStateException("already attached to a buffer");
+    }
+    unsafeCursor.buffer = this;
+    return unsafeCursor;
+  }
+
+  /**
+   * A handle to the segment byte arrays of a buffer, for code that needs to process bytes without
+   * copying them to an intermediate array first.
+   *
+   * <p>The cursor exposes one contiguous run of bytes at a time as {@code data[start..end)}, where
+   * {@code offset} is the position of {@code data[start]} in the buffer. Call {@link #seek} to jump
+   * to an offset and {@link #next} to advance to the following run. Shared segments are copied
+   * before they are exposed, so writes to {@code data} only affect the attached buffer.
+   *
+   * <p><strong>This is unsafe.</strong> The arrays are pooled and must not be retained after the
+   * cursor moves or is closed. The buffer must not be otherwise read or written while the cursor is
+   * attached.
+   */
+  public static final class UnsafeCursor implements Closeable {
+    public Buffer buffer;
+    private Segment segment;
+    public long offset = -1L;
+    public byte[] data;
+    public int start = -1;
+    public int end = -1;
+
+    /**
+     * Seeks to the run of bytes following the current one, returning its length or -1 if the end
+     * of the buffer has been reached. An unpositioned cursor seeks to offset 0.
+     */
+    public int next() {
+      if (offset == buffer.size) throw new IllegalStateException();
+      if (offset == -1L) return seek(0L);
+      return seek(offset + (end - start));
+    }
+
+    /**
+     * Moves the cursor to the run of bytes that contains {@code offset}, returning the number of
+     * bytes in that run from {@code offset} onward, or -1 if {@code offset} is the buffer's size.
+     */
+    public int seek(long offset) {
+      if (offset < -1 || offset > buffer.size) {
+        throw new ArrayIndexOutOfBoundsException(
+            String.format("offset=%s > size=%s", offset, buffer.size));
+      }
+
+      if (offset == -1 || offset == buffer.size) {
+        this.segment = null;
+        this.offset = offset;
+        this.data = null;
+        this.start = -1;
+        this.end = -1;
+        return -1;
+      }
+
+      // Walk forward from the current segment when we can, otherwise from the head.
+      Segment next = buffer.head;
+      long nextOffset = 0L;
+      if (segment != null) {
+        long segmentOffset = this.offset - (start - segment.pos);
+        if (segmentOffset <= offset) {
+          next = segment;
+          nextOffset = segmentOffset;
+        }
+      }
+      while (offset >= nextOffset + (next.limit - next.pos)) {
+        nextOffset += next.limit - next.pos;
+        next = next.next;
+      }
+
+      // Writes must not be visible through other segments that share this array.
+      if (next.shared) {
+        Segment unshared = next.unsharedCopy();
+        if (buffer.head == next) buffer.head = unshared;
+        next = next.push(unshared);
+        next.prev.pop();
+      }
+
+      this.segment = next;
+      this.offset = offset;
+      this.data = next.data;
+      this.start = next.pos + (int) (offset - nextOffset);
+      this.end = next.limit;
+      return end - start;
+    }
+
+    /** Detaches this cursor from its buffer so that both may be used again. */
+    @Override public void close() {
+      if (buffer == null) throw new IllegalStateException("not attached to a buffer");
+      buffer = null;
+      segment = null;
+      offset = -1L;
+      data = null;
+      start = -1;
+      end = -1;
+    }
+  }
+
   /** Returns a deep copy of this buffer. */
   /** 深拷贝 */
   @Override public Buffer clone() {
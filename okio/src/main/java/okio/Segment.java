@@ -76,6 +76,17 @@ final class Segment {
     this.shared = true;
   }
 
+  /**
+   * Returns a new segment that owns a private copy of this segment's data. Use this to write to
+   * bytes that may be shared with other segments or byte strings.
+   */
+  Segment unsharedCopy() {
+    Segment result = new Segment(data.clone(), pos, limit);
+    result.shared = false;
+    result.owner = true;
+    return result;
+  }
+
   /**
    * Removes this segment of a circularly-linked list and returns its successor.
    * Returns null if the list is now empty.
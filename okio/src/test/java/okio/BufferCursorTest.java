@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okio;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static okio.TestUtil.bufferWithRandomSegmentLayout;
+import static okio.TestUtil.repeat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public final class BufferCursorTest {
+  @Test public void iterateAllSegments() throws Exception {
+    byte[] data = randomBytes(Segment.SIZE * 5 + 17);
+    Buffer buffer = bufferWithRandomSegmentLayout(new Random(0), data);
+
+    Buffer copy = new Buffer();
+    Buffer.UnsafeCursor cursor = buffer.readAndWriteUnsafe();
+    try {
+      while (cursor.next() != -1) {
+        assertEquals(copy.size(), cursor.offset);
+        copy.write(cursor.data, cursor.start, cursor.end - cursor.start);
+      }
+    } finally {
+      cursor.close();
+    }
+
+    assertEquals(ByteString.of(data), copy.readByteString());
+  }
+
+  @Test public void seekToMiddleOfSegment() throws Exception {
+    Buffer buffer = new Buffer().writeUtf8(repeat('a', Segment.SIZE)).writeUtf8("bcd");
+    Buffer.UnsafeCursor cursor = buffer.readAndWriteUnsafe();
+    assertEquals(2, cursor.seek(Segment.SIZE + 1));
+    assertEquals('c', cursor.data[cursor.start]);
+    assertEquals(-1, cursor.seek(buffer.size()));
+    assertNull(cursor.data);
+    cursor.close();
+  }
+
+  @Test public void writesAreNotVisibleToSharedSegments() throws Exception {
+    Buffer buffer = new Buffer().writeUtf8(repeat('a', Segment.SIZE));
+    Buffer clone = buffer.clone();
+
+    Buffer.UnsafeCursor cursor = buffer.readAndWriteUnsafe();
+    cursor.seek(0);
+    cursor.data[cursor.start] = 'b';
+    cursor.close();
+
+    assertEquals('b', buffer.getByte(0));
+    assertEquals('a', clone.getByte(0));
+  }
+
+  @Test public void cannotAttachTwice() throws Exception {
+    Buffer.UnsafeCursor cursor = new Buffer().readAndWriteUnsafe();
+    try {
+      new Buffer().readAndWriteUnsafe(cursor);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] result = new byte[length];
+    new Random(0).nextBytes(result);
+    return result;
+  }
+}